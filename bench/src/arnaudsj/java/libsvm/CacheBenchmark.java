@@ -0,0 +1,66 @@
+package arnaudsj.java.libsvm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bepler.seq.svm.bench.BenchData;
+
+//
+// Cache.get_data calls per second for columns of length n when the cache
+// holds only a fraction of the n columns. Columns are requested in a fixed
+// random order, so most requests of a small cache evict, and missing parts
+// are filled with a constant to leave out the cost of the kernel.
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CacheBenchmark
+{
+	@Param({"1000", "10000"})
+	public int n;
+
+	@Param({"0.05", "0.5"})
+	public double fraction;
+
+	private Cache cache;
+	private int[] columns;
+	private int next;
+	private final float[][] data = new float[1][];
+
+	@Setup
+	public void setup()
+	{
+		cache = new Cache(n,(long)(fraction*n*n*4));
+		Random random = new Random(BenchData.SEED);
+		columns = new int[1<<16];
+		for(int i=0;i<columns.length;i++)
+			columns[i] = random.nextInt(n);
+		next = 0;
+	}
+
+	@Benchmark
+	public float get_data()
+	{
+		int column = columns[next];
+		next = (next+1) & (columns.length-1);
+		int start = cache.get_data(column,data,n);
+		for(int j=start;j<n;j++)
+			data[0][j] = 1;
+		return data[0][column];
+	}
+}
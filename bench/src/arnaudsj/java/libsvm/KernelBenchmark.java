@@ -0,0 +1,82 @@
+package arnaudsj.java.libsvm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.bench.BenchData;
+
+//
+// Kernel evaluations per second between the feature rows of n generated
+// sequences, taken pairwise in a fixed random order. Lives in libsvm's
+// package to reach the package private Kernel.
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KernelBenchmark
+{
+	@Param({"36", "100"})
+	public int seqLen;
+
+	@Param({"1-3", "1-6"})
+	public String kmers;
+
+	@Param({"1000"})
+	public int n;
+
+	private svm_node[][] x;
+	private svm_parameter rbf;
+	private int[] pairs;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(BenchData.SEED);
+		FeatureBuilder builder = BenchData.builder(seqLen,kmers);
+		String[] seqs = BenchData.sequences(n,seqLen,random);
+		x = BenchData.problem(builder,seqs,new double[n]).x;
+		rbf = BenchData.svrParameter(builder,svm_parameter.RBF);
+		pairs = new int[2*n];
+		for(int i=0;i<pairs.length;i++)
+			pairs[i] = random.nextInt(n);
+		next = 0;
+	}
+
+	private int next_pair()
+	{
+		int i = next;
+		next = next+2 == pairs.length ? 0 : next+2;
+		return i;
+	}
+
+	@Benchmark
+	public double dot()
+	{
+		int k = next_pair();
+		return Kernel.dot(x[pairs[k]],x[pairs[k+1]]);
+	}
+
+	@Benchmark
+	public double k_function_rbf()
+	{
+		int k = next_pair();
+		return Kernel.k_function(x[pairs[k]],x[pairs[k+1]],rbf);
+	}
+}
@@ -0,0 +1,81 @@
+package arnaudsj.java.libsvm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.bench.BenchData;
+
+//
+// Time of one epsilon SVR solve on n generated sequences, set up the way
+// svm_train sets it up, from a cold kernel cache. Gives the cost of a grid
+// point for sizing jobs.
+//
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class SolverBenchmark
+{
+	@Param({"36"})
+	public int seqLen;
+
+	@Param({"1-3"})
+	public String kmers;
+
+	@Param({"500", "2000", "5000"})
+	public int n;
+
+	@Param({"linear", "rbf"})
+	public String kernel;
+
+	private svm_problem prob;
+	private svm_parameter param;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(BenchData.SEED);
+		FeatureBuilder builder = BenchData.builder(seqLen,kmers);
+		String[] seqs = BenchData.sequences(n,seqLen,random);
+		prob = BenchData.problem(builder,seqs,BenchData.values(builder,seqs,random));
+		param = BenchData.svrParameter(builder,"rbf".equals(kernel) ? svm_parameter.RBF : svm_parameter.LINEAR);
+		svm.svm_set_print_string_function(new svm_print_interface()
+		{
+			public void print(String s) { }
+		});
+	}
+
+	@Benchmark
+	public double solve()
+	{
+		int l = prob.l;
+		double[] alpha = new double[2*l];
+		double[] linear_term = new double[2*l];
+		byte[] y = new byte[2*l];
+		for(int i=0;i<l;i++)
+		{
+			linear_term[i] = param.p - prob.y[i];
+			y[i] = 1;
+			linear_term[i+l] = param.p + prob.y[i];
+			y[i+l] = -1;
+		}
+		Solver.SolutionInfo si = new Solver.SolutionInfo();
+		new Solver().Solve(2*l,new SVR_Q(prob,param),linear_term,y,alpha,param.C,param.C,param.eps,si,param.shrinking);
+		return si.obj;
+	}
+}
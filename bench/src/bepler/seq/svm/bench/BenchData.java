@@ -0,0 +1,113 @@
+package bepler.seq.svm.bench;
+
+import java.util.Random;
+
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.SeqSVMTrainer;
+
+/**
+ * Deterministic synthetic DNA regression data shared by the benchmarks. Sequences are uniform over ACGT and their
+ * values are a planted linear function of their kmer features plus gaussian noise, so trained models have realistic
+ * numbers of support vectors. The same arguments always give the same data.
+ */
+public class BenchData {
+
+	public static final char[] DNA = new char[]{'A','C','G','T'};
+	public static final long SEED = 42;
+
+	/**
+	 * @param seqLen
+	 * @param kmers - inclusive range of kmer sizes as "min-max"
+	 * @return
+	 */
+	public static FeatureBuilder builder(int seqLen, String kmers){
+		String[] range = kmers.split("-");
+		int min = Integer.parseInt(range[0]);
+		int max = Integer.parseInt(range[range.length - 1]);
+		return new FeatureBuilder(seqLen, min, max + 1, DNA);
+	}
+
+	public static String[] sequences(int n, int seqLen, Random random){
+		String[] seqs = new String[n];
+		char[] seq = new char[seqLen];
+		for( int i = 0 ; i < n ; ++i ){
+			for( int j = 0 ; j < seqLen ; ++j ){
+				seq[j] = DNA[random.nextInt(DNA.length)];
+			}
+			seqs[i] = new String(seq);
+		}
+		return seqs;
+	}
+
+	/**
+	 * Returns the values of the sequences under random gaussian feature weights, scaled to unit variance, plus noise
+	 * with standard deviation 0.1.
+	 */
+	public static double[] values(FeatureBuilder builder, String[] seqs, Random random){
+		double[] weights = new double[builder.numFeatures()];
+		for( int i = 0 ; i < weights.length ; ++i ){
+			weights[i] = random.nextGaussian();
+		}
+		double[] vals = new double[seqs.length];
+		for( int i = 0 ; i < seqs.length ; ++i ){
+			int[] present = builder.featurizeAsIndices(seqs[i]);
+			double val = 0;
+			for(int f : present){
+				val += weights[f];
+			}
+			vals[i] = val / Math.sqrt(Math.max(1, present.length)) + 0.1 * random.nextGaussian();
+		}
+		return vals;
+	}
+
+	public static svm_problem problem(FeatureBuilder builder, String[] seqs, double[] vals){
+		svm_problem prob = new svm_problem();
+		prob.l = seqs.length;
+		prob.y = vals.clone();
+		prob.x = SeqSVMTrainer.generateFeatures(builder, java.util.Arrays.asList(seqs));
+		return prob;
+	}
+
+	/**
+	 * Returns epsilon SVR parameters for the given kernel, with gamma scaled to the number of features per sequence.
+	 */
+	public static svm_parameter svrParameter(FeatureBuilder builder, int kernelType){
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.EPSILON_SVR;
+		param.kernel_type = kernelType;
+		param.gamma = 1.0 / builder.maxPresent();
+		param.C = 1;
+		param.p = 0.1;
+		param.eps = 0.001;
+		param.cache_size = 100;
+		param.shrinking = 1;
+		return param;
+	}
+
+	/**
+	 * Returns a linear model with a single support vector holding a random weight for every feature.
+	 */
+	public static svm_model linearModel(FeatureBuilder builder, Random random){
+		svm_node[] w = new svm_node[builder.numFeatures()];
+		for( int i = 0 ; i < w.length ; ++i ){
+			w[i] = new svm_node();
+			w[i].index = i;
+			w[i].value = random.nextGaussian();
+		}
+		svm_model model = new svm_model();
+		model.param = new svm_parameter();
+		model.param.svm_type = svm_parameter.EPSILON_SVR;
+		model.param.kernel_type = svm_parameter.LINEAR;
+		model.nr_class = 2;
+		model.l = 1;
+		model.SV = new svm_node[][]{ w };
+		model.sv_coef = new double[][]{ {1} };
+		model.rho = new double[]{ -random.nextGaussian() };
+		return model;
+	}
+
+}
@@ -0,0 +1,74 @@
+package bepler.seq.svm.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import arnaudsj.java.libsvm.svm_node;
+import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.SeqSVMTrainer;
+
+/**
+ * Sequences per second turned into features. Each call featurizes the next of n generated sequences.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FeaturizeBenchmark {
+
+	@Param({"36", "100"})
+	public int seqLen;
+
+	@Param({"1-3", "1-6"})
+	public String kmers;
+
+	@Param({"1000"})
+	public int n;
+
+	private FeatureBuilder builder;
+	private String[] seqs;
+	private int next;
+
+	@Setup
+	public void setup(){
+		builder = BenchData.builder(seqLen, kmers);
+		seqs = BenchData.sequences(n, seqLen, new Random(BenchData.SEED));
+		next = 0;
+	}
+
+	private String nextSeq(){
+		String seq = seqs[next];
+		next = next + 1 == seqs.length ? 0 : next + 1;
+		return seq;
+	}
+
+	@Benchmark
+	public int[] featurize(){
+		return builder.featurize(nextSeq());
+	}
+
+	@Benchmark
+	public double[] featurizeAsDouble(){
+		return builder.featurizeAsDouble(nextSeq());
+	}
+
+	@Benchmark
+	public svm_node[] extractFeatures(){
+		return SeqSVMTrainer.extractFeatures(builder, nextSeq());
+	}
+
+}
@@ -0,0 +1,150 @@
+package bepler.seq.svm.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_print_interface;
+import bepler.seq.svm.BinaryLinearModel;
+import bepler.seq.svm.Feature;
+import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.Features;
+import bepler.seq.svm.LinearModel;
+import bepler.seq.svm.SeqSVMModel;
+import bepler.seq.svm.SeqSVMTrainer;
+
+/**
+ * Sequences per second scored by the prediction paths: the compiled scorer behind SeqSVMModel.predict and the
+ * LinearModel read back from a model file, svm_predict on sparse nodes against an RBF model trained on n generated
+ * sequences, and the former per kmer HashMap lookup. Also times reading the written model back as text with
+ * LinearModel.readModel and in the binary format with BinaryLinearModel.read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PredictBenchmark {
+
+	@Param({"36", "100"})
+	public int seqLen;
+
+	@Param({"1-3", "1-6"})
+	public String kmers;
+
+	@Param({"1000"})
+	public int n;
+
+	private FeatureBuilder builder;
+	private String[] seqs;
+	private int next;
+	private SeqSVMModel svmModel;
+	private LinearModel textModel;
+	private byte[] modelText;
+	private byte[] modelBinary;
+	private svm_model rbfModel;
+	private Map<Feature, Double> map;
+	private double intercept;
+
+	@Setup
+	public void setup(){
+		Random random = new Random(BenchData.SEED);
+		builder = BenchData.builder(seqLen, kmers);
+		seqs = BenchData.sequences(n, seqLen, random);
+		next = 0;
+
+		svmModel = new SeqSVMModel(builder, BenchData.linearModel(builder, random));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		svmModel.write(new PrintStream(bytes));
+		modelText = bytes.toByteArray();
+		textModel = LinearModel.readModel(new ByteArrayInputStream(modelText));
+		bytes = new ByteArrayOutputStream();
+		try{
+			svmModel.writeBinary(bytes);
+		}catch(IOException e){
+			throw new Error(e);
+		}
+		modelBinary = bytes.toByteArray();
+
+		svm.svm_set_print_string_function(new svm_print_interface(){
+			@Override public void print(String s){ }
+		});
+		rbfModel = svm.svm_train(BenchData.problem(builder, seqs, BenchData.values(builder, seqs, random)),
+				BenchData.svrParameter(builder, svm_parameter.RBF));
+
+		map = new HashMap<Feature, Double>();
+		Feature[] features = textModel.getFeatures();
+		double[] weights = textModel.getWeights();
+		for( int i = 0 ; i < features.length ; ++i ){
+			map.put(features[i], weights[i]);
+		}
+		intercept = textModel.intercept();
+	}
+
+	private String nextSeq(){
+		String seq = seqs[next];
+		next = next + 1 == seqs.length ? 0 : next + 1;
+		return seq;
+	}
+
+	@Benchmark
+	public double seqSVMModelPredict(){
+		return svmModel.predict(nextSeq());
+	}
+
+	@Benchmark
+	public double linearModelPredict(){
+		return textModel.predict(nextSeq());
+	}
+
+	@Benchmark
+	public double svmPredictRbf(){
+		return svm.svm_predict(rbfModel, SeqSVMTrainer.extractFeatures(builder, nextSeq()));
+	}
+
+	@Benchmark
+	public double hashMapLookup(){
+		double val = intercept;
+		for(Feature f : Features.featurize(nextSeq(), builder.getKmerSizes())){
+			val += map.get(f);
+		}
+		return val;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public LinearModel readModel(){
+		return LinearModel.readModel(new ByteArrayInputStream(modelText));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public LinearModel readBinaryModel() throws IOException{
+		return BinaryLinearModel.read(ByteBuffer.wrap(modelBinary));
+	}
+
+}
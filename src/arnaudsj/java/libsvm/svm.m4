@@ -12,45 +12,86 @@ import java.util.*;
 // l is the number of total data items
 // size is the cache size limit in bytes
 //
+// Columns live in slots of l floats that are allocated once and reused
+// after eviction, and the LRU list is threaded through int arrays indexed
+// by slot. A column grows in place, so training neither copies columns nor
+// leaves them to the garbage collector. A column returned by get_data stays
+// valid until two other columns have been requested.
+//
 class Cache {
 	private final int l;
-	private long size;
-	private final class head_t
-	{
-		head_t prev, next;	// a cicular list
-		Qfloat[] data;
-		int len;		// data[0,len) is cached in this entry
-	}
-	private final head_t[] head;
-	private head_t lru_head;
+	private final int max_slots;
+	private final Qfloat[][] slot_data;	// allocated on first use
+	private int nr_slots;
+	private final int[] slot_of;	// slot of each column, -1 if not cached
+	private final int[] filled;	// [0,filled[i]) of column i is cached
+	private final int[] owner;	// column held by each slot, -1 if it holds none
+	private final int[] prev, next;	// a circular list, node max_slots is its head
+	private long hits, misses, evictions;
 
 	Cache(int l_, long size_)
 	{
 		l = l_;
-		size = size_;
-		head = new head_t[l];
-		for(int i=0;i<l;i++) head[i] = new head_t();
-		size /= SIZE_OF_QFLOAT;
-		size -= l * (16/SIZE_OF_QFLOAT);	// sizeof(head_t) == 16
-		size = Math.max(size, 2* (long) l);  // cache must be large enough for two columns
-		lru_head = new head_t();
-		lru_head.next = lru_head.prev = lru_head;
+		long size = size_/SIZE_OF_QFLOAT/Math.max(l,1);
+		max_slots = (int)Math.max(2,Math.min(l,size));	// cache must be large enough for two columns
+		slot_data = new Qfloat[max_slots][];
+		slot_of = new int[l];
+		filled = new int[l];
+		Arrays.fill(slot_of,-1);
+		owner = new int[max_slots];
+		prev = new int[max_slots+1];
+		next = new int[max_slots+1];
+		prev[max_slots] = next[max_slots] = max_slots;
 	}
 
-	private void lru_delete(head_t h)
+	long hits() { return hits; }
+	long misses() { return misses; }
+	long evictions() { return evictions; }
+
+	private void lru_delete(int s)
 	{
 		// delete from current location
-		h.prev.next = h.next;
-		h.next.prev = h.prev;
+		next[prev[s]] = next[s];
+		prev[next[s]] = prev[s];
 	}
 
-	private void lru_insert(head_t h)
+	private void lru_insert(int s)
 	{
 		// insert to last position
-		h.next = lru_head;
-		h.prev = lru_head.prev;
-		h.prev.next = h;
-		h.next.prev = h;
+		next[s] = max_slots;
+		prev[s] = prev[max_slots];
+		next[prev[s]] = s;
+		prev[max_slots] = s;
+	}
+
+	private void lru_insert_first(int s)
+	{
+		// insert to first position, the next to be reused
+		prev[s] = max_slots;
+		next[s] = next[max_slots];
+		prev[next[s]] = s;
+		next[max_slots] = s;
+	}
+
+	private void evict(int s)
+	{
+		lru_delete(s);
+		if(owner[s] < 0)
+			return;
+		slot_of[owner[s]] = -1;
+		filled[owner[s]] = 0;
+		++evictions;
+	}
+
+	// drops the column of slot s and keeps the empty slot in the list,
+	// first in line for reuse
+	private void release(int s)
+	{
+		lru_delete(s);
+		slot_of[owner[s]] = -1;
+		filled[owner[s]] = 0;
+		owner[s] = -1;
+		lru_insert_first(s);
 	}
 
 	// request data [0,len)
@@ -59,96 +100,211 @@ class Cache {
 	// java: simulate pointer using single-element array
 	int get_data(int index, Qfloat[][] data, int len)
 	{
-		head_t h = head[index];
-		if(h.len > 0) lru_delete(h);
-		int more = len - h.len;
-
-		if(more > 0)
+		int s = slot_of[index];
+		if(s >= 0)
+			lru_delete(s);
+		else
 		{
-			// free old space
-			while(size < more)
+			if(nr_slots < max_slots)
 			{
-				head_t old = lru_head.next;
-				lru_delete(old);
-				size += old.len;
-				old.data = null;
-				old.len = 0;
+				s = nr_slots++;
+				slot_data[s] = new Qfloat[l];
 			}
-
-			// allocate new space
-			Qfloat[] new_data = new Qfloat[len];
-			if(h.data != null) System.arraycopy(h.data,0,new_data,0,h.len);
-			h.data = new_data;
-			size -= more;
-			swap(int,h.len,len);
+			else
+			{
+				s = next[max_slots];
+				evict(s);
+			}
+			owner[s] = index;
+			slot_of[index] = s;
 		}
+		lru_insert(s);
+		data[0] = slot_data[s];
 
-		lru_insert(h);
-		data[0] = h.data;
-		return len;
+		int start = filled[index];
+		if(start >= len)
+		{
+			++hits;
+			return len;
+		}
+		++misses;
+		filled[index] = len;
+		return start;
 	}
 
 	void swap_index(int i, int j)
 	{
 		if(i==j) return;
-		
-		if(head[i].len > 0) lru_delete(head[i]);
-		if(head[j].len > 0) lru_delete(head[j]);
-		swap(Qfloat[],head[i].data,head[j].data);
-		swap(int,head[i].len,head[j].len);
-		if(head[i].len > 0) lru_insert(head[i]);
-		if(head[j].len > 0) lru_insert(head[j]);
+
+		int si = slot_of[i], sj = slot_of[j];
+		if(si >= 0) lru_delete(si);
+		if(sj >= 0) lru_delete(sj);
+		swap(int,slot_of[i],slot_of[j]);
+		swap(int,filled[i],filled[j]);
+		if(sj >= 0) { owner[sj] = i; lru_insert(sj); }
+		if(si >= 0) { owner[si] = j; lru_insert(si); }
 
 		if(i>j) swap(int,i,j);
-		for(head_t h = lru_head.next; h!=lru_head; h=h.next)
+		for(int s = next[max_slots]; s!=max_slots;)
 		{
-			if(h.len > i)
+			int s_next = next[s];
+			int h = owner[s];
+			if(h >= 0 && filled[h] > i)
 			{
-				if(h.len > j)
-					swap(Qfloat,h.data[i],h.data[j]);
+				if(filled[h] > j)
+					swap(Qfloat,slot_data[s][i],slot_data[s][j]);
 				else
-				{
 					// give up
-					lru_delete(h);
-					size += h.len;
-					h.data = null;
-					h.len = 0;
-				}
+					release(s);
 			}
+			s = s_next;
 		}
 	}
 }
 
 //
-// Kernel evaluation
+// Parallel loops
 //
-// the static method k_function is for doing single kernel evaluation
-// the constructor of Kernel prepares to calculate the l*l kernel matrix
-// the member function get_Q is for getting one column from the Q Matrix
+// Loops over long index ranges are cut into one chunk per thread and run on
+// a fork-join pool, the first chunk on the calling thread. Ranges shorter
+// than 2*MIN_CHUNK stay on the calling thread, so small problems are solved
+// exactly as before.
 //
+abstract class RangeLoop {
+	abstract void run(int begin, int end, int chunk);
+}
+
+class ParallelLoop {
+	static final int MIN_CHUNK = 1<<14;
+	private final int threads;
+	private final java.util.concurrent.ForkJoinPool pool;
+
+	private ParallelLoop(int threads)
+	{
+		this.threads = threads;
+		pool = new java.util.concurrent.ForkJoinPool(threads-1);
+	}
+
+	// null if a problem of size l is too small to split or threads <= 1
+	static ParallelLoop create(int threads, int l)
+	{
+		return threads > 1 && l >= 2*MIN_CHUNK ? new ParallelLoop(threads) : null;
+	}
+
+	boolean splits(int n)
+	{
+		return n >= 2*MIN_CHUNK;
+	}
+
+	int chunks(int n)
+	{
+		return splits(n) ? Math.min(threads,n/MIN_CHUNK) : 1;
+	}
+
+	void run(final int begin, final int end, final RangeLoop loop)
+	{
+		final int n = end-begin;
+		final int chunks = chunks(n);
+		java.util.concurrent.ForkJoinTask<?>[] tasks = new java.util.concurrent.ForkJoinTask<?>[chunks];
+		for(int c=1;c<chunks;c++)
+		{
+			final int chunk = c;
+			tasks[c] = pool.submit(new Runnable()
+			{
+				public void run()
+				{
+					loop.run(begin+(int)((long)n*chunk/chunks),begin+(int)((long)n*(chunk+1)/chunks),chunk);
+				}
+			});
+		}
+		loop.run(begin,begin+n/chunks,0);
+		for(int c=1;c<chunks;c++)
+			tasks[c].join();
+	}
+
+	void shutdown()
+	{
+		pool.shutdown();
+	}
+}
+
 abstract class QMatrix {
 	abstract Qfloat[] get_Q(int column, int len);
 	abstract double[] get_QD();
 	abstract void swap_index(int i, int j);
+	ParallelLoop parallel() { return null; }
+	Cache cache() { return null; }
+	long kernel_evaluations() { return 0; }
 };
 
+//
+// Kernel evaluation
+//
+// the static method k_function is for doing single kernel evaluation
+// the constructor of Kernel prepares to calculate the l*l kernel matrix
+// the member function get_Q is for getting one column from the Q Matrix
+//
 abstract class Kernel extends QMatrix {
 	private svm_node[][] x;
 	private final double[] x_square;
 
+	// instances in csr, bitset or mapped form instead of x, and the row of
+	// each instance in them
+	private final svm_csr_matrix csr;
+	private final svm_bit_matrix bits;
+	private final svm_mapped_matrix mapped;
+	private final int[] row_of;
+
+	// precomputed kernel values and the row of each instance in them
+	private final svm_gram_matrix gram;
+	private final int[] gram_index;
+
+	// splits kernel rows and solver loops, null for serial
+	private final ParallelLoop parallel;
+
+	ParallelLoop parallel() { return parallel; }
+
+	// kernel values computed so far
+	long evaluations;
+
+	long kernel_evaluations() { return evaluations; }
+
+	// row[j] = kernel_function(i,j) for j in [begin,end)
+	void kernel_row(final int i, final Qfloat[] row, int begin, int end)
+	{
+		evaluations += end-begin;
+		if(parallel != null && parallel.splits(end-begin))
+		{
+			parallel.run(begin,end,new RangeLoop()
+			{
+				void run(int b, int e, int chunk)
+				{
+					for(int j=b;j<e;j++)
+						row[j] = (Qfloat)kernel_function(i,j);
+				}
+			});
+			return;
+		}
+		for(int j=begin;j<end;j++)
+			row[j] = (Qfloat)kernel_function(i,j);
+	}
+
 	// svm_parameter
 	private final int kernel_type;
 	private final int degree;
 	private final double gamma;
 	private final double coef0;
+	private final int[] kmer_sizes;
 
 	abstract Qfloat[] get_Q(int column, int len);
 	abstract double[] get_QD();
 
 	void swap_index(int i, int j)
 	{
-		swap(svm_node[],x[i],x[j]);
+		if(row_of != null) swap(int,row_of[i],row_of[j]);
+		else swap(svm_node[],x[i],x[j]);
 		if(x_square != null) swap(double,x_square[i],x_square[j]);
+		if(gram_index != null) swap(int,gram_index[i],gram_index[j]);
 	}
 
 	private static double powi(double base, int times)
@@ -163,39 +319,86 @@ abstract class Kernel extends QMatrix {
 		return ret;
 	}
 
+	private double row_dot(int i, int j)
+	{
+		if(bits != null)
+			return bits.dot(row_of[i],row_of[j]);
+		if(mapped != null)
+			return mapped.dot(row_of[i],row_of[j]);
+		return csr != null ? csr.dot(row_of[i],row_of[j]) : dot(x[i],x[j]);
+	}
+
 	double kernel_function(int i, int j)
 	{
+		if(gram != null)
+			return gram.get(gram_index[i],gram_index[j]);
 		switch(kernel_type)
 		{
 			case svm_parameter.LINEAR:
-				return dot(x[i],x[j]);
+				return row_dot(i,j);
 			case svm_parameter.POLY:
-				return powi(gamma*dot(x[i],x[j])+coef0,degree);
+				return powi(gamma*row_dot(i,j)+coef0,degree);
 			case svm_parameter.RBF:
-				return Math.exp(-gamma*(x_square[i]+x_square[j]-2*dot(x[i],x[j])));
+				return Math.exp(-gamma*(x_square[i]+x_square[j]-2*row_dot(i,j)));
 			case svm_parameter.SIGMOID:
-				return Math.tanh(gamma*dot(x[i],x[j])+coef0);
+				return Math.tanh(gamma*row_dot(i,j)+coef0);
 			case svm_parameter.PRECOMPUTED:
 				return x[i][(int)(x[j][0].value)].value;
+			case svm_parameter.KMER:
+				return svm_kmer_node.kernel((svm_kmer_node)x[i][0],(svm_kmer_node)x[j][0],kmer_sizes);
 			default:
 				return 0;	// java
 		}
 	}
 
 	Kernel(int l, svm_node[][] x_, svm_parameter param)
+	{
+		this(l,x_,null,null,null,param,null,null);
+	}
+
+	// csr_, bits_, mapped_: the instances in csr, bitset or mapped form, or
+	// null to use x_
+	// gram_: values of this kernel for the instances, or null to compute them
+	// rows_: row of each instance in gram_, or null if instance i is row i
+	Kernel(int l, svm_node[][] x_, svm_csr_matrix csr_, svm_bit_matrix bits_, svm_mapped_matrix mapped_, svm_parameter param, svm_gram_matrix gram_, int[] rows_)
 	{
 		this.kernel_type = param.kernel_type;
 		this.degree = param.degree;
 		this.gamma = param.gamma;
 		this.coef0 = param.coef0;
+		this.kmer_sizes = param.kmer_sizes;
+		this.parallel = ParallelLoop.create(param.threads,l);
 
-		x = (svm_node[][])x_.clone();
+		bits = bits_;
+		mapped = bits == null ? mapped_ : null;
+		csr = bits == null && mapped == null ? csr_ : null;
+		if(bits != null || mapped != null || csr != null)
+		{
+			x = null;
+			row_of = new int[l];
+			for(int i=0;i<l;i++)
+				row_of[i] = i;
+		}
+		else
+		{
+			x = (svm_node[][])x_.clone();
+			row_of = null;
+		}
 
-		if(kernel_type == svm_parameter.RBF)
+		gram = gram_;
+		if(gram != null)
+		{
+			gram_index = new int[l];
+			for(int i=0;i<l;i++)
+				gram_index[i] = rows_ == null ? i : rows_[i];
+		}
+		else gram_index = null;
+
+		if(kernel_type == svm_parameter.RBF && gram == null)
 		{
 			x_square = new double[l];
 			for(int i=0;i<l;i++)
-				x_square[i] = dot(x[i],x[i]);
+				x_square[i] = row_dot(i,i);
 		}
 		else x_square = null;
 	}
@@ -275,6 +478,89 @@ abstract class Kernel extends QMatrix {
 				return Math.tanh(param.gamma*dot(x,y)+param.coef0);
 			case svm_parameter.PRECOMPUTED:
 				return	x[(int)(y[0].value)].value;
+			case svm_parameter.KMER:
+				return svm_kmer_node.kernel((svm_kmer_node)x[0],(svm_kmer_node)y[0],param.kmer_sizes);
+			default:
+				return 0;	// java
+		}
+	}
+
+	static double dot(svm_node[] x, svm_csr_matrix y, int begin, int end)
+	{
+		double sum = 0;
+		int xlen = x.length;
+		int i = 0;
+		int j = begin;
+		while(i < xlen && j < end)
+		{
+			if(x[i].index == y.col_index[j])
+				sum += x[i++].value * y.values[j++];
+			else
+			{
+				if(x[i].index > y.col_index[j])
+					++j;
+				else
+					++i;
+			}
+		}
+		return sum;
+	}
+
+	// k_function of x and row r of y, for models holding their SVs as CSR rows
+	static double k_function(svm_node[] x, svm_csr_matrix y, int r,
+					svm_parameter param)
+	{
+		int begin = y.row_ptr[r];
+		int end = y.row_ptr[r+1];
+		switch(param.kernel_type)
+		{
+			case svm_parameter.LINEAR:
+				return dot(x,y,begin,end);
+			case svm_parameter.POLY:
+				return powi(param.gamma*dot(x,y,begin,end)+param.coef0,param.degree);
+			case svm_parameter.RBF:
+			{
+				double sum = 0;
+				int xlen = x.length;
+				int i = 0;
+				int j = begin;
+				while(i < xlen && j < end)
+				{
+					if(x[i].index == y.col_index[j])
+					{
+						double d = x[i++].value - y.values[j++];
+						sum += d*d;
+					}
+					else if(x[i].index > y.col_index[j])
+					{
+						sum += y.values[j] * y.values[j];
+						++j;
+					}
+					else
+					{
+						sum += x[i].value * x[i].value;
+						++i;
+					}
+				}
+
+				while(i < xlen)
+				{
+					sum += x[i].value * x[i].value;
+					++i;
+				}
+
+				while(j < end)
+				{
+					sum += y.values[j] * y.values[j];
+					++j;
+				}
+
+				return Math.exp(-param.gamma*sum);
+			}
+			case svm_parameter.SIGMOID:
+				return Math.tanh(param.gamma*dot(x,y,begin,end)+param.coef0);
+			case svm_parameter.PRECOMPUTED:
+				return	x[(int)(y.values[begin])].value;
 			default:
 				return 0;	// java
 		}
@@ -317,6 +603,8 @@ class Solver {
 	double[] G_bar;		// gradient, if we treat free variables as 0
 	int l;
 	boolean unshrink;	// XXX
+	ParallelLoop par;	// splits the O(l) loops, null for serial
+	svm_solve_stats stats;
 	
 	static final double INF = java.lang.Double.POSITIVE_INFINITY;
 
@@ -344,6 +632,7 @@ class Solver {
 		double upper_bound_p;
 		double upper_bound_n;
 		double r;	// for Solver_NU
+		svm_solve_stats stats;
 	}
 
 	void swap_index(int i, int j)
@@ -358,12 +647,33 @@ class Solver {
 		swap(double,	G_bar[i],G_bar[j]);
 	}
 
+	// v[k] += a*Q_i[k] for k in [begin,end)
+	void add_row(final double[] v, final double a, final Qfloat[] Q_i, int begin, int end)
+	{
+		if(par != null && par.splits(end-begin))
+		{
+			par.run(begin,end,new RangeLoop()
+			{
+				void run(int b, int e, int chunk)
+				{
+					for(int k=b;k<e;k++)
+						v[k] += a*Q_i[k];
+				}
+			});
+			return;
+		}
+		for(int k=begin;k<end;k++)
+			v[k] += a*Q_i[k];
+	}
+
 	void reconstruct_gradient()
 	{
 		// reconstruct inactive elements of G from G_bar and free variables
 
 		if(active_size == l) return;
 
+		long start_time = System.nanoTime();
+		++stats.reconstructions;
 		int i,j;
 		int nr_free = 0;
 
@@ -393,11 +703,10 @@ class Solver {
 				if(is_free(i))
 				{
 					Qfloat[] Q_i = Q.get_Q(i,l);
-					double alpha_i = alpha[i];
-					for(j=active_size;j<l;j++)
-						G[j] += alpha_i * Q_i[j];
+					add_row(G,alpha[i],Q_i,active_size,l);
 				}
 		}
+		stats.reconstruct_nanos += System.nanoTime()-start_time;
 	}
 
 	void Solve(int l, QMatrix Q, double[] p_, byte[] y_,
@@ -413,6 +722,10 @@ class Solver {
 		this.Cn = Cn;
 		this.eps = eps;
 		this.unshrink = false;
+		this.par = Q.parallel();
+		long start_time = System.nanoTime();
+		stats = new svm_solve_stats();
+		stats.l = l;
 
 		// initialize alpha_status
 		{
@@ -443,14 +756,11 @@ class Solver {
 				if(!is_lower_bound(i))
 				{
 					Qfloat[] Q_i = Q.get_Q(i,l);
-					double alpha_i = alpha[i];
-					int j;
-					for(j=0;j<l;j++)
-						G[j] += alpha_i*Q_i[j];
+					add_row(G,alpha[i],Q_i,0,l);
 					if(is_upper_bound(i))
-						for(j=0;j<l;j++)
-							G_bar[j] += get_C(i) * Q_i[j];
+						add_row(G_bar,get_C(i),Q_i,0,l);
 				}
+			stats.init_nanos = System.nanoTime()-start_time;
 		}
 
 		// optimization step
@@ -467,8 +777,21 @@ class Solver {
 			if(--counter == 0)
 			{
 				counter = Math.min(l,1000);
-				if(shrinking!=0) do_shrinking();
+				if(shrinking!=0)
+				{
+					long shrink_start = System.nanoTime();
+					int old_active_size = active_size;
+					do_shrinking();
+					if(active_size < old_active_size) ++stats.shrinks;
+					stats.shrink_nanos += System.nanoTime()-shrink_start;
+				}
 				svm.info(".");
+				// training is abandoned when its thread is interrupted
+				if(Thread.currentThread().isInterrupted())
+				{
+					if(par != null) par.shutdown();
+					throw new java.util.concurrent.CancellationException("svm training interrupted");
+				}
 			}
 
 			if(select_working_set(working_set)!=0)
@@ -476,6 +799,7 @@ class Solver {
 				// reconstruct the whole gradient
 				reconstruct_gradient();
 				// reset active set size and check
+				if(active_size < l) ++stats.unshrinks;
 				active_size = l;
 				svm.info("*");
 				if(select_working_set(working_set)!=0)
@@ -589,9 +913,22 @@ class Solver {
 
 			// update G
 
-			double delta_alpha_i = alpha[i] - old_alpha_i;
-			double delta_alpha_j = alpha[j] - old_alpha_j;
+			final double delta_alpha_i = alpha[i] - old_alpha_i;
+			final double delta_alpha_j = alpha[j] - old_alpha_j;
 
+			if(par != null && par.splits(active_size))
+			{
+				final Qfloat[] row_i = Q_i, row_j = Q_j;
+				par.run(0,active_size,new RangeLoop()
+				{
+					void run(int b, int e, int chunk)
+					{
+						for(int k=b;k<e;k++)
+							G[k] += row_i[k]*delta_alpha_i + row_j[k]*delta_alpha_j;
+					}
+				});
+			}
+			else
 			for(int k=0;k<active_size;k++)
 			{
 				G[k] += Q_i[k]*delta_alpha_i + Q_j[k]*delta_alpha_j;
@@ -604,27 +941,16 @@ class Solver {
 				boolean uj = is_upper_bound(j);
 				update_alpha_status(i);
 				update_alpha_status(j);
-				int k;
 				if(ui != is_upper_bound(i))
 				{
 					Q_i = Q.get_Q(i,l);
-					if(ui)
-						for(k=0;k<l;k++)
-							G_bar[k] -= C_i * Q_i[k];
-					else
-						for(k=0;k<l;k++)
-							G_bar[k] += C_i * Q_i[k];
+					add_row(G_bar,ui ? -C_i : C_i,Q_i,0,l);
 				}
 
 				if(uj != is_upper_bound(j))
 				{
 					Q_j = Q.get_Q(j,l);
-					if(uj)
-						for(k=0;k<l;k++)
-							G_bar[k] -= C_j * Q_j[k];
-					else
-						for(k=0;k<l;k++)
-							G_bar[k] += C_j * Q_j[k];
+					add_row(G_bar,uj ? -C_j : C_j,Q_j,0,l);
 				}
 			}
 
@@ -636,6 +962,7 @@ class Solver {
 			{
 				// reconstruct the whole gradient to calculate objective value
 				reconstruct_gradient();
+				++stats.unshrinks;
 				active_size = l;
 				svm.info("*");
 			}
@@ -665,7 +992,25 @@ class Solver {
 		si.upper_bound_p = Cp;
 		si.upper_bound_n = Cn;
 
+		if(par != null) par.shutdown();
+
+		stats.iterations = iter;
+		stats.obj = si.obj;
+		stats.rho = si.rho;
+		stats.kernel_evaluations = Q.kernel_evaluations();
+		Cache cache = Q.cache();
+		if(cache != null)
+		{
+			stats.cache_hits = cache.hits();
+			stats.cache_misses = cache.misses();
+			stats.cache_evictions = cache.evictions();
+		}
+		stats.total_nanos = System.nanoTime()-start_time;
+		si.stats = stats;
+
 		svm.info("\noptimization finished, #iter = "+iter+"\n");
+		if(cache != null)
+			svm.info("cache hits = "+cache.hits()+", misses = "+cache.misses()+", evictions = "+cache.evictions()+"\n");
 	}
 
 	// return 1 if already optimal, return 0 otherwise
@@ -677,6 +1022,9 @@ class Solver {
 		//    (if quadratic coefficeint <= 0, replace it with tau)
 		//    -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
 		
+		if(par != null && par.splits(active_size))
+			return select_working_set_parallel(working_set);
+
 		double Gmax = -INF;
 		double Gmax2 = -INF;
 		int Gmax_idx = -1;
@@ -768,6 +1116,129 @@ class Solver {
 		return 0;
 	}
 
+	// select_working_set with both scans split over par. Each chunk keeps
+	// its own extrema and they are merged in chunk order with the same
+	// ties as the serial scan, so the same pair is selected.
+	int select_working_set_parallel(int[] working_set)
+	{
+		int chunks = par.chunks(active_size);
+		final double[] c_max = new double[chunks];
+		final double[] c_max2 = new double[chunks];
+		final double[] c_obj = new double[chunks];
+		final int[] c_idx = new int[chunks];
+
+		par.run(0,active_size,new RangeLoop()
+		{
+			void run(int b, int e, int chunk)
+			{
+				double Gmax = -INF;
+				int Gmax_idx = -1;
+				for(int t=b;t<e;t++)
+					if(y[t]==+1)
+					{
+						if(!is_upper_bound(t) && -G[t] >= Gmax)
+						{
+							Gmax = -G[t];
+							Gmax_idx = t;
+						}
+					}
+					else
+					{
+						if(!is_lower_bound(t) && G[t] >= Gmax)
+						{
+							Gmax = G[t];
+							Gmax_idx = t;
+						}
+					}
+				c_max[chunk] = Gmax;
+				c_idx[chunk] = Gmax_idx;
+			}
+		});
+
+		double Gmax = -INF;
+		int Gmax_idx = -1;
+		for(int c=0;c<chunks;c++)
+			if(c_idx[c] != -1 && c_max[c] >= Gmax)
+			{
+				Gmax = c_max[c];
+				Gmax_idx = c_idx[c];
+			}
+
+		final int i = Gmax_idx;
+		final double Gmax_i = Gmax;
+		final Qfloat[] Q_i = i != -1 ? Q.get_Q(i,active_size) : null;
+
+		par.run(0,active_size,new RangeLoop()
+		{
+			void run(int b, int e, int chunk)
+			{
+				double Gmax2 = -INF;
+				int Gmin_idx = -1;
+				double obj_diff_min = INF;
+				for(int j=b;j<e;j++)
+				{
+					double grad_diff, quad_coef;
+					if(y[j]==+1)
+					{
+						if(is_lower_bound(j))
+							continue;
+						grad_diff = Gmax_i+G[j];
+						if(G[j] >= Gmax2)
+							Gmax2 = G[j];
+						if(grad_diff <= 0)
+							continue;
+						quad_coef = QD[i]+QD[j]-2.0*y[i]*Q_i[j];
+					}
+					else
+					{
+						if(is_upper_bound(j))
+							continue;
+						grad_diff = Gmax_i-G[j];
+						if(-G[j] >= Gmax2)
+							Gmax2 = -G[j];
+						if(grad_diff <= 0)
+							continue;
+						quad_coef = QD[i]+QD[j]+2.0*y[i]*Q_i[j];
+					}
+					double obj_diff;
+					if(quad_coef > 0)
+						obj_diff = -(grad_diff*grad_diff)/quad_coef;
+					else
+						obj_diff = -(grad_diff*grad_diff)/TAU;
+					if(obj_diff <= obj_diff_min)
+					{
+						Gmin_idx = j;
+						obj_diff_min = obj_diff;
+					}
+				}
+				c_max2[chunk] = Gmax2;
+				c_obj[chunk] = obj_diff_min;
+				c_idx[chunk] = Gmin_idx;
+			}
+		});
+
+		double Gmax2 = -INF;
+		int Gmin_idx = -1;
+		double obj_diff_min = INF;
+		for(int c=0;c<chunks;c++)
+		{
+			if(c_max2[c] >= Gmax2)
+				Gmax2 = c_max2[c];
+			if(c_idx[c] != -1 && c_obj[c] <= obj_diff_min)
+			{
+				Gmin_idx = c_idx[c];
+				obj_diff_min = c_obj[c];
+			}
+		}
+
+		if(Gmax+Gmax2 < eps)
+			return 1;
+
+		working_set[0] = Gmax_idx;
+		working_set[1] = Gmin_idx;
+		return 0;
+	}
+
 	private boolean be_shrunk(int i, double Gmax1, double Gmax2)
 	{	
 		if(is_upper_bound(i))
@@ -829,6 +1300,7 @@ class Solver {
 		{
 			unshrink = true;
 			reconstruct_gradient();
+			if(active_size < l) ++stats.unshrinks;
 			active_size = l;
 		}
 
@@ -1071,6 +1543,7 @@ final class Solver_NU extends Solver
 		{
 			unshrink = true;
 			reconstruct_gradient();
+			if(active_size < l) ++stats.unshrinks;
 			active_size = l;
 		}
 
@@ -1148,16 +1621,18 @@ class SVC_Q extends Kernel
 {
 	private final byte[] y;
 	private final Cache cache;
+	Cache cache() { return cache; }
 	private final double[] QD;
 
 	SVC_Q(svm_problem prob, svm_parameter param, byte[] y_)
 	{
-		super(prob.l, prob.x, param);
+		super(prob.l, prob.x, prob.csr, prob.bits, prob.mapped, param, prob.gram, prob.gram_index);
 		y = (byte[])y_.clone();
 		cache = new Cache(prob.l,(long)(param.cache_size*(1<<20)));
 		QD = new double[prob.l];
 		for(int i=0;i<prob.l;i++)
 			QD[i] = kernel_function(i,i);
+		evaluations += prob.l;
 	}
 
 	Qfloat[] get_Q(int i, int len)
@@ -1168,6 +1643,7 @@ class SVC_Q extends Kernel
 		{
 			for(j=start;j<len;j++)
 				data[0][j] = (Qfloat)(y[i]*y[j]*kernel_function(i,j));
+			evaluations += len-start;
 		}
 		return data[0];
 	}
@@ -1189,26 +1665,25 @@ class SVC_Q extends Kernel
 class ONE_CLASS_Q extends Kernel
 {
 	private final Cache cache;
+	Cache cache() { return cache; }
 	private final double[] QD;
 
 	ONE_CLASS_Q(svm_problem prob, svm_parameter param)
 	{
-		super(prob.l, prob.x, param);
+		super(prob.l, prob.x, prob.csr, prob.bits, prob.mapped, param, prob.gram, prob.gram_index);
 		cache = new Cache(prob.l,(long)(param.cache_size*(1<<20)));
 		QD = new double[prob.l];
 		for(int i=0;i<prob.l;i++)
 			QD[i] = kernel_function(i,i);
+		evaluations += prob.l;
 	}
 
 	Qfloat[] get_Q(int i, int len)
 	{
 		Qfloat[][] data = new Qfloat[1][];
-		int start, j;
+		int start;
 		if((start = cache.get_data(i,data,len)) < len)
-		{
-			for(j=start;j<len;j++)
-				data[0][j] = (Qfloat)kernel_function(i,j);
-		}
+			kernel_row(i,data[0],start,len);
 		return data[0];
 	}
 
@@ -1229,6 +1704,7 @@ class SVR_Q extends Kernel
 {
 	private final int l;
 	private final Cache cache;
+	Cache cache() { return cache; }
 	private final byte[] sign;
 	private final int[] index;
 	private int next_buffer;
@@ -1237,7 +1713,7 @@ class SVR_Q extends Kernel
 
 	SVR_Q(svm_problem prob, svm_parameter param)
 	{
-		super(prob.l, prob.x, param);
+		super(prob.l, prob.x, prob.csr, prob.bits, prob.mapped, param, prob.gram, prob.gram_index);
 		l = prob.l;
 		cache = new Cache(l,(long)(param.cache_size*(1<<20)));
 		QD = new double[2*l];
@@ -1252,6 +1728,7 @@ class SVR_Q extends Kernel
 			QD[k] = kernel_function(k,k);
 			QD[k+l] = QD[k];
 		}
+		evaluations += l;
 		buffer = new Qfloat[2][2*l];
 		next_buffer = 0;
 	}
@@ -1268,10 +1745,7 @@ class SVR_Q extends Kernel
 		Qfloat[][] data = new Qfloat[1][];
 		int j, real_i = index[i];
 		if(cache.get_data(real_i,data,l) < l)
-		{
-			for(j=0;j<l;j++)
-				data[0][j] = (Qfloat)kernel_function(real_i,j);
-		}
+			kernel_row(real_i,data[0],0,l);
 
 		// reorder and copy
 		Qfloat buf[] = buffer[next_buffer];
@@ -1306,11 +1780,20 @@ public class svm {
 
 	private static svm_print_interface svm_print_string = svm_print_stdout;
 
-	static void info(String s) 
+	// public so that solvers outside this package print through the same
+	// function, which svm_set_print_string_function sets
+	public static void info(String s) 
 	{
 		svm_print_string.print(s);
 	}
 
+	// kernel value of x and y, for the classes of this package that live
+	// outside this file and so cannot use Kernel
+	static double k_function(svm_node[] x, svm_node[] y, svm_parameter param)
+	{
+		return Kernel.k_function(x,y,param);
+	}
+
 	private static void solve_c_svc(svm_problem prob, svm_parameter param,
 					double[] alpha, Solver.SolutionInfo si,
 					double Cp, double Cn)
@@ -1423,7 +1906,7 @@ public class svm {
 	}
 
 	private static void solve_epsilon_svr(svm_problem prob, svm_parameter param,
-					double[] alpha, Solver.SolutionInfo si)
+					double[] alpha, Solver.SolutionInfo si, boolean warm_start)
 	{
 		int l = prob.l;
 		double[] alpha2 = new double[2*l];
@@ -1431,13 +1914,24 @@ public class svm {
 		byte[] y = new byte[2*l];
 		int i;
 
+		// a warm start is scaled into [-C,C] if needed, which keeps sum(alpha) = 0 feasible
+		double scale = 1;
+		if(warm_start)
+		{
+			double max_alpha = 0;
+			for(i=0;i<l;i++)
+				max_alpha = Math.max(max_alpha,Math.abs(alpha[i]));
+			if(max_alpha > param.C)
+				scale = param.C/max_alpha;
+		}
+
 		for(i=0;i<l;i++)
 		{
-			alpha2[i] = 0;
+			alpha2[i] = warm_start ? Math.min(Math.max(scale*alpha[i],0),param.C) : 0;
 			linear_term[i] = param.p - prob.y[i];
 			y[i] = 1;
 
-			alpha2[i+l] = 0;
+			alpha2[i+l] = warm_start ? Math.min(Math.max(-scale*alpha[i],0),param.C) : 0;
 			linear_term[i+l] = param.p + prob.y[i];
 			y[i+l] = -1;
 		}
@@ -1500,8 +1994,18 @@ public class svm {
 	static decision_function svm_train_one(
 		svm_problem prob, svm_parameter param,
 		double Cp, double Cn)
+	{
+		return svm_train_one(prob,param,Cp,Cn,null);
+	}
+
+	// alpha_init: optional starting point for EPSILON_SVR, see svm_train
+	static decision_function svm_train_one(
+		svm_problem prob, svm_parameter param,
+		double Cp, double Cn, double[] alpha_init)
 	{
 		double[] alpha = new double[prob.l];
+		if(alpha_init != null)
+			System.arraycopy(alpha_init,0,alpha,0,prob.l);
 		Solver.SolutionInfo si = new Solver.SolutionInfo();
 		switch(param.svm_type)
 		{
@@ -1515,7 +2019,7 @@ public class svm {
 				solve_one_class(prob,param,alpha,si);
 				break;
 			case svm_parameter.EPSILON_SVR:
-				solve_epsilon_svr(prob,param,alpha,si);
+				solve_epsilon_svr(prob,param,alpha,si,alpha_init != null);
 				break;
 			case svm_parameter.NU_SVR:
 				solve_nu_svr(prob,param,alpha,si);
@@ -1548,6 +2052,14 @@ public class svm {
 
 		svm.info("nSV = "+nSV+", nBSV = "+nBSV+"\n");
 
+		if(si.stats != null)
+		{
+			si.stats.nSV = nSV;
+			si.stats.nBSV = nBSV;
+			if(param.listener != null)
+				param.listener.solved(param,si.stats);
+		}
+
 		decision_function f = new decision_function();
 		f.alpha = alpha;
 		f.rho = si.rho;
@@ -1760,22 +2272,23 @@ public class svm {
 			svm_problem subprob = new svm_problem();
 
 			subprob.l = prob.l-(end-begin);
-			subprob.x = new svm_node[subprob.l][];
 			subprob.y = new double[subprob.l];
+			int[] rows = new int[subprob.l];
 			
 			k=0;
 			for(j=0;j<begin;j++)
 			{
-				subprob.x[k] = prob.x[perm[j]];
+				rows[k] = perm[j];
 				subprob.y[k] = prob.y[perm[j]];
 				++k;
 			}
 			for(j=end;j<prob.l;j++)
 			{
-				subprob.x[k] = prob.x[perm[j]];
+				rows[k] = perm[j];
 				subprob.y[k] = prob.y[perm[j]];
 				++k;
 			}
+			copy_rows(prob,rows,subprob);
 			int p_count=0,n_count=0;
 			for(j=0;j<k;j++)
 				if(subprob.y[j]>0)
@@ -1808,7 +2321,7 @@ public class svm {
 				for(j=begin;j<end;j++)
 				{
 					double[] dec_value=new double[1];
-					svm_predict_values(submodel,prob.x[perm[j]],dec_value);
+					svm_predict_values(submodel,row(prob,perm[j]),dec_value);
 					dec_values[perm[j]]=dec_value[0];
 					// ensure +1 -1 order; reason not using CV subroutine
 					dec_values[perm[j]] *= submodel.label[0];
@@ -1848,6 +2361,33 @@ public class svm {
 		return mae;
 	}
 
+	// instance i of prob as svm_node row
+	private static svm_node[] row(svm_problem prob, int i)
+	{
+		if(prob.bits != null)
+			return prob.bits.row(i);
+		if(prob.mapped != null)
+			return prob.mapped.row(i);
+		return prob.csr != null ? prob.csr.row(i) : prob.x[i];
+	}
+
+	// sets the instances of sub to the given rows of prob, in the same form as prob
+	private static void copy_rows(svm_problem prob, int[] rows, svm_problem sub)
+	{
+		if(prob.bits != null)
+			sub.bits = prob.bits.subset(rows);
+		else if(prob.mapped != null)
+			sub.mapped = prob.mapped.subset(rows);
+		else if(prob.csr != null)
+			sub.csr = prob.csr.subset(rows);
+		else
+		{
+			sub.x = new svm_node[rows.length][];
+			for(int k=0;k<rows.length;k++)
+				sub.x[k] = prob.x[rows[k]];
+		}
+	}
+
 	// label: label name, start: begin of each class, count: #data of classes, perm: indices to the original data
 	// perm, length l, must be allocated before calling this subroutine
 	private static void svm_group_classes(svm_problem prob, int[] nr_class_ret, int[][] label_ret, int[][] start_ret, int[][] count_ret, int[] perm)
@@ -1914,6 +2454,17 @@ public class svm {
 	// Interface functions
 	//
 	public static svm_model svm_train(svm_problem prob, svm_parameter param)
+	{
+		return svm_train(prob,param,null);
+	}
+
+	// Interrupting the calling thread aborts the solver with a
+	// java.util.concurrent.CancellationException.
+	//
+	// alpha: for EPSILON_SVR, if not null, holds the coefficients alpha_i - alpha_i^* of every
+	// training instance from a previous solution on the same problem. They are used as the
+	// starting point of the solver and replaced by the new solution. Ignored for other types.
+	public static svm_model svm_train(svm_problem prob, svm_parameter param, double[] alpha)
 	{
 		svm_model model = new svm_model();
 		model.param = param;
@@ -1937,9 +2488,13 @@ public class svm {
 				model.probA[0] = svm_svr_probability(prob,param);
 			}
 
-			decision_function f = svm_train_one(prob,param,0,0);
+			if(param.svm_type != svm_parameter.EPSILON_SVR)
+				alpha = null;
+			decision_function f = svm_train_one(prob,param,0,0,alpha);
 			model.rho = new double[1];
 			model.rho[0] = f.rho;
+			if(alpha != null)
+				System.arraycopy(f.alpha,0,alpha,0,prob.l);
 
 			int nSV = 0;
 			int i;
@@ -1952,7 +2507,7 @@ public class svm {
 			for(i=0;i<prob.l;i++)
 				if(Math.abs(f.alpha[i]) > 0)
 				{
-					model.SV[j] = prob.x[i];
+					model.SV[j] = row(prob,i);
 					model.sv_coef[0][j] = f.alpha[i];
 					++j;
 				}
@@ -1977,10 +2532,7 @@ public class svm {
 			if(nr_class == 1) 
 				svm.info("WARNING: training data in only one class. See README for details.\n");
 			
-			svm_node[][] x = new svm_node[l][];
 			int i;
-			for(i=0;i<l;i++)
-				x[i] = prob.x[perm[i]];
 
 			// calculate weighted C
 
@@ -2021,19 +2573,20 @@ public class svm {
 					int si = start[i], sj = start[j];
 					int ci = count[i], cj = count[j];
 					sub_prob.l = ci+cj;
-					sub_prob.x = new svm_node[sub_prob.l][];
 					sub_prob.y = new double[sub_prob.l];
+					int[] rows = new int[sub_prob.l];
 					int k;
 					for(k=0;k<ci;k++)
 					{
-						sub_prob.x[k] = x[si+k];
+						rows[k] = perm[si+k];
 						sub_prob.y[k] = +1;
 					}
 					for(k=0;k<cj;k++)
 					{
-						sub_prob.x[ci+k] = x[sj+k];
+						rows[ci+k] = perm[sj+k];
 						sub_prob.y[ci+k] = -1;
 					}
+					copy_rows(prob,rows,sub_prob);
 
 					if(param.probability == 1)
 					{
@@ -2103,7 +2656,7 @@ public class svm {
 			model.SV = new svm_node[nnz][];
 			p = 0;
 			for(i=0;i<l;i++)
-				if(nonzero[i]) model.SV[p++] = x[i];
+				if(nonzero[i]) model.SV[p++] = row(prob,perm[i]);
 
 			int[] nz_start = new int[nr_class];
 			nz_start[0] = 0;
@@ -2222,22 +2775,23 @@ public class svm {
 			svm_problem subprob = new svm_problem();
 
 			subprob.l = l-(end-begin);
-			subprob.x = new svm_node[subprob.l][];
 			subprob.y = new double[subprob.l];
+			int[] rows = new int[subprob.l];
 
 			k=0;
 			for(j=0;j<begin;j++)
 			{
-				subprob.x[k] = prob.x[perm[j]];
+				rows[k] = perm[j];
 				subprob.y[k] = prob.y[perm[j]];
 				++k;
 			}
 			for(j=end;j<l;j++)
 			{
-				subprob.x[k] = prob.x[perm[j]];
+				rows[k] = perm[j];
 				subprob.y[k] = prob.y[perm[j]];
 				++k;
 			}
+			copy_rows(prob,rows,subprob);
 			svm_model submodel = svm_train(subprob,param);
 			if(param.probability==1 &&
 			   (param.svm_type == svm_parameter.C_SVC ||
@@ -2245,11 +2799,11 @@ public class svm {
 			{
 				double[] prob_estimates= new double[svm_get_nr_class(submodel)];
 				for(j=begin;j<end;j++)
-					target[perm[j]] = svm_predict_probability(submodel,prob.x[perm[j]],prob_estimates);
+					target[perm[j]] = svm_predict_probability(submodel,row(prob,perm[j]),prob_estimates);
 			}
 			else
 				for(j=begin;j<end;j++)
-					target[perm[j]] = svm_predict(submodel,prob.x[perm[j]]);
+					target[perm[j]] = svm_predict(submodel,row(prob,perm[j]));
 		}
 	}
 
@@ -2282,6 +2836,14 @@ public class svm {
 		}
 	}
 
+	// kernel of x and SV i
+	private static double sv_kernel(svm_model model, svm_node[] x, int i)
+	{
+		if(model.SV != null)
+			return Kernel.k_function(x,model.SV[i],model.param);
+		return Kernel.k_function(x,model.SV_csr,i,model.param);
+	}
+
 	public static double svm_predict_values(svm_model model, svm_node[] x, double[] dec_values)
 	{
 		int i;
@@ -2292,7 +2854,7 @@ public class svm {
 			double[] sv_coef = model.sv_coef[0];
 			double sum = 0;
 			for(i=0;i<model.l;i++)
-				sum += sv_coef[i] * Kernel.k_function(x,model.SV[i],model.param);
+				sum += sv_coef[i] * sv_kernel(model,x,i);
 			sum -= model.rho[0];
 			dec_values[0] = sum;
 
@@ -2308,7 +2870,7 @@ public class svm {
 		
 			double[] kvalue = new double[l];
 			for(i=0;i<l;i++)
-				kvalue[i] = Kernel.k_function(x,model.SV[i],model.param);
+				kvalue[i] = sv_kernel(model,x,i);
 
 			int[] start = new int[nr_class];
 			start[0] = 0;
@@ -2369,6 +2931,18 @@ public class svm {
 		return pred_result;
 	}
 
+	// predicts row i of x
+	public static double svm_predict(svm_model model, svm_csr_matrix x, int i)
+	{
+		return svm_predict(model, x.row(i));
+	}
+
+	// predicts row i of x
+	public static double svm_predict(svm_model model, svm_bit_matrix x, int i)
+	{
+		return svm_predict(model, x.row(i));
+	}
+
 	public static double svm_predict_probability(svm_model model, svm_node[] x, double[] prob_estimates)
 	{
 		if ((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
@@ -2409,7 +2983,7 @@ public class svm {
 
 	static final String kernel_type_table[]=
 	{
-		"linear","polynomial","rbf","sigmoid","precomputed"
+		"linear","polynomial","rbf","sigmoid","precomputed","kmer"
 	};
 
 	public static void svm_save_model(String model_file_name, svm_model model) throws IOException
@@ -2433,6 +3007,17 @@ public class svm {
 		   param.kernel_type == svm_parameter.SIGMOID)
 			fp.writeBytes("coef0 "+param.coef0+"\n");
 
+		if(param.kernel_type == svm_parameter.KMER)
+		{
+			fp.writeBytes("kmer_sizes");
+			for(int k : param.kmer_sizes)
+				fp.writeBytes(" "+k);
+			fp.writeBytes("\n");
+			// a model without support vectors has no alphabet to save
+			if(model.l > 0)
+				fp.writeBytes("kmer_alphabet "+((svm_kmer_node)model.SV[0][0]).alphabet_size()+"\n");
+		}
+
 		int nr_class = model.nr_class;
 		int l = model.l;
 		fp.writeBytes("nr_class "+nr_class+"\n");
@@ -2485,9 +3070,11 @@ public class svm {
 			for(int j=0;j<nr_class-1;j++)
 				fp.writeBytes(sv_coef[j][i]+" ");
 
-			svm_node[] p = SV[i];
+			svm_node[] p = SV != null ? SV[i] : model.SV_csr.row(i);
 			if(param.kernel_type == svm_parameter.PRECOMPUTED)
 				fp.writeBytes("0:"+(int)(p[0].value));
+			else if(param.kernel_type == svm_parameter.KMER)
+				fp.writeBytes(p[0].toString());
 			else	
 				for(int j=0;j<p.length;j++)
 					fp.writeBytes(p[j].index+":"+p[j].value+" ");
@@ -2507,8 +3094,17 @@ public class svm {
 		return Integer.parseInt(s);
 	}
 
+	// saves the model in the binary format of svm_binary_model
+	public static void svm_save_model_binary(String model_file_name, svm_model model) throws IOException
+	{
+		svm_binary_model.save(model_file_name,model);
+	}
+
+	// loads a model saved by svm_save_model or svm_save_model_binary
 	public static svm_model svm_load_model(String model_file_name) throws IOException
 	{
+		if(svm_binary_model.is_binary(model_file_name))
+			return svm_binary_model.load(model_file_name);
 		return svm_load_model(new BufferedReader(new FileReader(model_file_name)));
 	}
 
@@ -2524,6 +3120,7 @@ public class svm {
 		model.probB = null;
 		model.label = null;
 		model.nSV = null;
+		int kmer_alphabet = 0;
 
 		while(true)
 		{
@@ -2570,6 +3167,15 @@ public class svm {
 				param.gamma = atof(arg);
 			else if(cmd.startsWith("coef0"))
 				param.coef0 = atof(arg);
+			else if(cmd.startsWith("kmer_sizes"))
+			{
+				StringTokenizer st = new StringTokenizer(arg);
+				param.kmer_sizes = new int[st.countTokens()];
+				for(int i=0;i<param.kmer_sizes.length;i++)
+					param.kmer_sizes[i] = atoi(st.nextToken());
+			}
+			else if(cmd.startsWith("kmer_alphabet"))
+				kmer_alphabet = atoi(arg);
 			else if(cmd.startsWith("nr_class"))
 				model.nr_class = atoi(arg);
 			else if(cmd.startsWith("total_sv"))
@@ -2629,6 +3235,11 @@ public class svm {
 
 		int m = model.nr_class - 1;
 		int l = model.l;
+		if(param.kernel_type == svm_parameter.KMER && l > 0 && kmer_alphabet <= 0)
+		{
+			System.err.print("kmer_alphabet missing from model file with support vectors.\n");
+			return null;
+		}
 		model.sv_coef = new double[m][l];
 		model.SV = new svm_node[l][];
 
@@ -2639,6 +3250,11 @@ public class svm {
 
 			for(int k=0;k<m;k++)
 				model.sv_coef[k][i] = atof(st.nextToken());
+			if(param.kernel_type == svm_parameter.KMER)
+			{
+				model.SV[i] = new svm_node[]{svm_kmer_node.parse(st.nextToken(),kmer_alphabet)};
+				continue;
+			}
 			int n = st.countTokens()/2;
 			model.SV[i] = new svm_node[n];
 			for(int j=0;j<n;j++)
@@ -2672,15 +3288,62 @@ public class svm {
 		   kernel_type != svm_parameter.POLY &&
 		   kernel_type != svm_parameter.RBF &&
 		   kernel_type != svm_parameter.SIGMOID &&
-		   kernel_type != svm_parameter.PRECOMPUTED)
+		   kernel_type != svm_parameter.PRECOMPUTED &&
+		   kernel_type != svm_parameter.KMER)
 			return "unknown kernel type";
 
+		if(prob.csr != null)
+		{
+			if(prob.csr.l != prob.l)
+				return "csr matrix does not have l rows";
+			if(kernel_type == svm_parameter.PRECOMPUTED || kernel_type == svm_parameter.KMER)
+				return "csr problems need a linear, poly, rbf or sigmoid kernel";
+		}
+
+		if(prob.bits != null)
+		{
+			if(prob.bits.l != prob.l)
+				return "bit matrix does not have l rows";
+			if(kernel_type == svm_parameter.PRECOMPUTED || kernel_type == svm_parameter.KMER)
+				return "bit problems need a linear, poly, rbf or sigmoid kernel";
+		}
+
+		if(prob.mapped != null)
+		{
+			if(prob.mapped.l != prob.l)
+				return "mapped matrix does not have l rows";
+			if(kernel_type == svm_parameter.PRECOMPUTED || kernel_type == svm_parameter.KMER)
+				return "mapped problems need a linear, poly, rbf or sigmoid kernel";
+		}
+
+		if(kernel_type == svm_parameter.KMER)
+		{
+			if(param.kmer_sizes == null || param.kmer_sizes.length == 0)
+				return "no kmer sizes for kmer kernel";
+			for(int k : param.kmer_sizes)
+				if(k <= 0)
+					return "kmer size <= 0";
+			for(int i=0;i<prob.l;i++)
+				if(prob.x[i].length != 1 || !(prob.x[i][0] instanceof svm_kmer_node))
+					return "kmer kernel needs one svm_kmer_node per instance";
+		}
+
 		if(param.gamma < 0)
 			return "gamma < 0";
 
 		if(param.degree < 0)
 			return "degree of polynomial kernel < 0";
 
+		// precomputed gram matrix
+
+		if(prob.gram != null)
+		{
+			if(!prob.gram.matches(param))
+				return "gram matrix was computed with a different kernel";
+			if(prob.gram_index == null ? prob.gram.l < prob.l : prob.gram_index.length < prob.l)
+				return "gram matrix has fewer rows than the problem";
+		}
+
 		// cache_size,eps,C,nu,p,shrinking
 
 		if(param.cache_size <= 0)
@@ -0,0 +1,383 @@
+package arnaudsj.java.libsvm;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+//
+// Binary svm_model files
+//
+// A binary model holds the fields of the text format in little endian
+// order, with the coefficients as one array per decision function and the
+// SVs packed as CSR rows, or as the symbol codes of their packed sequences
+// for the KMER kernel. Arrays are moved in bulk through NIO buffers, and
+// the file is read through memory maps of at most WINDOW bytes, so loading
+// copies the SVs straight into the arrays of an svm_csr_matrix without an
+// svm_node per value. Such models keep their SVs in svm_model.SV_csr.
+//
+//	int	magic "LSVM", version
+//	int	svm_type, kernel_type, degree
+//	double	gamma, coef0
+//	int	number of kmer sizes, the kmer sizes, kmer alphabet size
+//	int	nr_class, l, flags (1 label, 2 probA, 4 probB, 8 nr_sv)
+//	double	rho[nr_class*(nr_class-1)/2]
+//	int	label[nr_class]			if flagged
+//	double	probA[nr_class*(nr_class-1)/2]	if flagged
+//	double	probB[nr_class*(nr_class-1)/2]	if flagged
+//	int	nSV[nr_class]			if flagged
+//	double	sv_coef[nr_class-1][l]
+//	KMER:	int length, byte codes[l][length]
+//	other:	int row_ptr[l+1], int col_index[nnz], double values[nnz]
+//
+public class svm_binary_model
+{
+	public static final int MAGIC = 0x4d56534c;	// "LSVM" in little endian
+	public static final int VERSION = 1;
+
+	private static final int WINDOW = 1<<30;
+	private static final int LABEL = 1, PROB_A = 2, PROB_B = 4, NR_SV = 8;
+
+	public static boolean is_binary(String model_file_name) throws IOException
+	{
+		FileInputStream in = new FileInputStream(model_file_name);
+		try
+		{
+			int magic = 0;
+			for(int i=0;i<4;i++)
+			{
+				int b = in.read();
+				if(b < 0)
+					return false;
+				magic |= b << (8*i);
+			}
+			return magic == MAGIC;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	public static void save(String model_file_name, svm_model model) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(model_file_name,"rw");
+		try
+		{
+			file.setLength(0);
+			writer out = new writer(file.getChannel());
+			svm_parameter param = model.param;
+			int nr_class = model.nr_class;
+			int l = model.l;
+			int pairs = nr_class*(nr_class-1)/2;
+
+			out.put_int(MAGIC);
+			out.put_int(VERSION);
+			out.put_int(param.svm_type);
+			out.put_int(param.kernel_type);
+			out.put_int(param.degree);
+			out.put_double(param.gamma);
+			out.put_double(param.coef0);
+			boolean kmer = param.kernel_type == svm_parameter.KMER;
+			int[] kmer_sizes = param.kmer_sizes == null ? new int[0] : param.kmer_sizes;
+			out.put_int(kmer_sizes.length);
+			out.put_ints(kmer_sizes,0,kmer_sizes.length);
+			out.put_int(kmer && l > 0 ? ((svm_kmer_node)model.SV[0][0]).alphabet_size() : 0);
+			out.put_int(nr_class);
+			out.put_int(l);
+			out.put_int((model.label != null ? LABEL : 0) | (model.probA != null ? PROB_A : 0) |
+				    (model.probB != null ? PROB_B : 0) | (model.nSV != null ? NR_SV : 0));
+			out.put_doubles(model.rho,0,pairs);
+			if(model.label != null)
+				out.put_ints(model.label,0,nr_class);
+			if(model.probA != null)
+				out.put_doubles(model.probA,0,pairs);
+			if(model.probB != null)
+				out.put_doubles(model.probB,0,pairs);
+			if(model.nSV != null)
+				out.put_ints(model.nSV,0,nr_class);
+			for(int k=0;k<nr_class-1;k++)
+				out.put_doubles(model.sv_coef[k],0,l);
+
+			if(kmer)
+			{
+				int length = l > 0 ? ((svm_kmer_node)model.SV[0][0]).length() : 0;
+				out.put_int(length);
+				byte[] codes = new byte[length];
+				for(int i=0;i<l;i++)
+				{
+					svm_kmer_node p = (svm_kmer_node)model.SV[i][0];
+					for(int j=0;j<length;j++)
+						codes[j] = (byte)p.symbol(j);
+					out.put_bytes(codes,0,length);
+				}
+			}
+			else if(model.SV == null)
+			{
+				svm_csr_matrix x = model.SV_csr;
+				out.put_ints(x.row_ptr,0,l+1);
+				out.put_ints(x.col_index,0,x.row_ptr[l]);
+				out.put_doubles(x.values,0,x.row_ptr[l]);
+			}
+			else
+			{
+				// as in the text format, precomputed SVs keep only their serial number 0:n
+				boolean precomputed = param.kernel_type == svm_parameter.PRECOMPUTED;
+				long nnz = 0;
+				out.put_int(0);
+				for(int i=0;i<l;i++)
+				{
+					nnz += precomputed ? 1 : model.SV[i].length;
+					if(nnz > Integer.MAX_VALUE)
+						throw new IOException("more than "+Integer.MAX_VALUE+" SV values");
+					out.put_int((int)nnz);
+				}
+				for(int i=0;i<l;i++)
+					for(int j=0;j<(precomputed ? 1 : model.SV[i].length);j++)
+						out.put_int(model.SV[i][j].index);
+				for(int i=0;i<l;i++)
+					for(int j=0;j<(precomputed ? 1 : model.SV[i].length);j++)
+						out.put_double(model.SV[i][j].value);
+			}
+			out.flush();
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	public static svm_model load(String model_file_name) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(model_file_name,"r");
+		try
+		{
+			reader in = new reader(file.getChannel());
+			if(in.get_int() != MAGIC)
+				throw new IOException(model_file_name+" is not a binary model file");
+			int version = in.get_int();
+			if(version != VERSION)
+				throw new IOException("unsupported binary model version "+version);
+
+			svm_model model = new svm_model();
+			svm_parameter param = new svm_parameter();
+			model.param = param;
+			param.svm_type = in.get_int();
+			param.kernel_type = in.get_int();
+			param.degree = in.get_int();
+			param.gamma = in.get_double();
+			param.coef0 = in.get_double();
+			int[] kmer_sizes = new int[in.get_int()];
+			in.get_ints(kmer_sizes);
+			int kmer_alphabet = in.get_int();
+			boolean kmer = param.kernel_type == svm_parameter.KMER;
+			if(kmer)
+				param.kmer_sizes = kmer_sizes;
+			int nr_class = model.nr_class = in.get_int();
+			int l = model.l = in.get_int();
+			int flags = in.get_int();
+			int pairs = nr_class*(nr_class-1)/2;
+
+			model.rho = new double[pairs];
+			in.get_doubles(model.rho);
+			if((flags & LABEL) != 0)
+				in.get_ints(model.label = new int[nr_class]);
+			if((flags & PROB_A) != 0)
+				in.get_doubles(model.probA = new double[pairs]);
+			if((flags & PROB_B) != 0)
+				in.get_doubles(model.probB = new double[pairs]);
+			if((flags & NR_SV) != 0)
+				in.get_ints(model.nSV = new int[nr_class]);
+			model.sv_coef = new double[nr_class-1][l];
+			for(int k=0;k<nr_class-1;k++)
+				in.get_doubles(model.sv_coef[k]);
+
+			if(kmer)
+			{
+				int length = in.get_int();
+				byte[] codes = new byte[length];
+				model.SV = new svm_node[l][];
+				for(int i=0;i<l;i++)
+				{
+					in.get_bytes(codes);
+					model.SV[i] = new svm_node[]{new svm_kmer_node(codes,0,length,kmer_alphabet)};
+				}
+			}
+			else
+			{
+				int[] row_ptr = new int[l+1];
+				in.get_ints(row_ptr);
+				int[] col_index = new int[row_ptr[l]];
+				in.get_ints(col_index);
+				double[] values = new double[row_ptr[l]];
+				in.get_doubles(values);
+				model.SV_csr = new svm_csr_matrix(l,row_ptr,col_index,values);
+			}
+			return model;
+		}
+		catch(NegativeArraySizeException e)
+		{
+			throw new IOException(model_file_name+" is corrupt",e);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	// buffers values and writes them out in blocks
+	private static class writer
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(1<<20).order(ByteOrder.LITTLE_ENDIAN);
+
+		writer(FileChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		void flush() throws IOException
+		{
+			buf.flip();
+			while(buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+
+		private void need(int bytes) throws IOException
+		{
+			if(buf.remaining() < bytes)
+				flush();
+		}
+
+		void put_int(int v) throws IOException
+		{
+			need(4);
+			buf.putInt(v);
+		}
+
+		void put_double(double v) throws IOException
+		{
+			need(8);
+			buf.putDouble(v);
+		}
+
+		void put_ints(int[] a, int off, int n) throws IOException
+		{
+			while(n > 0)
+			{
+				need(4);
+				int m = Math.min(n,buf.remaining()/4);
+				buf.asIntBuffer().put(a,off,m);
+				buf.position(buf.position()+4*m);
+				off += m;
+				n -= m;
+			}
+		}
+
+		void put_doubles(double[] a, int off, int n) throws IOException
+		{
+			while(n > 0)
+			{
+				need(8);
+				int m = Math.min(n,buf.remaining()/8);
+				buf.asDoubleBuffer().put(a,off,m);
+				buf.position(buf.position()+8*m);
+				off += m;
+				n -= m;
+			}
+		}
+
+		void put_bytes(byte[] a, int off, int n) throws IOException
+		{
+			while(n > 0)
+			{
+				need(1);
+				int m = Math.min(n,buf.remaining());
+				buf.put(a,off,m);
+				off += m;
+				n -= m;
+			}
+		}
+	}
+
+	// reads values through a memory map that slides over the file
+	private static class reader
+	{
+		private final FileChannel channel;
+		private final long size;
+		private long base = 0;
+		private ByteBuffer map;
+
+		reader(FileChannel channel) throws IOException
+		{
+			this.channel = channel;
+			this.size = channel.size();
+			this.map = channel.map(FileChannel.MapMode.READ_ONLY,0,Math.min(size,WINDOW)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private void need(int bytes) throws IOException
+		{
+			if(map.remaining() >= bytes)
+				return;
+			long pos = base+map.position();
+			if(size-pos < bytes)
+				throw new EOFException("truncated model file");
+			base = pos;
+			map = channel.map(FileChannel.MapMode.READ_ONLY,pos,Math.min(size-pos,WINDOW)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		int get_int() throws IOException
+		{
+			need(4);
+			return map.getInt();
+		}
+
+		double get_double() throws IOException
+		{
+			need(8);
+			return map.getDouble();
+		}
+
+		void get_ints(int[] a) throws IOException
+		{
+			int off = 0;
+			while(off < a.length)
+			{
+				need(4);
+				int m = Math.min(a.length-off,map.remaining()/4);
+				map.asIntBuffer().get(a,off,m);
+				map.position(map.position()+4*m);
+				off += m;
+			}
+		}
+
+		void get_doubles(double[] a) throws IOException
+		{
+			int off = 0;
+			while(off < a.length)
+			{
+				need(8);
+				int m = Math.min(a.length-off,map.remaining()/8);
+				map.asDoubleBuffer().get(a,off,m);
+				map.position(map.position()+8*m);
+				off += m;
+			}
+		}
+
+		void get_bytes(byte[] a) throws IOException
+		{
+			int off = 0;
+			while(off < a.length)
+			{
+				need(1);
+				int m = Math.min(a.length-off,map.remaining());
+				map.get(a,off,m);
+				off += m;
+			}
+		}
+	}
+}
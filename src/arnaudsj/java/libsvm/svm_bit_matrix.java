@@ -0,0 +1,230 @@
+package arnaudsj.java.libsvm;
+
+//
+// Instances whose features are all 0 or 1, stored as sets of feature indices
+//
+// If a bitset of dim bits per row takes no more memory than the indices,
+// rows are stored as bitsets (dense) and the dot product of two rows is the
+// popcount of their intersection. Otherwise every row is a sorted run of its
+// indices (sparse) and the dot product counts the common indices.
+// The popcount of every row is cached, so ||x_i||^2 of the RBF kernel is
+// free. Set svm_problem.bits instead of svm_problem.x to train on it.
+//
+public class svm_bit_matrix implements java.io.Serializable
+{
+	private static final int MAX_ARRAY = Integer.MAX_VALUE-8;	// largest array the VM allocates
+
+	public final int l;
+	public final int dim;	// feature indices are in [0,dim)
+
+	private final int words;	// longs per dense row, 0 if sparse
+	private final long[] bitsets;	// row i is [i*words,(i+1)*words)
+	private final int[] row_ptr;	// row i is [row_ptr[i],row_ptr[i+1]) of set
+	private final int[] set;
+	private final int[] count;
+
+	private svm_bit_matrix(int l, int dim, int[][] rows, long nnz)
+	{
+		this.l = l;
+		this.dim = dim;
+		count = new int[l];
+		int dense_words = (dim+63)>>>6;
+		long dense_size = (long)dense_words*l;
+		if(2*dense_size <= nnz)
+		{
+			// dense_size is at most nnz/2, so it only fails when the sparse form would too
+			if(dense_size > MAX_ARRAY)
+				throw new IllegalArgumentException(l+" rows of "+dim+" bits do not fit in one array, use svm_mapped_matrix");
+			words = dense_words;
+			// every offset i*words is below l*words, so it fits in an int
+			bitsets = new long[l*words];
+			row_ptr = null;
+			set = null;
+			for(int i=0;i<l;i++)
+			{
+				for(int k : rows[i])
+					bitsets[i*words+(k>>>6)] |= 1L<<k;
+				for(int w=0;w<words;w++)
+					count[i] += Long.bitCount(bitsets[i*words+w]);
+			}
+		}
+		else
+		{
+			if(nnz > MAX_ARRAY)
+				throw new IllegalArgumentException(l+" rows with "+nnz+" features that are 1 do not fit in one array, use svm_mapped_matrix");
+			words = 0;
+			bitsets = null;
+			row_ptr = new int[l+1];
+			set = new int[(int)nnz];
+			for(int i=0;i<l;i++)
+			{
+				int[] row = rows[i].clone();
+				java.util.Arrays.sort(row);
+				int n = row_ptr[i];
+				for(int k=0;k<row.length;k++)
+					if(k == 0 || row[k] != row[k-1])
+						set[n++] = row[k];
+				row_ptr[i+1] = n;
+				count[i] = n-row_ptr[i];
+			}
+		}
+	}
+
+	// the first l rows of m, sharing its storage
+	private svm_bit_matrix(svm_bit_matrix m, int l)
+	{
+		this.l = l;
+		this.dim = m.dim;
+		this.words = m.words;
+		this.bitsets = m.bitsets;
+		this.row_ptr = m.row_ptr;
+		this.set = m.set;
+		this.count = m.count;
+	}
+
+	// rows[i] holds the indices of the features of instance i that are 1
+	public static svm_bit_matrix from_indices(int[][] rows, int dim)
+	{
+		long nnz = 0;
+		for(int[] row : rows)
+		{
+			for(int k : row)
+				if(k < 0 || k >= dim)
+					throw new IllegalArgumentException("feature index "+k+" is not in [0,"+dim+")");
+			nnz += row.length;
+		}
+		return new svm_bit_matrix(rows.length,dim,rows,nnz);
+	}
+
+	// x must only hold values of 0 or 1
+	public static svm_bit_matrix from_nodes(svm_node[][] x, int dim)
+	{
+		int[][] rows = new int[x.length][];
+		for(int i=0;i<x.length;i++)
+		{
+			int n = 0;
+			for(svm_node node : x[i])
+			{
+				if(node.value != 0 && node.value != 1)
+					throw new IllegalArgumentException("feature "+node.index+" of row "+i+" is "+node.value+", not 0 or 1");
+				if(node.value == 1)
+					++n;
+			}
+			rows[i] = new int[n];
+			n = 0;
+			for(svm_node node : x[i])
+				if(node.value == 1)
+					rows[i][n++] = node.index;
+		}
+		return from_indices(rows,dim);
+	}
+
+	public boolean dense()
+	{
+		return bitsets != null;
+	}
+
+	// number of features of row i that are 1
+	public int count(int i)
+	{
+		return count[i];
+	}
+
+	// ascending indices of the features of row i that are 1
+	public int[] indices(int i)
+	{
+		if(set != null)
+			return java.util.Arrays.copyOfRange(set,row_ptr[i],row_ptr[i+1]);
+		int[] indices = new int[count[i]];
+		int n = 0;
+		for(int w=0;w<words;w++)
+			for(long b=bitsets[i*words+w]; b!=0; b&=b-1)
+				indices[n++] = (w<<6)+Long.numberOfTrailingZeros(b);
+		return indices;
+	}
+
+	public svm_node[] row(int i)
+	{
+		int[] indices = indices(i);
+		svm_node[] x = new svm_node[indices.length];
+		for(int k=0;k<x.length;k++)
+		{
+			x[k] = new svm_node();
+			x[k].index = indices[k];
+			x[k].value = 1;
+		}
+		return x;
+	}
+
+	public svm_node[][] to_nodes()
+	{
+		svm_node[][] x = new svm_node[l][];
+		for(int i=0;i<l;i++)
+			x[i] = row(i);
+		return x;
+	}
+
+	// the first n rows as a view of this matrix
+	public svm_bit_matrix head(int n)
+	{
+		if(n < 0 || n > l)
+			throw new IllegalArgumentException("cannot take "+n+" of "+l+" rows");
+		return n == l ? this : new svm_bit_matrix(this,n);
+	}
+
+	// bytes of the storage, which views share with the matrix they were taken from
+	public long bytes()
+	{
+		long n = 4L*count.length;
+		if(bitsets != null)
+			n += 8L*bitsets.length;
+		else
+			n += 4L*row_ptr.length+4L*set.length;
+		return n;
+	}
+
+	// the given rows, in the given order
+	public svm_bit_matrix subset(int[] rows)
+	{
+		int[][] sub = new int[rows.length][];
+		long nnz = 0;
+		for(int i=0;i<rows.length;i++)
+		{
+			sub[i] = indices(rows[i]);
+			nnz += sub[i].length;
+		}
+		return new svm_bit_matrix(rows.length,dim,sub,nnz);
+	}
+
+	// dot product of rows i and j
+	public int dot(int i, int j)
+	{
+		if(i == j)
+			return count[i];
+		if(bitsets != null)
+		{
+			int sum = 0;
+			int a = i*words, b = j*words;
+			for(int w=0;w<words;w++)
+				sum += Long.bitCount(bitsets[a+w] & bitsets[b+w]);
+			return sum;
+		}
+		int sum = 0;
+		int p = row_ptr[i], p_end = row_ptr[i+1];
+		int q = row_ptr[j], q_end = row_ptr[j+1];
+		while(p < p_end && q < q_end)
+		{
+			if(set[p] == set[q])
+			{
+				++sum;
+				++p;
+				++q;
+			}
+			else if(set[p] > set[q])
+				++q;
+			else
+				++p;
+		}
+		return sum;
+	}
+}
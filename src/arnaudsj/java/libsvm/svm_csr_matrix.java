@@ -0,0 +1,107 @@
+package arnaudsj.java.libsvm;
+
+//
+// Instances stored in compressed sparse row form
+//
+// Row i holds the (col_index[k],values[k]) pairs for k in
+// [row_ptr[i],row_ptr[i+1]), with indices ascending like the svm_node rows
+// of svm_problem.x. Three flat arrays replace one svm_node object per
+// value, which cuts the memory of a problem about threefold and lets the
+// kernel merge rows without chasing pointers. Set svm_problem.csr instead
+// of svm_problem.x to train on it.
+//
+public class svm_csr_matrix implements java.io.Serializable
+{
+	public final int l;
+	public final int[] row_ptr;
+	public final int[] col_index;
+	public final double[] values;
+
+	public svm_csr_matrix(int l, int[] row_ptr, int[] col_index, double[] values)
+	{
+		if(row_ptr.length != l+1 || col_index.length != row_ptr[l] || values.length != row_ptr[l])
+			throw new IllegalArgumentException("row_ptr, col_index and values do not describe "+l+" rows");
+		this.l = l;
+		this.row_ptr = row_ptr;
+		this.col_index = col_index;
+		this.values = values;
+	}
+
+	public static svm_csr_matrix from_nodes(svm_node[][] x)
+	{
+		int l = x.length;
+		int[] row_ptr = new int[l+1];
+		for(int i=0;i<l;i++)
+			row_ptr[i+1] = row_ptr[i]+x[i].length;
+		int[] col_index = new int[row_ptr[l]];
+		double[] values = new double[row_ptr[l]];
+		for(int i=0;i<l;i++)
+		{
+			int k = row_ptr[i];
+			for(svm_node node : x[i])
+			{
+				col_index[k] = node.index;
+				values[k++] = node.value;
+			}
+		}
+		return new svm_csr_matrix(l,row_ptr,col_index,values);
+	}
+
+	public svm_node[] row(int i)
+	{
+		int begin = row_ptr[i];
+		svm_node[] x = new svm_node[row_ptr[i+1]-begin];
+		for(int k=0;k<x.length;k++)
+		{
+			x[k] = new svm_node();
+			x[k].index = col_index[begin+k];
+			x[k].value = values[begin+k];
+		}
+		return x;
+	}
+
+	public svm_node[][] to_nodes()
+	{
+		svm_node[][] x = new svm_node[l][];
+		for(int i=0;i<l;i++)
+			x[i] = row(i);
+		return x;
+	}
+
+	// the given rows, in the given order
+	public svm_csr_matrix subset(int[] rows)
+	{
+		int[] sub_ptr = new int[rows.length+1];
+		for(int i=0;i<rows.length;i++)
+			sub_ptr[i+1] = sub_ptr[i]+row_ptr[rows[i]+1]-row_ptr[rows[i]];
+		int[] sub_index = new int[sub_ptr[rows.length]];
+		double[] sub_values = new double[sub_ptr[rows.length]];
+		for(int i=0;i<rows.length;i++)
+		{
+			int begin = row_ptr[rows[i]];
+			int n = row_ptr[rows[i]+1]-begin;
+			System.arraycopy(col_index,begin,sub_index,sub_ptr[i],n);
+			System.arraycopy(values,begin,sub_values,sub_ptr[i],n);
+		}
+		return new svm_csr_matrix(rows.length,sub_ptr,sub_index,sub_values);
+	}
+
+	// dot product of rows i and j
+	public double dot(int i, int j)
+	{
+		double sum = 0;
+		int p = row_ptr[i], p_end = row_ptr[i+1];
+		int q = row_ptr[j], q_end = row_ptr[j+1];
+		while(p < p_end && q < q_end)
+		{
+			int a = col_index[p], b = col_index[q];
+			if(a == b)
+				sum += values[p++] * values[q++];
+			else if(a > b)
+				++q;
+			else
+				++p;
+		}
+		return sum;
+	}
+}
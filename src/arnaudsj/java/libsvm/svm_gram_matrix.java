@@ -0,0 +1,137 @@
+package arnaudsj.java.libsvm;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+//
+// Precomputed kernel values K(x_i,x_j) of a set of instances
+//
+// Only the lower triangle is stored, in single precision like the kernel
+// cache. A problem refers to it through svm_problem.gram and maps its
+// instances to matrix rows with svm_problem.gram_index, so one matrix can
+// serve every subset and every C/epsilon that use the same kernel.
+// Matrices of more than HEAP_LIMIT values are kept off-heap.
+//
+public class svm_gram_matrix
+{
+	public static final long HEAP_LIMIT = 1L<<26;
+	private static final int BLOCK_SHIFT = 28;
+	private static final long BLOCK_MASK = (1L<<BLOCK_SHIFT)-1;
+
+	public final int l;
+
+	// svm_parameter the values were computed with
+	public final int kernel_type;
+	public final int degree;
+	public final double gamma;
+	public final double coef0;
+	public final int[] kmer_sizes;
+
+	private final float[] values;
+	private final FloatBuffer[] blocks;
+
+	private svm_gram_matrix(int l, svm_parameter param)
+	{
+		this.l = l;
+		this.kernel_type = param.kernel_type;
+		this.degree = param.degree;
+		this.gamma = param.gamma;
+		this.coef0 = param.coef0;
+		this.kmer_sizes = param.kmer_sizes == null ? null : param.kmer_sizes.clone();
+		long size = (long)l*(l+1)/2;
+		if(size <= HEAP_LIMIT)
+		{
+			values = new float[(int)size];
+			blocks = null;
+		}
+		else
+		{
+			values = null;
+			blocks = new FloatBuffer[(int)((size+BLOCK_MASK)>>>BLOCK_SHIFT)];
+			for(int b=0;b<blocks.length;b++)
+			{
+				long n = Math.min(BLOCK_MASK+1,size-((long)b<<BLOCK_SHIFT));
+				blocks[b] = ByteBuffer.allocateDirect((int)n*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+		}
+	}
+
+	private static long offset(int i, int j)
+	{
+		return i >= j ? (long)i*(i+1)/2+j : (long)j*(j+1)/2+i;
+	}
+
+	public float get(int i, int j)
+	{
+		long k = offset(i,j);
+		if(values != null)
+			return values[(int)k];
+		return blocks[(int)(k>>>BLOCK_SHIFT)].get((int)(k&BLOCK_MASK));
+	}
+
+	private void put(long k, float value)
+	{
+		if(values != null)
+			values[(int)k] = value;
+		else
+			blocks[(int)(k>>>BLOCK_SHIFT)].put((int)(k&BLOCK_MASK),value);
+	}
+
+	// true if the values are those of the kernel given by param
+	public boolean matches(svm_parameter param)
+	{
+		return param.kernel_type == kernel_type && param.degree == degree
+			&& param.gamma == gamma && param.coef0 == coef0
+			&& Arrays.equals(param.kmer_sizes,kmer_sizes);
+	}
+
+	//
+	// Computes the kernel values of the given instances on the given number
+	// of threads (all cores if threads <= 0). Rows are dealt round robin so
+	// every thread gets a similar share of the triangle.
+	//
+	public static svm_gram_matrix compute(final svm_node[][] x, final svm_parameter param, int threads)
+	{
+		final int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		final svm_gram_matrix gram = new svm_gram_matrix(x.length,param);
+		ExecutorService exec = Executors.newFixedThreadPool(n);
+		try
+		{
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int t=0;t<n;t++)
+			{
+				final int first = t;
+				tasks.add(new Callable<Object>()
+				{
+					public Object call()
+					{
+						for(int i=first;i<x.length;i+=n)
+						{
+							long k = offset(i,0);
+							for(int j=0;j<=i;j++)
+								gram.put(k+j,(float)svm.k_function(x[i],x[j],param));
+						}
+						return null;
+					}
+				});
+			}
+			for(Future<Object> f : exec.invokeAll(tasks))
+				f.get();
+		}
+		catch(InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+		return gram;
+	}
+}
@@ -0,0 +1,140 @@
+package arnaudsj.java.libsvm;
+
+//
+// A sequence of symbols packed into bit fields, for the KMER kernel
+//
+// The KMER kernel of two sequences of the same length is the number of
+// (k, position) windows in which both hold the same k-mer, over every k in
+// svm_parameter.kmer_sizes. This is the linear kernel on binary positional
+// k-mer features, computed from the packed symbols in O(length) without
+// building the features. A KMER row is an svm_node[] holding a single
+// svm_kmer_node.
+//
+// Symbols are codes in [0,alphabet_size), anything else is an unknown
+// symbol that matches nothing and breaks every k-mer covering it.
+//
+public class svm_kmer_node extends svm_node
+{
+	private final int length;
+	private final int alphabet_size;
+	private final int bits;		// bits per symbol
+	private final int per_word;	// symbols per long, fields never straddle two longs
+	private final long[] symbols;
+	private final long[] known;	// lowest bit of the field of every known symbol
+
+	public svm_kmer_node(byte[] codes, int offset, int length, int alphabet_size)
+	{
+		this.length = length;
+		this.alphabet_size = alphabet_size;
+		this.bits = Math.max(1,32-Integer.numberOfLeadingZeros(alphabet_size-1));
+		this.per_word = 64/bits;
+		int words = (length+per_word-1)/per_word;
+		symbols = new long[words];
+		known = new long[words];
+		for(int i=0;i<length;i++)
+		{
+			int c = codes[offset+i];
+			if(c >= 0 && c < alphabet_size)
+			{
+				int shift = (i%per_word)*bits;
+				symbols[i/per_word] |= (long)c << shift;
+				known[i/per_word] |= 1L << shift;
+			}
+		}
+		this.index = -1;
+	}
+
+	public int length()
+	{
+		return length;
+	}
+
+	public int alphabet_size()
+	{
+		return alphabet_size;
+	}
+
+	// code of the symbol at position i, -1 if unknown
+	public int symbol(int i)
+	{
+		int shift = (i%per_word)*bits;
+		if((known[i/per_word] >>> shift & 1) == 0)
+			return -1;
+		return (int)(symbols[i/per_word] >>> shift & ((1L<<bits)-1));
+	}
+
+	//
+	// Returns the number of shared (k, position) windows of a and b
+	//
+	// Equal known symbols are flagged per word with xor and the known
+	// masks, the flags are widened to whole fields, and the runs of matching
+	// symbols are then read with trailing zero counts. A run of r symbols
+	// holds r-k+1 windows of size k.
+	//
+	public static double kernel(svm_kmer_node a, svm_kmer_node b, int[] kmer_sizes)
+	{
+		if(a.length != b.length || a.bits != b.bits)
+			throw new IllegalArgumentException("KMER kernel needs sequences of the same length and alphabet");
+		int bits = a.bits;
+		int end = a.per_word*bits;
+		long field = (1L<<bits)-1;
+		double sum = 0;
+		int run = 0;
+		for(int w=0;w<a.symbols.length;w++)
+		{
+			long diff = a.symbols[w] ^ b.symbols[w];
+			long differs = diff;
+			for(int s=1;s<bits;s++)
+				differs |= diff >>> s;
+			long match = ~differs & a.known[w] & b.known[w];
+			match *= field;
+			int pos = 0;
+			while(pos < end)
+			{
+				long rest = match >>> pos;
+				int zeros = rest == 0 ? end-pos : Long.numberOfTrailingZeros(rest);
+				if(zeros > 0)
+				{
+					sum += windows(run,kmer_sizes);
+					run = 0;
+					pos += zeros;
+					continue;
+				}
+				int ones = Math.min(Long.numberOfTrailingZeros(~rest),end-pos);
+				run += ones/bits;
+				pos += ones;
+			}
+		}
+		return sum + windows(run,kmer_sizes);
+	}
+
+	private static int windows(int run, int[] kmer_sizes)
+	{
+		int n = 0;
+		for(int k : kmer_sizes)
+			if(run >= k)
+				n += run-k+1;
+		return n;
+	}
+
+	// symbols as base 36 digits, '-' for unknown symbols, so only alphabets of
+	// up to 36 symbols can be written
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(length);
+		for(int i=0;i<length;i++)
+		{
+			int c = symbol(i);
+			sb.append(c < 0 ? '-' : Character.forDigit(c,36));
+		}
+		return sb.toString();
+	}
+
+	public static svm_kmer_node parse(String s, int alphabet_size)
+	{
+		byte[] codes = new byte[s.length()];
+		for(int i=0;i<codes.length;i++)
+			codes[i] = (byte)Character.digit(s.charAt(i),36);
+		return new svm_kmer_node(codes,0,codes.length,alphabet_size);
+	}
+}
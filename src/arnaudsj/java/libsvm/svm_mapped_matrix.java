@@ -0,0 +1,289 @@
+package arnaudsj.java.libsvm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// Instances whose features are all 0 or 1, stored out of core
+//
+// The ascending feature indices of every row are written to a file and read
+// back through memory maps of 2^BLOCK_SHIFT indices, so the rows take no
+// heap beyond one offset per row and the page cache holds the working set.
+// The writer pads the file so that no row spans two maps. subset() returns
+// a view of the same file that costs an int per row instead of a copy of
+// the rows. Set svm_problem.mapped instead of svm_problem.x to train on it.
+//
+public class svm_mapped_matrix implements java.io.Closeable
+{
+	private static final int BLOCK_SHIFT = 28;
+	private static final long BLOCK_MASK = (1L<<BLOCK_SHIFT)-1;
+
+	public final int l;
+	public final int dim;	// feature indices are in [0,dim)
+
+	private final store store;
+	private final int[] rows;	// row of the file of each instance, null if instance i is row i
+
+	// the file and its maps, shared by a matrix and its subsets
+	private static class store
+	{
+		private final File file;
+		private final IntBuffer[] blocks;
+		private final long[] row_ptr;	// row r is [row_ptr[r],row_ptr[r]+count[r]) of the file
+		private final int[] count;
+		private final int max_count;
+		private final int dim;
+
+		private store(File file, long size, long[] row_ptr, int[] count, int max_count, int dim) throws IOException
+		{
+			this.file = file;
+			this.row_ptr = row_ptr;
+			this.count = count;
+			this.max_count = max_count;
+			this.dim = dim;
+			blocks = new IntBuffer[(int)((size+BLOCK_MASK)>>>BLOCK_SHIFT)];
+			RandomAccessFile raf = new RandomAccessFile(file,"r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				for(int b=0;b<blocks.length;b++)
+				{
+					long begin = (long)b<<BLOCK_SHIFT;
+					long n = Math.min(BLOCK_MASK+1,size-begin);
+					blocks[b] = channel.map(FileChannel.MapMode.READ_ONLY,4*begin,4*n).order(ByteOrder.nativeOrder()).asIntBuffer();
+				}
+			}
+			finally
+			{
+				raf.close();	// the maps stay valid
+			}
+		}
+	}
+
+	private svm_mapped_matrix(store store, int[] rows)
+	{
+		this.store = store;
+		this.rows = rows;
+		this.l = rows == null ? store.count.length : rows.length;
+		this.dim = store.dim;
+	}
+
+	//
+	// Appends rows to a new file. finish() maps the file as a matrix. Closing
+	// a writer that has not finished, as when add() failed, closes the file
+	// and deletes it.
+	//
+	public static class writer implements java.io.Closeable
+	{
+		private final File file;
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(1<<20).order(ByteOrder.nativeOrder());
+		private long size = 0;	// indices written, with padding
+		private long[] row_ptr = new long[1024];
+		private int[] count = new int[1024];
+		private int l = 0;
+		private int max_count = 0;
+		private int dim = 0;
+		private boolean finished = false;
+
+		private writer(File file) throws IOException
+		{
+			this.file = file;
+			this.channel = new RandomAccessFile(file,"rw").getChannel();
+			try
+			{
+				channel.truncate(0);
+			}
+			catch(IOException e)
+			{
+				close();
+				throw e;
+			}
+		}
+
+		// indices[0..n) are the ascending indices of the features of the row that are 1
+		public void add(int[] indices, int n) throws IOException
+		{
+			if(n > BLOCK_MASK+1)
+				throw new IllegalArgumentException("row of "+n+" features does not fit a map");
+			if((size&BLOCK_MASK)+n > BLOCK_MASK+1)
+			{
+				// start the row at the next map
+				while((size&BLOCK_MASK) != 0)
+					put(0);
+			}
+			if(l == count.length)
+			{
+				row_ptr = java.util.Arrays.copyOf(row_ptr,2*l);
+				count = java.util.Arrays.copyOf(count,2*l);
+			}
+			row_ptr[l] = size;
+			count[l++] = n;
+			max_count = Math.max(max_count,n);
+			for(int k=0;k<n;k++)
+			{
+				if(indices[k] < 0 || (k > 0 && indices[k] <= indices[k-1]))
+					throw new IllegalArgumentException("indices of row "+(l-1)+" are not ascending and >= 0");
+				put(indices[k]);
+			}
+			if(n > 0)
+				dim = Math.max(dim,indices[n-1]+1);
+		}
+
+		private void put(int v) throws IOException
+		{
+			if(!buf.hasRemaining())
+				flush();
+			buf.putInt(v);
+			++size;
+		}
+
+		private void flush() throws IOException
+		{
+			buf.flip();
+			while(buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+
+		public svm_mapped_matrix finish() throws IOException
+		{
+			flush();
+			channel.close();
+			svm_mapped_matrix m = new svm_mapped_matrix(new store(file,size,java.util.Arrays.copyOf(row_ptr,l),java.util.Arrays.copyOf(count,l),max_count,dim),null);
+			finished = true;
+			return m;
+		}
+
+		public void close()
+		{
+			if(finished)
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch(IOException e)
+			{
+				// the file is deleted anyway
+			}
+			file.delete();
+		}
+	}
+
+	// writes the rows to file, which is created or truncated and deleted
+	// again if the writer is closed before it finishes
+	public static writer create(File file) throws IOException
+	{
+		return new writer(file);
+	}
+
+	private int row_of(int i)
+	{
+		return rows == null ? i : rows[i];
+	}
+
+	// number of features of instance i that are 1
+	public int count(int i)
+	{
+		return store.count[row_of(i)];
+	}
+
+	// largest count of any row of the file
+	public int max_count()
+	{
+		return store.max_count;
+	}
+
+	// copies the ascending indices of the features of instance i that are 1
+	// to buf and returns their number
+	public int indices(int i, int[] buf)
+	{
+		int r = row_of(i);
+		int n = store.count[r];
+		if(n == 0)
+			return 0;	// may sit past the last map
+		long p = store.row_ptr[r];
+		IntBuffer block = store.blocks[(int)(p>>>BLOCK_SHIFT)];
+		int begin = (int)(p&BLOCK_MASK);
+		for(int k=0;k<n;k++)
+			buf[k] = block.get(begin+k);
+		return n;
+	}
+
+	public svm_node[] row(int i)
+	{
+		int[] indices = new int[count(i)];
+		indices(i,indices);
+		svm_node[] x = new svm_node[indices.length];
+		for(int k=0;k<x.length;k++)
+		{
+			x[k] = new svm_node();
+			x[k].index = indices[k];
+			x[k].value = 1;
+		}
+		return x;
+	}
+
+	// the given instances, in the given order, as a view of the same file
+	public svm_mapped_matrix subset(int[] instances)
+	{
+		int[] sub = new int[instances.length];
+		for(int k=0;k<sub.length;k++)
+			sub[k] = row_of(instances[k]);
+		return new svm_mapped_matrix(store,sub);
+	}
+
+	// dot product of instances i and j
+	public int dot(int i, int j)
+	{
+		int r = row_of(i), s = row_of(j);
+		if(r == s || store.count[r] == 0 || store.count[s] == 0)
+			return r == s ? store.count[r] : 0;
+		long pr = store.row_ptr[r], ps = store.row_ptr[s];
+		IntBuffer a = store.blocks[(int)(pr>>>BLOCK_SHIFT)];
+		IntBuffer b = store.blocks[(int)(ps>>>BLOCK_SHIFT)];
+		int p = (int)(pr&BLOCK_MASK), p_end = p+store.count[r];
+		int q = (int)(ps&BLOCK_MASK), q_end = q+store.count[s];
+		int sum = 0;
+		int x = a.get(p), y = b.get(q);
+		while(true)
+		{
+			if(x == y)
+			{
+				++sum;
+				if(++p == p_end || ++q == q_end)
+					break;
+				x = a.get(p);
+				y = b.get(q);
+			}
+			else if(x > y)
+			{
+				if(++q == q_end)
+					break;
+				y = b.get(q);
+			}
+			else
+			{
+				if(++p == p_end)
+					break;
+				x = a.get(p);
+			}
+		}
+		return sum;
+	}
+
+	// deletes the file. The maps are released once the matrix and its
+	// subsets are no longer reachable; on systems that cannot delete a
+	// mapped file it is deleted on exit instead.
+	public void close()
+	{
+		if(!store.file.delete() && store.file.exists())
+			store.file.deleteOnExit();
+	}
+}
@@ -8,6 +8,7 @@ public class svm_model implements java.io.Serializable
 	public int nr_class;		// number of classes, = 2 in regression/one class svm
 	public int l;			// total #SV
 	public svm_node[][] SV;	// SVs (SV[l])
+	public svm_csr_matrix SV_csr;	// SVs as CSR rows when SV is null (binary model files)
 	public double[][] sv_coef;	// coefficients for SVs in decision functions (sv_coef[k-1][l])
 	public double[] rho;		// constants in decision functions (rho[k*(k-1)/2])
 	public double[] probA;         // pariwise probability information
@@ -14,12 +14,14 @@ public class svm_parameter implements Cloneable,java.io.Serializable
 	public static final int RBF = 2;
 	public static final int SIGMOID = 3;
 	public static final int PRECOMPUTED = 4;
+	public static final int KMER = 5;
 
 	public int svm_type;
 	public int kernel_type;
 	public int degree;	// for poly
 	public double gamma;	// for poly/rbf/sigmoid
 	public double coef0;	// for poly/sigmoid
+	public int[] kmer_sizes;	// for kmer, see svm_kmer_node
 
 	// these are for training only
 	public double cache_size; // in MB
@@ -32,6 +34,8 @@ public class svm_parameter implements Cloneable,java.io.Serializable
 	public double p;	// for EPSILON_SVR
 	public int shrinking;	// use the shrinking heuristics
 	public int probability; // do probability estimates
+	public int threads;	// for the solver's O(l) loops on large problems, <= 1 is serial
+	public transient svm_solve_listener listener;	// told the statistics of every solve, may be null
 
 	public Object clone() 
 	{
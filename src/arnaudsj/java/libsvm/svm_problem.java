@@ -4,4 +4,9 @@ public class svm_problem implements java.io.Serializable
 	public int l;
 	public double[] y;
 	public svm_node[][] x;
+	public svm_csr_matrix csr;	// instances in csr form, used instead of x if not null
+	public svm_bit_matrix bits;	// instances with 0/1 features, used instead of x and csr if not null
+	public transient svm_mapped_matrix mapped;	// instances with 0/1 features in a mapped file, used instead of x and csr if not null and bits is null
+	public transient svm_gram_matrix gram;	// optional precomputed kernel values
+	public int[] gram_index;	// row of each x in gram, null if x[i] is row i
 }
@@ -0,0 +1,10 @@
+package arnaudsj.java.libsvm;
+public interface svm_solve_listener
+{
+	// called after every solve of svm_train, which for classification is one
+	// per pair of classes, with the parameters the solve was given. Solvers
+	// outside svm_train may call it too and leave the fields of stats that do
+	// not apply to them at 0, such as the kernel and cache counts of solvers
+	// that evaluate no kernel.
+	void solved(svm_parameter param, svm_solve_stats stats);
+}
@@ -0,0 +1,21 @@
+package arnaudsj.java.libsvm;
+public class svm_solve_stats implements java.io.Serializable
+{
+	public int l;			// number of solver variables, 2*l for SVR
+	public long iterations;
+	public int shrinks;		// times the active set shrank
+	public int unshrinks;		// times the active set was reset to all variables
+	public int reconstructions;	// gradient reconstructions
+	public long kernel_evaluations;
+	public long cache_hits;
+	public long cache_misses;
+	public long cache_evictions;
+	public long init_nanos;		// gradient initialization
+	public long shrink_nanos;	// shrinking, with the reconstructions it starts
+	public long reconstruct_nanos;	// all gradient reconstructions
+	public long total_nanos;	// the whole solve
+	public double obj;
+	public double rho;
+	public int nSV;
+	public int nBSV;
+}
@@ -0,0 +1,331 @@
+package bepler.seq.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+
+import bepler.util.StatsUtil;
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_bit_matrix;
+import arnaudsj.java.libsvm.svm_gram_matrix;
+import arnaudsj.java.libsvm.svm_mapped_matrix;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Shared state and cross validation helpers of the GridSearch implementations, which differ in which models of the
+ * epsilon x C grid they train and on how much of each fold.
+ */
+abstract class AbstractGridSearch implements GridSearch{
+
+	protected final double[] ps;
+	protected final double[] cs;
+	protected final double term;
+	protected final List<CrossValidationSet> crossValSets;
+	protected final FeatureBuilder features;
+	protected final TrainingEngine engine;
+	protected final TrainingScheduler scheduler;
+	private svm_gram_matrix gram = null;
+	private svm_parameter kernel = null;
+	private boolean bitFeatures = false;
+	private final Map<CrossValidationSet, svm_bit_matrix> bits = new IdentityHashMap<CrossValidationSet, svm_bit_matrix>();
+	private SolveTelemetry telemetry = null;
+	protected boolean verbose = false;
+
+	protected AbstractGridSearch(double[] ps, double[] cs, double term,
+			List<CrossValidationSet> crossValSets, FeatureBuilder features,
+			TrainingEngine engine, int threads){
+		this.ps = ps.clone();
+		this.cs = cs.clone();
+		this.term = term;
+		this.crossValSets = new ArrayList<CrossValidationSet>(crossValSets);
+		this.features = features;
+		this.engine = engine;
+		this.scheduler = new TrainingScheduler(threads, Runtime.getRuntime().maxMemory() / 2);
+	}
+
+	/**
+	 * Sets whether the progress of the search is reported to stderr.
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose){
+		this.verbose = verbose;
+		scheduler.setVerbose(verbose);
+	}
+
+	/**
+	 * Sets the kernel values of the full data set, which the cross validation sets index with their trainRows. Every
+	 * fold and grid point then reads the kernel from this matrix instead of recomputing it.
+	 * @param gram
+	 */
+	public void setGram(svm_gram_matrix gram){
+		this.gram = gram;
+	}
+
+	/**
+	 * Sets the kernel type and kernel parameters of the searched models. Defaults to the linear kernel.
+	 * @param kernel
+	 */
+	public void setKernel(svm_parameter kernel){
+		this.kernel = kernel;
+	}
+
+	/**
+	 * Sets whether the training folds are also given to the engine as bitsets, so engines that evaluate the kernel
+	 * take the dot products of the 0/1 feature rows by popcount. The bitsets of a fold are built once and shared by
+	 * all its problems. Ignored if the engine does not evaluate the kernel.
+	 * @param bitFeatures
+	 */
+	public void setBitFeatures(boolean bitFeatures){
+		this.bitFeatures = bitFeatures && engine.evaluatesKernel();
+	}
+
+	/**
+	 * Sets the collector of the solver statistics of every cross validation model, or null to not collect them.
+	 * @param telemetry
+	 */
+	public void setTelemetry(SolveTelemetry telemetry){
+		this.telemetry = telemetry;
+	}
+
+	protected svm_problem toProblem(CrossValidationSet set){
+		return toProblem(set, set.trainValues.length);
+	}
+
+	/**
+	 * Returns the problem of the first n training instances of the set. The sets are built from shuffled data, so
+	 * this is a random subsample of the fold.
+	 */
+	protected svm_problem toProblem(CrossValidationSet set, int n){
+		svm_problem prob = new svm_problem();
+		boolean all = n == set.trainValues.length;
+		prob.l = n;
+		prob.y = all ? set.trainValues : Arrays.copyOf(set.trainValues, n);
+		if(set.trainMatrix != null){
+			prob.mapped = all ? set.trainMatrix : set.trainMatrix.subset(range(n));
+			return prob;
+		}
+		prob.x = all ? set.trainSet : Arrays.copyOf(set.trainSet, n);
+		if(gram != null){
+			prob.gram = gram;
+			prob.gram_index = all || set.trainRows == null ? set.trainRows : Arrays.copyOf(set.trainRows, n);
+		}
+		if(bitFeatures){
+			prob.bits = bits(set).head(n);
+		}
+		return prob;
+	}
+
+	/**
+	 * Returns the bitsets of the training instances of the set, built on first use
+	 */
+	private svm_bit_matrix bits(CrossValidationSet set){
+		svm_bit_matrix b = bits.get(set);
+		if(b == null){
+			b = svm_bit_matrix.from_nodes(set.trainSet, features.numFeatures());
+			bits.put(set, b);
+		}
+		return b;
+	}
+
+	private static int[] range(int n){
+		int[] range = new int[n];
+		for( int i = 0 ; i < n ; ++i ){
+			range[i] = i;
+		}
+		return range;
+	}
+
+	/**
+	 * Runs the jobs on the scheduler and reports how many failed. Fails the search if every job failed, as there
+	 * are then no scores to pick parameters from.
+	 */
+	protected void runJobs(List<TrainingScheduler.Job> jobs){
+		int failed = scheduler.run(jobs);
+		if(failed == 0){
+			return;
+		}
+		Exception cause = scheduler.firstFailure();
+		if(failed == jobs.size()){
+			throw new RuntimeException("All "+failed+" training jobs failed", cause);
+		}
+		System.err.println("Warning: "+failed+" of "+jobs.size()+" training jobs failed. First failure: "+cause);
+	}
+
+	protected svm_parameter initParam(double p, double c, double termEps){
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.EPSILON_SVR;
+		param.kernel_type = svm_parameter.LINEAR;
+		if(kernel != null){
+			param.kernel_type = kernel.kernel_type;
+			param.degree = kernel.degree;
+			param.gamma = kernel.gamma;
+			param.coef0 = kernel.coef0;
+			param.kmer_sizes = kernel.kmer_sizes;
+		}
+		param.C = c;
+		param.p = p;
+		param.eps = termEps;
+		return param;
+	}
+
+	/**
+	 * Returns a rough estimate of the relative time to train a model. Larger C and smaller epsilon give more support
+	 * vectors and more solver iterations, and each iteration costs O(l).
+	 */
+	protected static double expectedCost(svm_problem prob, svm_parameter param){
+		return (double) prob.l * prob.l * (1 + param.C) / (param.p + param.eps);
+	}
+
+	/**
+	 * Returns an estimate of the bytes the solver needs for a problem: the alpha, gradient, and index arrays of the
+	 * 2l SVR variables, two kernel rows per iteration, the kernel cache, and the bitsets of the fold if it has them.
+	 * The jobs of a fold share its bitsets, but each of them keeps the bitsets on the heap while it runs.
+	 */
+	protected static long expectedMemory(svm_problem prob, svm_parameter param){
+		long memory = 128L * prob.l + (long) (param.cache_size * (1 << 20));
+		if(prob.bits != null){
+			memory += prob.bits.bytes();
+		}
+		return memory;
+	}
+
+	/**
+	 * Trains a model on the fold, warm started from alpha if it is not null, and adds its test score to scores.
+	 * @return the test score
+	 */
+	protected Result evaluate(svm_problem prob, svm_parameter param, double[] alpha, CrossValidationSet set, int fold,
+			List<Result> scores, File saveIntermediariesTo){
+		if(telemetry != null){
+			//the same parameters are trained on every fold at once, so each fold gets its own listener
+			param = (svm_parameter) param.clone();
+			param.listener = telemetry.listener(fold);
+		}
+		svm_model model = alpha == null ? engine.train(prob, param) : engine.train(prob, param, alpha);
+		Result r = set.testMatrix != null ? testModel(model, set.testValues, set.testMatrix)
+				: testModel(model, set.testValues, set.testSet);
+		synchronized(scores){
+			scores.add(r);
+		}
+		writeModel(saveIntermediariesTo, r, model, fold);
+		return r;
+	}
+
+	protected static Result mean(List<Result> scores, svm_parameter param, int expected){
+		if(scores.size() != expected){
+			//an error occurred in at least one of the model training threads
+			System.err.println("Warning: an error occurred while cross validating parameters: Epsilon="+param.p+" C="+param.C
+					+". Only "+scores.size()+ " out of "+expected+" models completed.");
+		}
+
+		//sum the scores
+		Result mean = new Result();
+		mean.mse = 0;
+		mean.r2 = 0;
+		for(Result score : scores){
+			mean.mse += score.mse;
+			mean.r2 += score.r2;
+		}
+
+		mean.mse = mean.mse / (double) scores.size();
+		mean.r2 = mean.r2 / (double) scores.size();
+
+		return mean;
+	}
+
+	/**
+	 * Picks the parameters that produce a model with the lowest average error. Fails if no parameters have an error,
+	 * which happens when every model failed to train.
+	 */
+	protected static svm_parameter best(Map<svm_parameter, Result> scores){
+		svm_parameter best = null;
+		Result bestScore = new Result();
+		bestScore.mse = Double.POSITIVE_INFINITY;
+		bestScore.r2 = 0;
+		for(svm_parameter param : scores.keySet()){
+			Result score = scores.get(param);
+			if(score.compareTo(bestScore) < 0){
+				bestScore = score;
+				best = param;
+			}
+		}
+		if(best == null){
+			throw new RuntimeException("No cross validation model completed for any of "+scores.size()+" parameter pairs");
+		}
+		return best;
+	}
+
+	private void writeModel(File dir, Result r,
+			svm_model model, int k) {
+		if(dir != null){
+			if(!dir.exists()){
+				dir.mkdirs();
+			}
+			//write the cross validation model to the directory
+			String name = "model_eps"+model.param.p+"_C"+model.param.C+
+					"_k"+k+"_mse-"+r.mse+"_r2-"+r.r2+".txt";
+			File target = new File(dir, name);
+			PrintStream out = null;
+			try {
+				out = new PrintStream( new BufferedOutputStream (new FileOutputStream(target)));
+				new SeqSVMModel(features, model).write(out);
+			} catch (FileNotFoundException e) {
+				synchronized(System.err){
+					System.err.println("Error: unable to write file "+target);
+				}
+			} finally {
+				if(out != null){
+					out.close();
+				}
+			}
+		}
+	}
+
+	private static Result testModel(svm_model model, double[] testValues, svm_node[][] testSet){
+		double[] predictValues = new double[testValues.length];
+		for( int i = 0 ; i < testValues.length ; ++i ){
+			predictValues[i] = svm.svm_predict(model, testSet[i]) ;
+		}
+		return score(testValues, predictValues);
+	}
+
+	private static Result testModel(svm_model model, double[] testValues, svm_mapped_matrix testMatrix){
+		double[] predictValues = new double[testValues.length];
+		for( int i = 0 ; i < testValues.length ; ++i ){
+			predictValues[i] = svm.svm_predict(model, testMatrix.row(i)) ;
+		}
+		return score(testValues, predictValues);
+	}
+
+	private static Result score(double[] testValues, double[] predictValues){
+		Result r = new Result();
+		PearsonsCorrelation cor = new PearsonsCorrelation();
+		r.r2 = Math.pow(cor.correlation(testValues, predictValues), 2);
+		r.mse = StatsUtil.meanSquaredError(testValues, predictValues);
+		return r;
+	}
+
+	protected static class Result implements Comparable<Result>{
+		protected double r2;
+		protected double mse;
+		@Override
+		public int compareTo(Result arg0) {
+			double dif = mse - arg0.mse;
+			if(dif < 0) return -1;
+			if(dif > 0) return 1;
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package bepler.seq.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Versioned binary format of a linear model: a header holding the feature space followed by the dense weight table
+ * indexed by feature index. All values are big endian.
+ * <pre>
+ * int    magic "SQLM"
+ * int    version
+ * int    alphabet size, then each symbol as a char
+ * int    sequence length
+ * int    number of kmer sizes, then each size as an int
+ * double intercept
+ * int    number of weights, then each weight as a double
+ * </pre>
+ * Models are read through a memory map with one bulk copy into the weight array, so no per feature objects are
+ * created.
+ */
+public class BinaryLinearModel {
+
+	public static final int MAGIC = 0x53514c4d;
+	public static final int VERSION = 1;
+
+	public static void write(LinearModel model, OutputStream out) throws IOException{
+		LinearScorer scorer = model.getScorer();
+		FeatureBuilder builder = scorer.getBuilder();
+		double[] weights = scorer.weights();
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		char[] alphabet = builder.getAlphabet();
+		data.writeInt(alphabet.length);
+		for(char c : alphabet){
+			data.writeChar(c);
+		}
+		data.writeInt(builder.getSeqLen());
+		int[] kmerSizes = builder.getKmerSizes();
+		data.writeInt(kmerSizes.length);
+		for(int k : kmerSizes){
+			data.writeInt(k);
+		}
+		data.writeDouble(scorer.intercept());
+		data.writeInt(weights.length);
+		for(double w : weights){
+			data.writeDouble(w);
+		}
+		data.flush();
+	}
+
+	public static void write(LinearModel model, File file) throws IOException{
+		OutputStream out = new FileOutputStream(file);
+		try{
+			write(model, out);
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns whether the file starts with the binary model magic number
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinary(File file) throws IOException{
+		FileInputStream in = new FileInputStream(file);
+		try{
+			int magic = 0;
+			for( int i = 0 ; i < 4 ; ++i ){
+				int b = in.read();
+				if(b < 0){
+					return false;
+				}
+				magic = magic << 8 | b;
+			}
+			return magic == MAGIC;
+		}finally{
+			in.close();
+		}
+	}
+
+	public static LinearModel read(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			return read(raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length()));
+		}finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads a model from the buffer's position.
+	 * @param buf
+	 * @return
+	 * @throws IOException - if the buffer does not hold a model of a supported version
+	 */
+	public static LinearModel read(ByteBuffer buf) throws IOException{
+		try{
+			if(buf.getInt() != MAGIC){
+				throw new IOException("BinaryLinearModel: not a binary model");
+			}
+			int version = buf.getInt();
+			if(version != VERSION){
+				throw new IOException("BinaryLinearModel: unsupported version "+version);
+			}
+			char[] alphabet = new char[buf.getInt()];
+			for( int i = 0 ; i < alphabet.length ; ++i ){
+				alphabet[i] = buf.getChar();
+			}
+			int seqLen = buf.getInt();
+			int[] kmerSizes = new int[buf.getInt()];
+			for( int i = 0 ; i < kmerSizes.length ; ++i ){
+				kmerSizes[i] = buf.getInt();
+			}
+			double intercept = buf.getDouble();
+			FeatureBuilder builder = new FeatureBuilder(seqLen, kmerSizes, alphabet);
+			double[] weights = new double[buf.getInt()];
+			if(weights.length != builder.numFeatures()){
+				throw new IOException("BinaryLinearModel: expected "+builder.numFeatures()+" weights but was "
+						+weights.length);
+			}
+			buf.asDoubleBuffer().get(weights);
+			buf.position(buf.position() + 8 * weights.length);
+			return new LinearModel.LinearModelImpl(builder, null, weights, intercept);
+		}catch(BufferUnderflowException e){
+			throw new IOException("BinaryLinearModel: truncated model", e);
+		}catch(NegativeArraySizeException e){
+			throw new IOException("BinaryLinearModel: corrupt model", e);
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package bepler.seq.svm;
 
+import arnaudsj.java.libsvm.svm_mapped_matrix;
 import arnaudsj.java.libsvm.svm_node;
 
 public class CrossValidationSet{
@@ -8,9 +9,30 @@ public class CrossValidationSet{
 	public final double[] trainValues;
 	public final svm_node[][] testSet;
 	public final double[] testValues;
+	//row of each training instance in the full data set, used to look up shared kernel values, may be null
+	public final int[] trainRows;
+	//views of the rows of a mapped data set, used instead of trainSet and testSet if not null
+	public final svm_mapped_matrix trainMatrix;
+	public final svm_mapped_matrix testMatrix;
 	
 	public CrossValidationSet(svm_node[][] trainSet, double[] trainValues, svm_node[][] testSet, double[] testValues){
+		this(trainSet, trainValues, testSet, testValues, null);
+	}
+	
+	public CrossValidationSet(svm_node[][] trainSet, double[] trainValues, svm_node[][] testSet, double[] testValues,
+			int[] trainRows){
 		this.trainSet = trainSet; this.trainValues = trainValues; this.testSet = testSet; this.testValues = testValues;
+		this.trainRows = trainRows;
+		this.trainMatrix = null;
+		this.testMatrix = null;
+	}
+	
+	public CrossValidationSet(svm_mapped_matrix trainMatrix, double[] trainValues, svm_mapped_matrix testMatrix,
+			double[] testValues){
+		this.trainSet = null; this.trainValues = trainValues; this.testSet = null; this.testValues = testValues;
+		this.trainRows = null;
+		this.trainMatrix = trainMatrix;
+		this.testMatrix = testMatrix;
 	}
 
 	
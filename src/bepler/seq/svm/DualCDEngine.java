@@ -0,0 +1,448 @@
+package bepler.seq.svm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_bit_matrix;
+import arnaudsj.java.libsvm.svm_csr_matrix;
+import arnaudsj.java.libsvm.svm_mapped_matrix;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+import arnaudsj.java.libsvm.svm_solve_stats;
+
+/**
+ * Trains linear epsilon-SVR models in the primal feature space using dual coordinate descent (Ho and Lin, JMLR
+ * 13(2012), p. 3323--3348). The weight vector is kept explicitly and updated from the sparse feature rows, so each
+ * epoch costs O(nnz) instead of the O(l^2) kernel evaluations of the SMO solver. The intercept is learned as the
+ * weight of a constant bias feature, which is regularized along with the other weights.
+ *
+ * The trained svm_model holds the weight vector as its single support vector with coefficient 1 and rho equal to the
+ * negated intercept, so svm.svm_predict and SeqSVMModel treat it like any other linear model. Like the SMO solver,
+ * training stops with a CancellationException when the training thread is interrupted. The rows are read from the
+ * form of the problem the libsvm kernel would use: its bits, mapped, csr, or x rows. Problems whose rows are in an
+ * svm_mapped_matrix are read through the mapping, one row at a time.
+ *
+ * If param.listener is set it gets the statistics of every solve. The l variables are the beta of the instances,
+ * iterations counts passes over the active set, and shrinks counts the passes that shrank it. No kernel is evaluated,
+ * so the kernel, cache, and reconstruction fields are 0.
+ */
+public class DualCDEngine implements TrainingEngine {
+
+	public static final int DEFAULT_MAX_ITER = 1000;
+	private static final double BIAS = 1;
+	private static final long SEED = 1;
+
+	private final boolean l2Loss;
+	private final int maxIter;
+
+	/**
+	 * @param l2Loss - use the squared epsilon-insensitive loss instead of the epsilon-insensitive loss
+	 */
+	public DualCDEngine(boolean l2Loss){
+		this(l2Loss, DEFAULT_MAX_ITER);
+	}
+
+	public DualCDEngine(boolean l2Loss, int maxIter){
+		this.l2Loss = l2Loss;
+		this.maxIter = maxIter;
+	}
+
+	@Override
+	public svm_model train(svm_problem prob, svm_parameter param) {
+		return train(prob, param, null);
+	}
+	
+	@Override
+	public svm_model train(svm_problem prob, svm_parameter param, double[] alpha) {
+		if(param.svm_type != svm_parameter.EPSILON_SVR || param.kernel_type != svm_parameter.LINEAR){
+			throw new IllegalArgumentException("DualCDEngine only trains EPSILON_SVR models with a LINEAR kernel");
+		}
+		long start = System.nanoTime();
+		int l = prob.l;
+		Rows x = rows(prob);
+		double[] y = prob.y;
+		double[] w = new double[x.dimension()];
+		double b = 0;
+		double[] beta = new double[l];
+		double[] QD = new double[l];
+		int[] index = new int[l];
+
+		double p = param.p;
+		double lambda = l2Loss ? 0.5 / param.C : 0;
+		double upper = l2Loss ? Double.POSITIVE_INFINITY : param.C;
+
+		for( int i = 0 ; i < l ; ++i ){
+			QD[i] = BIAS * BIAS + x.squaredNorm(i);
+			index[i] = i;
+			if(alpha != null && alpha[i] != 0){
+				//warm start, w and b are kept equal to the sums of beta times the rows
+				beta[i] = Math.min(Math.max(alpha[i], -upper), upper);
+				x.add(i, beta[i], w);
+				b += beta[i] * BIAS;
+			}
+		}
+
+		long initNanos = System.nanoTime() - start;
+
+		Random random = new Random(SEED);
+		int activeSize = l;
+		int shrinks = 0;
+		int unshrinks = 0;
+		double gMaxOld = Double.POSITIVE_INFINITY;
+		double gNorm1Init = -1;
+		int iter = 0;
+		while(iter < maxIter){
+			if(Thread.currentThread().isInterrupted()){
+				throw new CancellationException("DualCDEngine training interrupted");
+			}
+			double gMaxNew = 0;
+			double gNorm1New = 0;
+			int activeSizeOld = activeSize;
+
+			for( int i = 0 ; i < activeSize ; ++i ){
+				int j = i + random.nextInt(activeSize - i);
+				swap(index, i, j);
+			}
+
+			for( int s = 0 ; s < activeSize ; ++s ){
+				int i = index[s];
+				double G = -y[i] + lambda * beta[i] + b * BIAS + x.dot(i, w);
+				double H = QD[i] + lambda;
+				double Gp = G + p;
+				double Gn = G - p;
+				double violation = 0;
+				if(beta[i] == 0){
+					if(Gp < 0){
+						violation = -Gp;
+					}else if(Gn > 0){
+						violation = Gn;
+					}else if(Gp > gMaxOld && Gn < -gMaxOld){
+						//shrink
+						swap(index, s--, --activeSize);
+						continue;
+					}
+				}else if(beta[i] >= upper){
+					if(Gp > 0){
+						violation = Gp;
+					}else if(Gp < -gMaxOld){
+						swap(index, s--, --activeSize);
+						continue;
+					}
+				}else if(beta[i] <= -upper){
+					if(Gn < 0){
+						violation = -Gn;
+					}else if(Gn > gMaxOld){
+						swap(index, s--, --activeSize);
+						continue;
+					}
+				}else if(beta[i] > 0){
+					violation = Math.abs(Gp);
+				}else{
+					violation = Math.abs(Gn);
+				}
+				gMaxNew = Math.max(gMaxNew, violation);
+				gNorm1New += violation;
+
+				//newton direction
+				double d;
+				if(Gp < H * beta[i]){
+					d = -Gp / H;
+				}else if(Gn > H * beta[i]){
+					d = -Gn / H;
+				}else{
+					d = -beta[i];
+				}
+				if(Math.abs(d) < 1e-12){
+					continue;
+				}
+				double betaOld = beta[i];
+				beta[i] = Math.min(Math.max(beta[i] + d, -upper), upper);
+				d = beta[i] - betaOld;
+				if(d != 0){
+					x.add(i, d, w);
+					b += d * BIAS;
+				}
+			}
+
+			if(iter == 0){
+				gNorm1Init = gNorm1New;
+			}
+			++iter;
+			if(activeSize < activeSizeOld){
+				++shrinks;
+			}
+
+			if(gNorm1New <= param.eps * gNorm1Init){
+				if(activeSize == l){
+					break;
+				}
+				//check the shrunk variables before stopping
+				activeSize = l;
+				++unshrinks;
+				gMaxOld = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			gMaxOld = gMaxNew;
+		}
+		if(iter >= maxIter){
+			svm.info("\nWARNING: DualCDEngine reached max number of iterations ("+maxIter+")\n");
+		}
+
+		if(alpha != null){
+			System.arraycopy(beta, 0, alpha, 0, l);
+		}
+		if(param.listener != null){
+			svm_solve_stats stats = new svm_solve_stats();
+			stats.l = l;
+			stats.iterations = iter;
+			stats.shrinks = shrinks;
+			stats.unshrinks = unshrinks;
+			stats.init_nanos = initNanos;
+			//the dual objective, in the minimized form the SMO solver reports
+			double obj = b * b;
+			for( int j = 0 ; j < w.length ; ++j ){
+				obj += w[j] * w[j];
+			}
+			obj /= 2;
+			for( int i = 0 ; i < l ; ++i ){
+				obj += p * Math.abs(beta[i]) - y[i] * beta[i] + 0.5 * lambda * beta[i] * beta[i];
+				if(beta[i] != 0){
+					++stats.nSV;
+					if(Math.abs(beta[i]) >= upper){
+						++stats.nBSV;
+					}
+				}
+			}
+			stats.obj = obj;
+			stats.rho = -b * BIAS;
+			stats.total_nanos = System.nanoTime() - start;
+			param.listener.solved(param, stats);
+		}
+		return toModel(param, w, b * BIAS);
+	}
+
+	@Override
+	public boolean evaluatesKernel() {
+		return false;
+	}
+
+	/**
+	 * The feature rows of a problem
+	 */
+	private static abstract class Rows{
+		abstract int dimension();
+		abstract double squaredNorm(int i);
+		abstract double dot(int i, double[] w);
+		/**
+		 * Adds d times row i to w
+		 */
+		abstract void add(int i, double d, double[] w);
+	}
+
+	private static Rows rows(svm_problem prob){
+		if(prob.bits != null){
+			return new BitRows(prob.bits);
+		}else if(prob.mapped != null){
+			return new MappedRows(prob.mapped);
+		}else if(prob.csr != null){
+			return new CsrRows(prob.csr);
+		}else if(prob.x != null){
+			return new NodeRows(prob.x);
+		}
+		throw new IllegalArgumentException("DualCDEngine: the problem has no x, csr, bits, or mapped rows");
+	}
+
+	private static class NodeRows extends Rows{
+		private final svm_node[][] x;
+		NodeRows(svm_node[][] x){
+			this.x = x;
+		}
+		@Override
+		int dimension(){
+			int max = -1;
+			for(svm_node[] row : x){
+				for(svm_node node : row){
+					max = Math.max(max, node.index);
+				}
+			}
+			return max + 1;
+		}
+		@Override
+		double squaredNorm(int i){
+			double sum = 0;
+			for(svm_node node : x[i]){
+				sum += node.value * node.value;
+			}
+			return sum;
+		}
+		@Override
+		double dot(int i, double[] w){
+			double sum = 0;
+			for(svm_node node : x[i]){
+				sum += w[node.index] * node.value;
+			}
+			return sum;
+		}
+		@Override
+		void add(int i, double d, double[] w){
+			for(svm_node node : x[i]){
+				w[node.index] += d * node.value;
+			}
+		}
+	}
+
+	private static class CsrRows extends Rows{
+		private final svm_csr_matrix x;
+		CsrRows(svm_csr_matrix x){
+			this.x = x;
+		}
+		@Override
+		int dimension(){
+			int max = -1;
+			for(int index : x.col_index){
+				max = Math.max(max, index);
+			}
+			return max + 1;
+		}
+		@Override
+		double squaredNorm(int i){
+			double sum = 0;
+			for( int k = x.row_ptr[i] ; k < x.row_ptr[i+1] ; ++k ){
+				sum += x.values[k] * x.values[k];
+			}
+			return sum;
+		}
+		@Override
+		double dot(int i, double[] w){
+			double sum = 0;
+			for( int k = x.row_ptr[i] ; k < x.row_ptr[i+1] ; ++k ){
+				sum += w[x.col_index[k]] * x.values[k];
+			}
+			return sum;
+		}
+		@Override
+		void add(int i, double d, double[] w){
+			for( int k = x.row_ptr[i] ; k < x.row_ptr[i+1] ; ++k ){
+				w[x.col_index[k]] += d * x.values[k];
+			}
+		}
+	}
+
+	/**
+	 * Holds the indices of the last row read, as svm_bit_matrix copies them out of its storage
+	 */
+	private static class BitRows extends Rows{
+		private final svm_bit_matrix x;
+		private int row = -1;
+		private int[] indices = null;
+		BitRows(svm_bit_matrix x){
+			this.x = x;
+		}
+		private void load(int i){
+			if(i != row){
+				indices = x.indices(i);
+				row = i;
+			}
+		}
+		@Override
+		int dimension(){
+			return x.dim;
+		}
+		@Override
+		double squaredNorm(int i){
+			return x.count(i);
+		}
+		@Override
+		double dot(int i, double[] w){
+			load(i);
+			double sum = 0;
+			for(int index : indices){
+				sum += w[index];
+			}
+			return sum;
+		}
+		@Override
+		void add(int i, double d, double[] w){
+			load(i);
+			for(int index : indices){
+				w[index] += d;
+			}
+		}
+	}
+
+	/**
+	 * Copies each row out of the mapping once for the dot product and the update that follows it
+	 */
+	private static class MappedRows extends Rows{
+		private final svm_mapped_matrix x;
+		private final int[] indices;
+		private int row = -1;
+		private int n = 0;
+		MappedRows(svm_mapped_matrix x){
+			this.x = x;
+			this.indices = new int[x.max_count()];
+		}
+		private void load(int i){
+			if(i != row){
+				n = x.indices(i, indices);
+				row = i;
+			}
+		}
+		@Override
+		int dimension(){
+			return x.dim;
+		}
+		@Override
+		double squaredNorm(int i){
+			return x.count(i);
+		}
+		@Override
+		double dot(int i, double[] w){
+			load(i);
+			double sum = 0;
+			for( int k = 0 ; k < n ; ++k ){
+				sum += w[indices[k]];
+			}
+			return sum;
+		}
+		@Override
+		void add(int i, double d, double[] w){
+			load(i);
+			for( int k = 0 ; k < n ; ++k ){
+				w[indices[k]] += d;
+			}
+		}
+	}
+
+	private static void swap(int[] array, int i, int j){
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private static svm_model toModel(svm_parameter param, double[] w, double intercept){
+		List<svm_node> nodes = new ArrayList<svm_node>();
+		for( int i = 0 ; i < w.length ; ++i ){
+			if(w[i] != 0){
+				svm_node node = new svm_node();
+				node.index = i;
+				node.value = w[i];
+				nodes.add(node);
+			}
+		}
+		svm_model model = new svm_model();
+		model.param = param;
+		model.nr_class = 2;
+		model.l = 1;
+		model.SV = new svm_node[][]{ nodes.toArray(new svm_node[nodes.size()]) };
+		model.sv_coef = new double[][]{ {1} };
+		model.rho = new double[]{ -intercept };
+		return model;
+	}
+
+}
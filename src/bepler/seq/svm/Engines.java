@@ -0,0 +1,22 @@
+package bepler.seq.svm;
+
+public class Engines {
+	
+	public static final String SMO = "smo";
+	public static final String DCD_L1 = "dcd-l1";
+	public static final String DCD_L2 = "dcd-l2";
+	
+	public static TrainingEngine forName(String name){
+		switch(name){
+		case SMO: return new SMOEngine();
+		case DCD_L1: return new DualCDEngine(false);
+		case DCD_L2: return new DualCDEngine(true);
+		default: throw new RuntimeException("Unknown training engine: "+name);
+		}
+	}
+	
+	public static String[] names(){
+		return new String[]{SMO, DCD_L1, DCD_L2};
+	}
+	
+}
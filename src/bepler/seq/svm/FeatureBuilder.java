@@ -1,11 +1,12 @@
 package bepler.seq.svm;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 public class FeatureBuilder {
 	
 	public static final int DNA = 0;
+	//symbol codes are packed into bytes, which hold the codes 0 to 127
+	public static final int MAX_ALPHABET = Byte.MAX_VALUE + 1;
 	private static final char[] DNA_ALPH = new char[]{'A','C','G','T'};
 	
 	private static char[] lookup(int alphabetCode){
@@ -15,38 +16,12 @@ public class FeatureBuilder {
 		}
 	}
 	
-	private static Feature[] computeFeatures(int seqLen, int[] kmerSizes, char[] alphabet){
-		List<Feature> features = new ArrayList<Feature>();
+	private static int computeMaxPresent(int seqLen, int[] kmerSizes){
+		int n = 0;
 		for(int size : kmerSizes){
-			String[] kmers = computeKmers(size, alphabet);
-			for( int i = 0 ; i < seqLen - size + 1 ; ++i ){
-				for(String kmer : kmers){
-					features.add(new Feature(kmer, i));
-				}
-			}
+			n += Math.max(0, seqLen - size + 1);
 		}
-		return features.toArray(new Feature[features.size()]);
-	}
-	
-	private static String[] computeKmers(int size, char[] alphabet){
-		char[][] kmers = new char[pow(alphabet.length, size)][size];
-		for( int i = 0 ; i < size ; ++i ){
-			int chunkSize = pow(alphabet.length, i);
-			int chunks = kmers.length / chunkSize;
-			for( int chunk = 0 ; chunk < chunks ; ++chunk ){
-				char c = alphabet[chunk % alphabet.length];
-				int start = chunk * chunkSize;
-				int end = start + chunkSize;
-				for( int j = start ; j < end ; ++j ){
-					kmers[j][i] = c;
-				}
-			}
-		}
-		String[] s = new String[kmers.length];
-		for( int i = 0 ; i < s.length ; ++i ){
-			s[i] = new String(kmers[i]);
-		}
-		return s;
+		return n;
 	}
 	
 	private static int pow(int base, int exp){
@@ -61,23 +36,80 @@ public class FeatureBuilder {
 		return result;
 	}
 	
+	private static int[] range(int min, int max){
+		int len = max-min;
+		int[] sizes = new int[len];
+		for( int i = 0 ; i < len ; ++i ){
+			sizes[i] = min + i;
+		}
+		return sizes;
+	}
+	
+	private static int[] computeCharCodes(char[] alphabet){
+		int max = 0;
+		for(char c : alphabet){
+			max = Math.max(max, c);
+		}
+		int[] codes = new int[max + 1];
+		Arrays.fill(codes, -1);
+		for( int i = 0 ; i < alphabet.length ; ++i ){
+			if(codes[alphabet[i]] < 0){
+				codes[alphabet[i]] = i;
+			}
+		}
+		return codes;
+	}
+	
 	private final int[] kmerSizes;
 	private final char[] alphabet;
 	private final int seqLen;
-	private final Feature[] features;
+	private final int numFeatures;
+	private final int maxPresent;
+	
+	//symbol code of each character, -1 for characters outside the alphabet
+	private final int[] charCodes;
+	//per kmer size: index of the first feature, the number of kmers, and the place value of the last symbol
+	private final int[] offsets;
+	private final int[] strides;
+	private final int[] highs;
+	//when the alphabet size is a power of two, kmer ranks are rolled with shifts instead of division
+	private final int bits;
 	
 	/**
 	 * Creates a feature builder for generating features from sequences of the specified length using kmers of the
 	 * sizes included in the given array and characters from the given alphabet
 	 * @param seqLen
 	 * @param kmers
-	 * @param alphabet
+	 * @param alphabet - at most MAX_ALPHABET characters
 	 */
 	public FeatureBuilder(int seqLen, int[] kmers, char[] alphabet){
+		if(alphabet.length > MAX_ALPHABET){
+			throw new IllegalArgumentException("FeatureBuilder: alphabet of "+alphabet.length+" characters exceeds "
+					+MAX_ALPHABET+", the most that symbol codes can pack");
+		}
 		this.seqLen = seqLen;
 		this.kmerSizes = kmers.clone();
 		this.alphabet = alphabet.clone();
-		this.features = computeFeatures(this.seqLen, this.kmerSizes, this.alphabet);
+		this.maxPresent = computeMaxPresent(this.seqLen, this.kmerSizes);
+		this.charCodes = computeCharCodes(this.alphabet);
+		int base = this.alphabet.length;
+		this.bits = Integer.bitCount(base) == 1 ? Integer.numberOfTrailingZeros(base) : -1;
+		this.offsets = new int[kmerSizes.length];
+		this.strides = new int[kmerSizes.length];
+		this.highs = new int[kmerSizes.length];
+		long offset = 0;
+		for( int i = 0 ; i < kmerSizes.length ; ++i ){
+			int size = kmerSizes[i];
+			offsets[i] = (int) offset;
+			strides[i] = pow(base, size);
+			highs[i] = pow(base, size - 1);
+			offset += (long) strides[i] * Math.max(0, seqLen - size + 1);
+			if(Math.pow(base, size) > Integer.MAX_VALUE || offset > Integer.MAX_VALUE){
+				throw new RuntimeException("FeatureBuilder: the feature space for kmer sizes "+Arrays.toString(kmerSizes)
+						+" and sequence length "+seqLen+" exceeds "+Integer.MAX_VALUE+" features");
+			}
+		}
+		this.numFeatures = (int) offset;
 	}
 	
 	/**
@@ -100,14 +132,7 @@ public class FeatureBuilder {
 	 * @param alphabet
 	 */
 	public FeatureBuilder(int seqLen, int min, int max, char[] alphabet){
-		this.seqLen = seqLen;
-		int len = max-min;
-		kmerSizes = new int[len];
-		for( int i = 0 ; i < len ; ++i ){
-			kmerSizes[i] = min + i;
-		}
-		this.alphabet = alphabet;
-		this.features = computeFeatures(this.seqLen, kmerSizes, this.alphabet);
+		this(seqLen, range(min, max), alphabet);
 	}
 	
 	/**
@@ -122,46 +147,244 @@ public class FeatureBuilder {
 		this(seqLen, min, max, lookup(alphabetCode));
 	}
 	
+	/**
+	 * Returns all features of this builder in index order. Features are created on demand, so prefer
+	 * getFeature(int) when iterating over large feature spaces.
+	 * @return
+	 */
 	public Feature[] getFeatures(){
-		return features.clone();
+		Feature[] features = new Feature[numFeatures];
+		for( int i = 0 ; i < features.length ; ++i ){
+			features[i] = getFeature(i);
+		}
+		return features;
 	}
 	
-	public int[] featurize(String s){
-		if(s == null){
-			throw new NullPointerException();
+	/**
+	 * Returns the feature with the given index. The kmer size, position, and kmer are computed from the index
+	 * arithmetically rather than looked up.
+	 * @param index
+	 * @return
+	 */
+	public Feature getFeature(int index){
+		if(index < 0 || index >= numFeatures){
+			throw new IndexOutOfBoundsException("Feature index "+index+" out of bounds for "+numFeatures+" features");
 		}
-		if(s.length() != seqLen){
-			throw new RuntimeException("FeatureBuilder: "+this+" requires strings of length "+seqLen+" but was "+s.length());
+		int i = kmerSizes.length - 1;
+		while(offsets[i] > index || strides[i] * Math.max(0, seqLen - kmerSizes[i] + 1) == 0){
+			--i;
 		}
-		int[] binary = new int[features.length];
-		for( int i = 0 ; i < features.length ; ++i ){
-			if(features[i].containedBy(s)){
-				binary[i] = 1;
-			}else{
-				binary[1] = 0;
+		int rel = index - offsets[i];
+		int pos = rel / strides[i];
+		int rank = rel % strides[i];
+		char[] kmer = new char[kmerSizes[i]];
+		for( int j = 0 ; j < kmer.length ; ++j ){
+			kmer[j] = alphabet[rank % alphabet.length];
+			rank /= alphabet.length;
+		}
+		return new Feature(new String(kmer), pos);
+	}
+	
+	/**
+	 * Returns the index of the given feature or -1 if it is not part of this builder's feature space
+	 * @param f
+	 * @return
+	 */
+	public int indexOf(Feature f){
+		String kmer = f.getKmer();
+		return indexOf(kmer, 0, kmer.length(), f.getIndex());
+	}
+	
+	/**
+	 * Returns the index of the feature of the len characters of s starting at start at the given position, or -1 if
+	 * it is not part of this builder's feature space
+	 * @param s
+	 * @param start
+	 * @param len
+	 * @param pos
+	 * @return
+	 */
+	public int indexOf(CharSequence s, int start, int len, int pos){
+		for( int i = 0 ; i < kmerSizes.length ; ++i ){
+			if(kmerSizes[i] == len && pos >= 0 && pos < seqLen - kmerSizes[i] + 1){
+				int rank = 0;
+				for( int j = len - 1 ; j >= 0 ; --j ){
+					int c = code(s.charAt(start + j));
+					if(c < 0){
+						return -1;
+					}
+					rank = rank * alphabet.length + c;
+				}
+				return offsets[i] + pos * strides[i] + rank;
 			}
 		}
+		return -1;
+	}
+	
+	public int[] featurize(String s){
+		int[] binary = new int[numFeatures];
+		for(int index : featurizeAsIndices(s)){
+			binary[index] = 1;
+		}
 		return binary;
 	}
 	
 	public double[] featurizeAsDouble(String s){
+		double[] binary = new double[numFeatures];
+		for(int index : featurizeAsIndices(s)){
+			binary[index] = 1;
+		}
+		return binary;
+	}
+	
+	/**
+	 * Returns the indices of the features present in the given string in ascending order. Only the positional kmers
+	 * that actually occur are reported, so the result holds at most one index per (kmer size, position) pair rather
+	 * than one entry per feature.
+	 * @param s
+	 * @return
+	 */
+	public int[] featurizeAsIndices(String s){
+		byte[] codes = encode(s, new byte[seqLen]);
+		int[] present = new int[maxPresent];
+		int n = featurize(codes, 0, present);
+		return n == present.length ? present : Arrays.copyOf(present, n);
+	}
+	
+	/**
+	 * Writes the symbol code of each character of the given string into the codes buffer. Characters outside of the
+	 * alphabet are encoded as -1 and contribute no features.
+	 * @param s - a string of this builder's sequence length
+	 * @param codes - buffer of at least the sequence length
+	 * @return the codes buffer
+	 */
+	public byte[] encode(CharSequence s, byte[] codes){
 		if(s == null){
 			throw new NullPointerException();
 		}
 		if(s.length() != seqLen){
 			throw new RuntimeException("FeatureBuilder: "+this+" requires strings of length "+seqLen+" but was "+s.length());
 		}
-		double[] binary = new double[features.length];
-		for( int i = 0 ; i < features.length ; ++i ){
-			if(features[i].containedBy(s)){
-				binary[i] = 1;
-			}else{
-				binary[1] = 0;
+		return encode(s, 0, seqLen, codes, 0);
+	}
+	
+	/**
+	 * Writes the symbol codes of the len characters of s starting at start into codes starting at offset.
+	 * @param s
+	 * @param start
+	 * @param len
+	 * @param codes
+	 * @param offset
+	 * @return the codes buffer
+	 */
+	public byte[] encode(CharSequence s, int start, int len, byte[] codes, int offset){
+		for( int i = 0 ; i < len ; ++i ){
+			codes[offset + i] = (byte) code(s.charAt(start + i));
+		}
+		return codes;
+	}
+	
+	/**
+	 * Returns the symbol code of the given character or -1 if it is not in the alphabet
+	 * @param c
+	 * @return
+	 */
+	public int code(char c){
+		return c < charCodes.length ? charCodes[c] : -1;
+	}
+	
+	/**
+	 * Computes the indices of the features present in the encoded sequence starting at offset in the codes array and
+	 * writes them in ascending order into the indices buffer. Feature indices are computed arithmetically by rolling
+	 * the kmer rank along the sequence, so this runs in O(seqLen * number of kmer sizes) and allocates nothing.
+	 * @param codes - symbol codes as produced by encode
+	 * @param offset - start of the sequence in the codes array
+	 * @param indices - buffer of at least maxPresent() entries
+	 * @return the number of indices written
+	 */
+	public int featurize(byte[] codes, int offset, int[] indices){
+		int n = 0;
+		int base = alphabet.length;
+		for( int i = 0 ; i < kmerSizes.length ; ++i ){
+			int size = kmerSizes[i];
+			int first = offsets[i] - (size - 1) * strides[i];
+			int stride = strides[i];
+			int high = highs[i];
+			int shift = bits * (size - 1);
+			int rank = 0;
+			int run = 0;
+			for( int j = 0 ; j < seqLen ; ++j ){
+				int c = codes[offset + j];
+				if(c < 0){
+					run = 0;
+					continue;
+				}
+				rank = bits >= 0 ? (rank >>> bits) | (c << shift) : rank / base + c * high;
+				if(++run >= size){
+					indices[n++] = first + j * stride + rank;
+				}
 			}
 		}
-		return binary;
+		return n;
+	}
+	
+	/**
+	 * Returns the sum of the weights of the features present in the encoded sequence starting at offset in the codes
+	 * array. This walks the sequence the same way as featurize but accumulates weights[index] directly, so scoring a
+	 * sequence against a linear model allocates nothing.
+	 * @param codes - symbol codes as produced by encode
+	 * @param offset - start of the sequence in the codes array
+	 * @param weights - weight of each feature, indexed by feature index
+	 * @return
+	 */
+	public double dot(byte[] codes, int offset, double[] weights){
+		double sum = 0;
+		int base = alphabet.length;
+		for( int i = 0 ; i < kmerSizes.length ; ++i ){
+			int size = kmerSizes[i];
+			int first = offsets[i] - (size - 1) * strides[i];
+			int stride = strides[i];
+			int high = highs[i];
+			int shift = bits * (size - 1);
+			int rank = 0;
+			int run = 0;
+			for( int j = 0 ; j < seqLen ; ++j ){
+				int c = codes[offset + j];
+				if(c < 0){
+					run = 0;
+					continue;
+				}
+				rank = bits >= 0 ? (rank >>> bits) | (c << shift) : rank / base + c * high;
+				if(++run >= size){
+					sum += weights[first + j * stride + rank];
+				}
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Returns the maximum number of features that can be present in a single sequence
+	 * @return
+	 */
+	public int maxPresent(){
+		return maxPresent;
 	}
 	
+	public int numFeatures(){
+		return numFeatures;
+	}
+	
+	public int getSeqLen(){
+		return seqLen;
+	}
 	
+	public int[] getKmerSizes(){
+		return kmerSizes.clone();
+	}
+	
+	public char[] getAlphabet(){
+		return alphabet.clone();
+	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,353 @@
+package bepler.seq.svm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleBounds;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.BOBYQAOptimizer;
+import org.apache.commons.math3.special.Erf;
+
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Searches log10(C) x log10(epsilon) by Bayesian optimization instead of evaluating a fixed grid. The C and epsilon
+ * values only give the bounds of the search box. A Gaussian process with a squared exponential kernel is fit to the
+ * log of the cross validated MSE of the points evaluated so far, and the next points are the maxima of the expected
+ * improvement. Each round evaluates enough points to keep every thread busy, choosing the points of a round one
+ * after the other with the earlier ones added at their predicted value. The search stops once the budget of solver
+ * calls, one per point and fold, is spent.
+ */
+public class GridSearchBayes extends AbstractGridSearch{
+
+	public static final int DEFAULT_BUDGET = 100;
+	private static final int MIN_INITIAL_POINTS = 4;
+	private static final int ACQUISITION_STARTS = 10;
+	private static final long SEED = 1;
+
+	private int budget = DEFAULT_BUDGET;
+
+	public GridSearchBayes(double[] ps, double[] cs, double term,
+			List<CrossValidationSet> crossValSets, FeatureBuilder features,
+			TrainingEngine engine, int threads){
+		super(ps, cs, term, crossValSets, features, engine, threads);
+	}
+
+	/**
+	 * Sets the maximum number of models trained by the search. Every evaluated parameter pair trains one model per
+	 * cross validation fold.
+	 * @param budget
+	 */
+	public void setBudget(int budget){
+		this.budget = budget;
+	}
+
+	@Override
+	public svm_parameter search(File saveIntermediariesTo) {
+		if(min(cs) <= 0 || min(ps) <= 0){
+			throw new IllegalArgumentException("Bayesian search needs positive C and epsilon bounds");
+		}
+		int k = crossValSets.size();
+		int maxPoints = Math.max(1, budget / k);
+		int batch = Math.max(1, (scheduler.getThreads() + k - 1) / k);
+		Random random = new Random(SEED);
+		double[] lo = new double[]{ Math.log10(min(cs)), Math.log10(min(ps)) };
+		double[] hi = new double[]{ Math.log10(max(cs)), Math.log10(max(ps)) };
+
+		List<double[]> xs = new ArrayList<double[]>();
+		List<Double> ys = new ArrayList<Double>();
+		Map<svm_parameter, Result> scores = new HashMap<svm_parameter, Result>();
+		List<double[]> next = latinHypercube(Math.min(maxPoints, Math.max(MIN_INITIAL_POINTS, batch)), random);
+		while(!next.isEmpty()){
+			List<svm_parameter> params = new ArrayList<svm_parameter>();
+			for(double[] u : next){
+				params.add(initParam(Math.pow(10, lo[1] + u[1] * (hi[1] - lo[1])),
+						Math.pow(10, lo[0] + u[0] * (hi[0] - lo[0])), term));
+			}
+			Map<svm_parameter, Result> batchScores = computeScores(params, saveIntermediariesTo);
+			for( int i = 0 ; i < next.size() ; ++i ){
+				Result r = batchScores.get(params.get(i));
+				scores.put(params.get(i), r);
+				if(!Double.isNaN(r.mse) && r.mse > 0){
+					xs.add(next.get(i));
+					ys.add(Math.log(r.mse));
+				}
+			}
+			int remaining = Math.min(batch, maxPoints - scores.size());
+			next = remaining > 0 ? propose(xs, ys, remaining, random) : new ArrayList<double[]>();
+		}
+		return best(scores);
+	}
+
+	private Map<svm_parameter, Result> computeScores(List<svm_parameter> params, final File saveIntermediariesTo){
+		final Map<svm_parameter, List<Result>> foldScores = new HashMap<svm_parameter, List<Result>>();
+		List<TrainingScheduler.Job> jobs = new ArrayList<TrainingScheduler.Job>();
+		int k = 0;
+		for(final CrossValidationSet set : crossValSets){
+			final int fold = k++;
+			final svm_problem prob = toProblem(set);
+			for(final svm_parameter param : params){
+				if(!foldScores.containsKey(param)){
+					foldScores.put(param, new ArrayList<Result>());
+				}
+				final List<Result> scores = foldScores.get(param);
+				jobs.add(new TrainingScheduler.Job(expectedCost(prob, param), expectedMemory(prob, param)){
+					@Override
+					public void run() throws Exception {
+						evaluate(prob, param, null, set, fold, scores, saveIntermediariesTo);
+					}
+				});
+			}
+		}
+		runJobs(jobs);
+		Map<svm_parameter, Result> scores = new HashMap<svm_parameter, Result>();
+		for(svm_parameter param : params){
+			scores.put(param, mean(foldScores.get(param), param, crossValSets.size()));
+		}
+		return scores;
+	}
+
+	/**
+	 * Returns n points of the unit square spread so that every row and column of an n x n grid holds one point
+	 */
+	private static List<double[]> latinHypercube(int n, Random random){
+		int[] perm = new int[n];
+		for( int i = 0 ; i < n ; ++i ){
+			perm[i] = i;
+		}
+		for( int i = n - 1 ; i > 0 ; --i ){
+			int j = random.nextInt(i + 1);
+			int temp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = temp;
+		}
+		List<double[]> points = new ArrayList<double[]>();
+		for( int i = 0 ; i < n ; ++i ){
+			points.add(new double[]{ (i + random.nextDouble()) / n, (perm[i] + random.nextDouble()) / n });
+		}
+		return points;
+	}
+
+	/**
+	 * Chooses n points to evaluate next, each the maximum of the expected improvement of the Gaussian process fit to
+	 * the observations and the points chosen before it at their predicted values.
+	 */
+	private static List<double[]> propose(List<double[]> xs, List<Double> ys, int n, Random random){
+		List<double[]> points = new ArrayList<double[]>();
+		if(xs.size() < 2){
+			//nothing to model yet
+			for( int i = 0 ; i < n ; ++i ){
+				points.add(new double[]{ random.nextDouble(), random.nextDouble() });
+			}
+			return points;
+		}
+		List<double[]> x = new ArrayList<double[]>(xs);
+		List<Double> y = new ArrayList<Double>(ys);
+		GaussianProcess gp = null;
+		for( int i = 0 ; i < n ; ++i ){
+			try{
+				gp = gp == null ? GaussianProcess.fit(x, y) : gp.refit(x, y);
+			}catch(NonPositiveDefiniteMatrixException e){
+				//duplicate points can make the covariance singular, explore instead
+				points.add(new double[]{ random.nextDouble(), random.nextDouble() });
+				continue;
+			}
+			double[] u = maximizeExpectedImprovement(gp, random);
+			points.add(u);
+			x.add(u);
+			y.add(gp.mean(u));
+		}
+		return points;
+	}
+
+	private static double[] maximizeExpectedImprovement(final GaussianProcess gp, Random random){
+		MultivariateFunction ei = new MultivariateFunction(){
+			@Override
+			public double value(double[] u) {
+				return gp.expectedImprovement(u);
+			}
+		};
+		double[] best = new double[]{ random.nextDouble(), random.nextDouble() };
+		double bestValue = ei.value(best);
+		for( int i = 0 ; i < ACQUISITION_STARTS ; ++i ){
+			double[] start = new double[]{ random.nextDouble(), random.nextDouble() };
+			try{
+				PointValuePair opt = new BOBYQAOptimizer(5, 0.1, 1e-4).optimize(new MaxEval(200),
+						new ObjectiveFunction(ei), GoalType.MAXIMIZE, new InitialGuess(start),
+						new SimpleBounds(new double[]{ 0, 0 }, new double[]{ 1, 1 }));
+				if(opt.getValue() > bestValue){
+					bestValue = opt.getValue();
+					best = opt.getPoint();
+				}
+			}catch(MathIllegalStateException e){
+				//keep the best point found so far
+			}
+		}
+		return best;
+	}
+
+	private static double min(double[] vals){
+		double min = Double.POSITIVE_INFINITY;
+		for(double d : vals){
+			min = Math.min(min, d);
+		}
+		return min;
+	}
+
+	private static double max(double[] vals){
+		double max = Double.NEGATIVE_INFINITY;
+		for(double d : vals){
+			max = Math.max(max, d);
+		}
+		return max;
+	}
+
+	/**
+	 * Gaussian process regression on the unit square with a squared exponential kernel of unit variance plus noise.
+	 * The observations are standardized, and the length scale and noise maximize the marginal likelihood.
+	 */
+	private static class GaussianProcess{
+
+		private static final double MIN_LOG_LENGTH = Math.log(0.05);
+		private static final double MAX_LOG_LENGTH = Math.log(2);
+		private static final double MIN_LOG_NOISE = Math.log(1e-6);
+		private static final double MAX_LOG_NOISE = Math.log(0.5);
+
+		private final double length;
+		private final double noise;
+		private final double[][] x;
+		private final double shift;
+		private final double scale;
+		private final DecompositionSolver solver;
+		private final RealVector alpha;
+		private final double logLikelihood;
+		private final double best;
+
+		private GaussianProcess(List<double[]> xs, List<Double> ys, double length, double noise){
+			this.length = length;
+			this.noise = noise;
+			int n = xs.size();
+			x = xs.toArray(new double[n][]);
+			double mean = 0;
+			for(double v : ys){
+				mean += v;
+			}
+			mean /= n;
+			double var = 0;
+			for(double v : ys){
+				var += (v - mean) * (v - mean);
+			}
+			shift = mean;
+			scale = var > 0 ? Math.sqrt(var / n) : 1;
+			RealVector y = new ArrayRealVector(n);
+			double min = Double.POSITIVE_INFINITY;
+			for( int i = 0 ; i < n ; ++i ){
+				y.setEntry(i, (ys.get(i) - shift) / scale);
+				min = Math.min(min, y.getEntry(i));
+			}
+			best = min;
+			RealMatrix cov = new Array2DRowRealMatrix(n, n);
+			for( int i = 0 ; i < n ; ++i ){
+				for( int j = 0 ; j <= i ; ++j ){
+					double c = kernel(x[i], x[j]) + (i == j ? noise : 0);
+					cov.setEntry(i, j, c);
+					cov.setEntry(j, i, c);
+				}
+			}
+			CholeskyDecomposition chol = new CholeskyDecomposition(cov);
+			solver = chol.getSolver();
+			alpha = solver.solve(y);
+			double logDet = 0;
+			RealMatrix l = chol.getL();
+			for( int i = 0 ; i < n ; ++i ){
+				logDet += 2 * Math.log(l.getEntry(i, i));
+			}
+			logLikelihood = -0.5 * y.dotProduct(alpha) - 0.5 * logDet - 0.5 * n * Math.log(2 * Math.PI);
+		}
+
+		public static GaussianProcess fit(final List<double[]> xs, final List<Double> ys){
+			MultivariateFunction likelihood = new MultivariateFunction(){
+				@Override
+				public double value(double[] h) {
+					try{
+						return new GaussianProcess(xs, ys, Math.exp(h[0]), Math.exp(h[1])).logLikelihood;
+					}catch(NonPositiveDefiniteMatrixException e){
+						return -Double.MAX_VALUE;
+					}
+				}
+			};
+			double[] h = new double[]{ Math.log(0.3), Math.log(1e-2) };
+			try{
+				h = new BOBYQAOptimizer(5, 0.5, 1e-3).optimize(new MaxEval(200),
+						new ObjectiveFunction(likelihood), GoalType.MAXIMIZE, new InitialGuess(h),
+						new SimpleBounds(new double[]{ MIN_LOG_LENGTH, MIN_LOG_NOISE },
+								new double[]{ MAX_LOG_LENGTH, MAX_LOG_NOISE })).getPoint();
+			}catch(MathIllegalStateException e){
+				//keep the default hyperparameters
+			}
+			return new GaussianProcess(xs, ys, Math.exp(h[0]), Math.exp(h[1]));
+		}
+
+		/**
+		 * Fits the given observations with this process' hyperparameters
+		 */
+		public GaussianProcess refit(List<double[]> xs, List<Double> ys){
+			return new GaussianProcess(xs, ys, length, noise);
+		}
+
+		private double kernel(double[] a, double[] b){
+			double d0 = a[0] - b[0];
+			double d1 = a[1] - b[1];
+			return Math.exp(-(d0 * d0 + d1 * d1) / (2 * length * length));
+		}
+
+		private RealVector covariances(double[] u){
+			RealVector k = new ArrayRealVector(x.length);
+			for( int i = 0 ; i < x.length ; ++i ){
+				k.setEntry(i, kernel(u, x[i]));
+			}
+			return k;
+		}
+
+		/**
+		 * Returns the predicted observation at u in the original units
+		 */
+		public double mean(double[] u){
+			return shift + scale * covariances(u).dotProduct(alpha);
+		}
+
+		/**
+		 * Returns the expected amount by which the observation at u falls below the best observation, in
+		 * standardized units
+		 */
+		public double expectedImprovement(double[] u){
+			RealVector k = covariances(u);
+			double mu = k.dotProduct(alpha);
+			double sigma = Math.sqrt(Math.max(1e-12, 1 - k.dotProduct(solver.solve(k))));
+			double z = (best - mu) / sigma;
+			double cdf = 0.5 * (1 + Erf.erf(z / Math.sqrt(2)));
+			double pdf = Math.exp(-0.5 * z * z) / Math.sqrt(2 * Math.PI);
+			return (best - mu) * cdf + sigma * pdf;
+		}
+
+	}
+
+}
@@ -0,0 +1,126 @@
+package bepler.seq.svm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Searches the epsilon x C grid by successive halving. Every configuration is first cross validated on a small random
+ * subsample of each training fold, only the best 1/eta of the configurations are kept, and the survivors are cross
+ * validated again on eta times more of each fold until the last round uses the full folds. Test sets are always the
+ * full fold test sets. Most configurations are only ever trained on a small fraction of the data, so the search
+ * costs a few full grid points instead of the whole grid.
+ */
+public class GridSearchHalving extends AbstractGridSearch{
+
+	public static final int DEFAULT_ETA = 3;
+	public static final int DEFAULT_MIN_TRAIN = 100;
+
+	private int eta = DEFAULT_ETA;
+	private int minTrain = DEFAULT_MIN_TRAIN;
+
+	public GridSearchHalving(double[] ps, double[] cs, double term,
+			List<CrossValidationSet> crossValSets, FeatureBuilder features,
+			TrainingEngine engine, int threads){
+		super(ps, cs, term, crossValSets, features, engine, threads);
+	}
+
+	/**
+	 * Sets the factor by which the number of configurations shrinks and the training subsamples grow each round.
+	 * @param eta
+	 */
+	public void setEta(int eta){
+		if(eta < 2){
+			throw new IllegalArgumentException("eta must be at least 2 but was "+eta);
+		}
+		this.eta = eta;
+	}
+
+	/**
+	 * Sets the minimum number of training instances per fold in the first round.
+	 * @param minTrain
+	 */
+	public void setMinTrain(int minTrain){
+		this.minTrain = minTrain;
+	}
+
+	@Override
+	public svm_parameter search(File saveIntermediariesTo) {
+		List<svm_parameter> configs = new ArrayList<svm_parameter>();
+		for(double p : ps){
+			for(double c : cs){
+				configs.add(initParam(p, c, term));
+			}
+		}
+		int rounds = 1;
+		for( int n = configs.size() ; n > eta ; n = (n + eta - 1) / eta ){
+			++rounds;
+		}
+		Map<svm_parameter, Result> scores = null;
+		for( int round = 0 ; round < rounds ; ++round ){
+			double fraction = Math.pow(eta, round - rounds + 1);
+			boolean last = round == rounds - 1;
+			scores = computeScores(configs, fraction, last ? saveIntermediariesTo : null);
+			if(!last){
+				configs = keepBest(configs, scores, (configs.size() + eta - 1) / eta);
+			}
+		}
+		return best(scores);
+	}
+
+	private static List<svm_parameter> keepBest(List<svm_parameter> configs, final Map<svm_parameter, Result> scores,
+			int n){
+		List<svm_parameter> sorted = new ArrayList<svm_parameter>(configs);
+		Collections.sort(sorted, new Comparator<svm_parameter>(){
+			@Override
+			public int compare(svm_parameter a, svm_parameter b) {
+				return scores.get(a).compareTo(scores.get(b));
+			}
+		});
+		return new ArrayList<svm_parameter>(sorted.subList(0, n));
+	}
+
+	private Map<svm_parameter, Result> computeScores(List<svm_parameter> configs, double fraction,
+			final File saveIntermediariesTo){
+		final Map<svm_parameter, List<Result>> foldScores = new HashMap<svm_parameter, List<Result>>();
+		for(svm_parameter param : configs){
+			foldScores.put(param, new ArrayList<Result>());
+		}
+		List<TrainingScheduler.Job> jobs = new ArrayList<TrainingScheduler.Job>();
+		int k = 0;
+		for(final CrossValidationSet set : crossValSets){
+			final int fold = k++;
+			int l = set.trainValues.length;
+			int n = Math.min(l, Math.max(minTrain, (int) Math.round(fraction * l)));
+			final svm_problem prob = toProblem(set, n);
+			for(final svm_parameter param : configs){
+				final List<Result> scores = foldScores.get(param);
+				jobs.add(new TrainingScheduler.Job(expectedCost(prob, param), expectedMemory(prob, param)){
+					@Override
+					public void run() throws Exception {
+						evaluate(prob, param, null, set, fold, scores, saveIntermediariesTo);
+					}
+				});
+			}
+		}
+		runJobs(jobs);
+		Map<svm_parameter, Result> scores = new HashMap<svm_parameter, Result>();
+		for(svm_parameter param : configs){
+			Result r = mean(foldScores.get(param), param, crossValSets.size());
+			if(foldScores.get(param).isEmpty()){
+				//every fold failed, rank it last
+				r.mse = Double.POSITIVE_INFINITY;
+			}
+			scores.put(param, r);
+		}
+		return scores;
+	}
+
+}
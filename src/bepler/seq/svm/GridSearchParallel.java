@@ -1,211 +1,305 @@
 package bepler.seq.svm;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
 
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.inference.TTest;
 
-import bepler.util.StatsUtil;
-import arnaudsj.java.libsvm.svm;
-import arnaudsj.java.libsvm.svm_model;
-import arnaudsj.java.libsvm.svm_node;
 import arnaudsj.java.libsvm.svm_parameter;
 import arnaudsj.java.libsvm.svm_problem;
 
-public class GridSearchParallel implements GridSearch{
+public class GridSearchParallel extends AbstractGridSearch{
 	
-	private final double[] ps;
-	private final double[] cs;
-	private final double term;
-	private final List<CrossValidationSet> crossValSets;
-	private final FeatureBuilder features;
-	private final ExecutorService exec;
+	public static final double RACING_ALPHA = 0.05;
+	
+	private boolean warmStart = false;
+	private boolean racing = false;
 	
 	public GridSearchParallel(double[] ps, double[] cs, double term,
 			List<CrossValidationSet> crossValSets, FeatureBuilder features,
 			int threads){
-		this.ps = ps.clone();
-		this.cs = cs.clone();
-		this.term = term;
-		this.crossValSets = new ArrayList<CrossValidationSet>(crossValSets);
-		this.features = features;
-		int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
-		this.exec = Executors.newFixedThreadPool(n);
+		this(ps, cs, term, crossValSets, features, new SMOEngine(), threads);
 	}
 	
-	private Result crossValidate(List<CrossValidationSet> sets, final svm_parameter param, final File dir){
-		final List<Result> scores = new ArrayList<Result>();
-		Collection<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-		int i = 0;
-		for(final CrossValidationSet set : sets){
-			final int k = i++;
-			tasks.add(new Callable<Object>(){
-				@Override public Object call() throws Exception {
-					svm_problem prob = new svm_problem();
-					prob.l = set.trainValues.length;
-					prob.y = set.trainValues;
-					prob.x = set.trainSet;
-					svm_model model = svm.svm_train(prob, param);
-					Result r = testModel(model, set.testValues, set.testSet);
-					synchronized(scores){
-						scores.add(r);
-					}
-					writeModel(dir, r, model, k);
-					return null;
-				}
-			});
+	public GridSearchParallel(double[] ps, double[] cs, double term,
+			List<CrossValidationSet> crossValSets, FeatureBuilder features,
+			TrainingEngine engine, int threads){
+		super(ps, cs, term, crossValSets, features, engine, threads);
+	}
+	
+	/**
+	 * If set, each fold walks the C values of an epsilon from smallest to largest and starts every model from the
+	 * solution of the previous C instead of from zero. Neighboring grid points have nearly identical solutions, so
+	 * this skips most of the solver iterations of all but the first C.
+	 * @param warmStart
+	 */
+	public void setWarmStart(boolean warmStart){
+		this.warmStart = warmStart;
+	}
+	
+	/**
+	 * If set, the folds of each parameter pair are trained in order and the pair is dropped, including its fold that
+	 * is being trained, as soon as a one sided paired t-test on the fold errors says at level RACING_ALPHA that it is
+	 * worse than the best fully cross validated pair so far. Warm starting is not used when racing.
+	 * @param racing
+	 */
+	public void setRacing(boolean racing){
+		this.racing = racing;
+	}
+	
+	private Map<svm_parameter, Result> computeScores(final File saveIntermediariesTo){
+		if(racing){
+			return computeRacingScores(saveIntermediariesTo);
 		}
-		
-		try {
-			exec.invokeAll(tasks);
-		} catch (InterruptedException e) {
-			//bad things
-			throw new Error(e);
+		final double[] sortedCs = cs.clone();
+		Arrays.sort(sortedCs);
+		final svm_parameter[][] params = new svm_parameter[ps.length][sortedCs.length];
+		final List<List<Result>> foldScores = new ArrayList<List<Result>>();
+		for( int i = 0 ; i < ps.length ; ++i ){
+			for( int j = 0 ; j < sortedCs.length ; ++j ){
+				params[i][j] = initParam(ps[i], sortedCs[j], term);
+				foldScores.add(new ArrayList<Result>());
+			}
 		}
-		
-		if(scores.size() != sets.size()){
-			//an error occurred in at least one of the model training threads
-			System.err.println("Warning: an error occurred while cross validating parameters: Epsilon="+param.p+" C="+param.C
-					+". Only "+scores.size()+ " out of "+sets.size()+" models completed.");
+		List<TrainingScheduler.Job> jobs = new ArrayList<TrainingScheduler.Job>();
+		for( int i = 0 ; i < ps.length ; ++i ){
+			final int e = i;
+			int k = 0;
+			for(final CrossValidationSet set : crossValSets){
+				final int fold = k++;
+				final svm_problem prob = toProblem(set);
+				if(warmStart){
+					//one job per epsilon and fold, each job walks C in ascending order carrying the alphas forward
+					double cost = 0;
+					for( int c = 0 ; c < sortedCs.length ; ++c ){
+						cost += expectedCost(prob, params[e][c]);
+					}
+					jobs.add(new TrainingScheduler.Job(cost, expectedMemory(prob, params[e][0])){
+						@Override
+						public void run() throws Exception {
+							double[] alpha = new double[prob.l];
+							Exception failure = null;
+							for( int c = 0 ; c < sortedCs.length ; ++c ){
+								try{
+									evaluate(prob, params[e][c], alpha, set, fold, foldScores.get(e * sortedCs.length + c),
+											saveIntermediariesTo);
+								}catch(CancellationException ex){
+									throw ex;
+								}catch(Exception ex){
+									//the alphas may be partially updated, so the next C starts over from zero
+									if(verbose){
+										synchronized(System.err){
+											System.err.println("Warning: training Epsilon="+params[e][c].p+" C="
+													+params[e][c].C+" on fold "+fold+" failed, the next C starts cold: "+ex);
+										}
+									}
+									if(failure == null){
+										failure = ex;
+									}
+									Arrays.fill(alpha, 0);
+								}
+							}
+							if(failure != null){
+								//the remaining Cs were scored, but the job counts as failed
+								throw failure;
+							}
+						}
+					});
+				}else{
+					for( int j = 0 ; j < sortedCs.length ; ++j ){
+						final svm_parameter param = params[e][j];
+						final List<Result> scores = foldScores.get(e * sortedCs.length + j);
+						jobs.add(new TrainingScheduler.Job(expectedCost(prob, param), expectedMemory(prob, param)){
+							@Override
+							public void run() throws Exception {
+								evaluate(prob, param, null, set, fold, scores, saveIntermediariesTo);
+							}
+						});
+					}
+				}
+			}
 		}
-		
-		
-		//sum the scores
-		Result mean = new Result();
-		mean.mse = 0;
-		mean.r2 = 0;
-		for(Result score : scores){
-			mean.mse += score.mse;
-			mean.r2 += score.r2;
+		runJobs(jobs);
+		Map<svm_parameter, Result> scores = new HashMap<svm_parameter, Result>();
+		for( int i = 0 ; i < ps.length ; ++i ){
+			for( int j = 0 ; j < sortedCs.length ; ++j ){
+				scores.put(params[i][j], mean(foldScores.get(i * sortedCs.length + j), params[i][j], crossValSets.size()));
+			}
 		}
-		
-		mean.mse = mean.mse / (double) scores.size();
-		mean.r2 = mean.r2 / (double) scores.size();
-		
-		return mean;
+		return scores;
 	}
-
-	private void writeModel(File dir, Result r,
-			svm_model model, int k) {
-		if(dir != null){
-			if(!dir.exists()){
-				dir.mkdirs();
-			}
-			//write the cross validation model to the directory
-			String name = "model_eps"+model.param.p+"_C"+model.param.C+
-					"_k"+k+"_mse-"+r.mse+"_r2-"+r.r2+".txt";
-			File target = new File(dir, name);
-			PrintStream out = null;
-			try {
-				out = new PrintStream( new BufferedOutputStream (new FileOutputStream(target)));
-				new SeqSVMModel(features, model).write(out);
-			} catch (FileNotFoundException e) {
-				synchronized(System.err){
-					System.err.println("Error: unable to write file "+target);
-				}
-			} finally {
-				if(out != null){
-					out.close();
+	
+	private Map<svm_parameter, Result> computeRacingScores(final File saveIntermediariesTo){
+		final int k = crossValSets.size();
+		final Race race = new Race(k);
+		final List<svm_problem> probs = new ArrayList<svm_problem>();
+		for(CrossValidationSet set : crossValSets){
+			probs.add(toProblem(set));
+		}
+		final Map<svm_parameter, List<Result>> foldScores = new HashMap<svm_parameter, List<Result>>();
+		final Map<svm_parameter, Contender> contenders = new HashMap<svm_parameter, Contender>();
+		List<TrainingScheduler.Job> jobs = new ArrayList<TrainingScheduler.Job>();
+		for(double p : ps){
+			for(double c : cs){
+				final svm_parameter param = initParam(p, c, term);
+				final List<Result> scores = new ArrayList<Result>();
+				final Contender contender = new Contender(k);
+				foldScores.put(param, scores);
+				contenders.put(param, contender);
+				double cost = 0;
+				long memory = 0;
+				for(svm_problem prob : probs){
+					cost += expectedCost(prob, param);
+					memory = Math.max(memory, expectedMemory(prob, param));
 				}
+				//one job per parameter pair running its folds in order
+				jobs.add(new TrainingScheduler.Job(cost, memory){
+					@Override
+					public void run() throws Exception {
+						for( int fold = 0 ; fold < k ; ++fold ){
+							if(!race.start(contender)){
+								return;
+							}
+							try{
+								Result r = evaluate(probs.get(fold), param, null, crossValSets.get(fold), fold, scores,
+										saveIntermediariesTo);
+								contender.mses[fold] = r.mse;
+							}catch(CancellationException e){
+								return;
+							}catch(Exception e){
+								//leave the fold out, a pair with a failed fold cannot become the incumbent
+							}finally{
+								race.stop(contender);
+								//clear an interrupt that arrived after training finished
+								Thread.interrupted();
+							}
+						}
+						race.finish(contender);
+					}
+				});
 			}
 		}
-	}
-	
-	private Result testModel(svm_model model, double[] testValues, svm_node[][] testSet){
-		double[] predictValues = new double[testValues.length];
-		for( int i = 0 ; i < testValues.length ; ++i ){
-			predictValues[i] = svm.svm_predict(model, testSet[i]) ;
+		runJobs(jobs);
+		Map<svm_parameter, Result> scores = new HashMap<svm_parameter, Result>();
+		int dropped = 0;
+		for(svm_parameter param : foldScores.keySet()){
+			if(contenders.get(param).dropped){
+				++dropped;
+			}else{
+				scores.put(param, mean(foldScores.get(param), param, k));
+			}
 		}
-		Result r = new Result();
-		PearsonsCorrelation cor = new PearsonsCorrelation();
-		r.r2 = Math.pow(cor.correlation(testValues, predictValues), 2);
-		r.mse = StatsUtil.meanSquaredError(testValues, predictValues);
-		return r;
-	}
-	
-
-	
-	private static class Result implements Comparable<Result>{
-		private double r2;
-		private double mse;
-		@Override
-		public int compareTo(Result arg0) {
-			double dif = mse - arg0.mse;
-			if(dif < 0) return -1;
-			if(dif > 0) return 1;
-			return 0;
+		if(verbose){
+			System.err.println("Racing dropped "+dropped+" of "+contenders.size()+" parameter pairs.");
 		}
+		return scores;
 	}
 	
-	private svm_parameter initParam(double p, double c, double termEps){
-		svm_parameter param = new svm_parameter();
-		param.svm_type = svm_parameter.EPSILON_SVR;
-		param.kernel_type = svm_parameter.LINEAR;
-		param.C = c;
-		param.p = p;
-		param.eps = termEps;
-		return param;
+	/**
+	 * Fold errors of a parameter pair, NaN for folds not trained yet, and the thread training it.
+	 */
+	private static class Contender{
+		private final double[] mses;
+		private Thread thread = null;
+		private boolean dropped = false;
+		
+		public Contender(int k){
+			mses = new double[k];
+			Arrays.fill(mses, Double.NaN);
+		}
 	}
 	
-	private Map<svm_parameter, Result> computeScores(final File saveIntermediariesTo){
-		//use a new cached thread pool for this, as the crossValidate method adds tasks
-		//to the fixed size thread pool
-		ExecutorService threadCache = Executors.newCachedThreadPool();
-		final Map<svm_parameter, Result> scores = new ConcurrentHashMap<svm_parameter, Result>();
-		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-		for( final double e : ps ){
-			for( final double c : cs	){
-				tasks.add(new Callable<Object>(){
-
-					@Override
-					public Object call() throws Exception {
-						svm_parameter param = initParam(e, c, term);
-						Result score = crossValidate(crossValSets, param, saveIntermediariesTo);
-						scores.put(param, score);
-						return null;
-					}
-					
-				});
+	/**
+	 * The fold errors of the incumbent, the best fully cross validated pair so far, and the contenders in training.
+	 */
+	private static class Race{
+		
+		private final int k;
+		private final List<Contender> running = new ArrayList<Contender>();
+		private double[] incumbent = null;
+		private double incumbentMse = Double.POSITIVE_INFINITY;
+		
+		public Race(int k){
+			this.k = k;
+		}
+		
+		/**
+		 * Registers the contender for its next fold
+		 * @return false if the contender has been dropped
+		 */
+		public synchronized boolean start(Contender c){
+			if(c.dropped || hopeless(c)){
+				c.dropped = true;
+				return false;
 			}
+			c.thread = Thread.currentThread();
+			running.add(c);
+			return true;
 		}
-		try {
-			threadCache.invokeAll(tasks);
-		} catch (InterruptedException e1) {
-			//bad things
-			throw new Error(e1);
+		
+		public synchronized void stop(Contender c){
+			c.thread = null;
+			running.remove(c);
 		}
-		return scores;
+		
+		/**
+		 * Offers a contender that trained all its folds as the new incumbent and, if it is, interrupts the contenders
+		 * in training that cannot beat it anymore.
+		 */
+		public synchronized void finish(Contender c){
+			double mse = 0;
+			for(double d : c.mses){
+				mse += d;
+			}
+			mse /= k;
+			if(Double.isNaN(mse) || mse >= incumbentMse){
+				return;
+			}
+			incumbent = c.mses.clone();
+			incumbentMse = mse;
+			for(Contender other : running){
+				if(hopeless(other)){
+					other.dropped = true;
+					other.thread.interrupt();
+				}
+			}
+		}
+		
+		private boolean hopeless(Contender c){
+			if(incumbent == null){
+				return false;
+			}
+			double[] x = new double[k];
+			double[] y = new double[k];
+			int n = 0;
+			double diff = 0;
+			for( int i = 0 ; i < k ; ++i ){
+				if(!Double.isNaN(c.mses[i])){
+					x[n] = c.mses[i];
+					y[n] = incumbent[i];
+					diff += x[n] - y[n];
+					++n;
+				}
+			}
+			if(n < 2 || diff <= 0){
+				return false;
+			}
+			double p = new TTest().pairedTTest(Arrays.copyOf(x, n), Arrays.copyOf(y, n)) / 2;
+			return p < RACING_ALPHA;
+		}
+		
 	}
-
+	
 	@Override
 	public svm_parameter search(File saveIntermediariesTo) {
 		//build the grid search score table
 		Map<svm_parameter, Result> scores = this.computeScores(saveIntermediariesTo);
-		//picks the parameters that produce a model with the lowest
-		//average error
-		svm_parameter best = null;
-		Result bestScore = new Result();
-		bestScore.mse = Double.POSITIVE_INFINITY;
-		bestScore.r2 = 0;
-		for(svm_parameter param : scores.keySet()){
-			Result score = scores.get(param);
-			if(score.compareTo(bestScore) < 0){
-				bestScore = score;
-				best = param;
-			}
-		}
-		return best;
+		return best(scores);
 	}
 	
 }
@@ -0,0 +1,82 @@
+package bepler.seq.svm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in microseconds for reporting percentiles. Latencies under 64us get a bucket each,
+ * longer ones fall into 32 buckets per power of two, so a percentile is reported to within about 3% in constant
+ * memory however many latencies are recorded.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 64;
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	//bucket groups for exponents 6 through 62
+	private static final int BUCKETS = LINEAR + (63 - 6) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+
+	private static int bucket(long micros){
+		if(micros < LINEAR){
+			return (int) Math.max(0, micros);
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB - 1);
+		return Math.min(BUCKETS - 1, LINEAR + (exp - 6) * SUB + sub);
+	}
+
+	private static long lowerBound(int bucket){
+		if(bucket < LINEAR){
+			return bucket;
+		}
+		int exp = (bucket - LINEAR) / SUB + 6;
+		int sub = (bucket - LINEAR) % SUB;
+		return (1L << exp) | ((long) sub << (exp - SUB_BITS));
+	}
+
+	public void record(long nanos){
+		long micros = nanos / 1000;
+		counts.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+	}
+
+	public long count(){
+		return count.get();
+	}
+
+	public double meanMicros(){
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / (double) n;
+	}
+
+	/**
+	 * Returns the lower bound of the bucket holding the q-th quantile in microseconds, or 0 if nothing was recorded.
+	 * Concurrent records may or may not be counted.
+	 * @param q - quantile in [0,1]
+	 * @return
+	 */
+	public long percentileMicros(double q){
+		long n = 0;
+		for( int i = 0 ; i < BUCKETS ; ++i ){
+			n += counts.get(i);
+		}
+		if(n == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(q * n));
+		long seen = 0;
+		for( int i = 0 ; i < BUCKETS ; ++i ){
+			seen += counts.get(i);
+			if(seen >= rank){
+				return lowerBound(i);
+			}
+		}
+		return lowerBound(BUCKETS - 1);
+	}
+
+}
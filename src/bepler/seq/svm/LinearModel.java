@@ -1,16 +1,16 @@
 package bepler.seq.svm;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 public abstract class LinearModel {
 	
@@ -19,15 +19,26 @@ public abstract class LinearModel {
 	public abstract double predict(String seq);
 
 	public abstract Feature[] getFeatures();
+	
+	public abstract Feature getFeature(int index);
+	
+	public abstract int numFeatures();
 
 	public abstract double[] getWeights();
 
+	/**
+	 * Returns a scorer for this model's weights compiled into a flat weight table
+	 * @return
+	 */
+	public LinearScorer getScorer(){
+		return LinearScorer.compile(getFeatures(), getWeights(), intercept());
+	}
+
 	public void write(PrintStream out){
 		double[] featureWeights = this.getWeights();
-		Feature[] features = this.getFeatures();
 		out.println("intercept : "+intercept());
 		for( int i = 0 ; i < featureWeights.length ; ++i ){
-			out.println(features[i]+" : "+featureWeights[i]);
+			out.println(getFeature(i)+" : "+featureWeights[i]);
 		}
 	}
 	
@@ -35,20 +46,109 @@ public abstract class LinearModel {
 	public static final String LINE_REGEX = Feature.FEATURE_REGEX + "\\s*:\\s*" + FLOAT_REGEX +"\\s*";
 	public static final String INTERCEPT_REGEX = "\\s*intercept\\s*:\\s*" + FLOAT_REGEX + "\\s*"; 
 	
+	/**
+	 * Reads a model from the file, in the binary format if it starts with its magic number and as text otherwise.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LinearModel readModel(File file) throws IOException{
+		if(BinaryLinearModel.isBinary(file)){
+			return BinaryLinearModel.read(file);
+		}
+		InputStream in = new FileInputStream(file);
+		try{
+			return readModel(in);
+		}finally{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes this model in the binary format of BinaryLinearModel.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeBinary(OutputStream out) throws IOException{
+		BinaryLinearModel.write(this, out);
+	}
+	
+	/**
+	 * Reads a model written by write. Lines are scanned once by hand rather than matched against LINE_REGEX and
+	 * INTERCEPT_REGEX, but accept exactly the same syntax; other lines are skipped. Kmers and weights go into flat
+	 * buffers and are mapped to feature indices once the feature space is known, so no Feature is created per line.
+	 * @param in
+	 * @return
+	 */
 	public static LinearModel readModel(InputStream in){
-		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in), 1 << 16);
 		double intercept = 0;
-		List<Feature> features = new ArrayList<Feature>();
-		List<Double> weights = new ArrayList<Double>();
+		StringBuilder kmers = new StringBuilder();
+		int[] ends = new int[1024];
+		int[] positions = new int[1024];
+		double[] weights = new double[1024];
+		int n = 0;
+		boolean[] chars = new boolean[128];
+		List<Integer> sizes = new ArrayList<Integer>();
+		int seqLen = 0;
 		String line;
 		try {
 			while( (line = reader.readLine()) != null ){
-				if(line.matches(LINE_REGEX)){
-					String[] split = line.trim().split(":");
-					features.add(Feature.parseFeature(split[0].trim()));
-					weights.add(Double.parseDouble(split[1].trim()));
-				}else if (line.matches(INTERCEPT_REGEX)){
-					intercept = Double.parseDouble(line.trim().split(":")[1].trim());
+				int len = line.length();
+				int i = skipSpaces(line, 0, len);
+				if(i < len && line.charAt(i) == '['){
+					i = skipSpaces(line, i + 1, len);
+					int posStart = i;
+					i = skipDigits(line, i, len);
+					int posEnd = i;
+					i = skipSpaces(line, i, len);
+					if(posEnd == posStart || i >= len || line.charAt(i) != ']'){
+						continue;
+					}
+					i = skipSpaces(line, i + 1, len);
+					int kmerStart = i;
+					while(i < len && isLetter(line.charAt(i))){
+						++i;
+					}
+					int kmerEnd = i;
+					i = skipSpaces(line, i, len);
+					if(kmerEnd == kmerStart || i >= len || line.charAt(i) != ':'){
+						continue;
+					}
+					i = skipSpaces(line, i + 1, len);
+					int floatEnd = skipFloat(line, i, len);
+					if(floatEnd < 0 || skipSpaces(line, floatEnd, len) != len){
+						continue;
+					}
+					if(n == weights.length){
+						ends = Arrays.copyOf(ends, 2 * n);
+						positions = Arrays.copyOf(positions, 2 * n);
+						weights = Arrays.copyOf(weights, 2 * n);
+					}
+					int pos = Integer.parseInt(line.substring(posStart, posEnd));
+					for( int j = kmerStart ; j < kmerEnd ; ++j ){
+						chars[line.charAt(j)] = true;
+					}
+					int size = kmerEnd - kmerStart;
+					if(!sizes.contains(size)){
+						sizes.add(size);
+					}
+					seqLen = Math.max(seqLen, pos + size);
+					kmers.append(line, kmerStart, kmerEnd);
+					ends[n] = kmers.length();
+					positions[n] = pos;
+					weights[n] = Double.parseDouble(line.substring(i, floatEnd));
+					++n;
+				}else if(line.startsWith("intercept", i)){
+					i = skipSpaces(line, i + "intercept".length(), len);
+					if(i >= len || line.charAt(i) != ':'){
+						continue;
+					}
+					i = skipSpaces(line, i + 1, len);
+					int floatEnd = skipFloat(line, i, len);
+					if(floatEnd >= 0 && skipSpaces(line, floatEnd, len) == len){
+						intercept = Double.parseDouble(line.substring(i, floatEnd));
+					}
 				}
 			}
 		} catch (Exception e) {
@@ -60,52 +160,158 @@ public abstract class LinearModel {
 				//bad things
 			}
 		}
-		double[] ws = new double[weights.size()];
-		for( int i = 0 ; i < ws.length ; ++i ){
-			ws[i] = weights.get(i);
+		//the feature space is inferred as by LinearScorer.compile
+		int size = 0;
+		for(boolean c : chars){
+			size += c ? 1 : 0;
+		}
+		char[] alphabet = new char[size];
+		size = 0;
+		for( int c = 0 ; c < chars.length ; ++c ){
+			if(chars[c]){
+				alphabet[size++] = (char) c;
+			}
+		}
+		int[] kmerSizes = new int[sizes.size()];
+		for( int i = 0 ; i < kmerSizes.length ; ++i ){
+			kmerSizes[i] = sizes.get(i);
+		}
+		FeatureBuilder builder = new FeatureBuilder(seqLen, kmerSizes, alphabet);
+		int[] indices = new int[n];
+		int start = 0;
+		for( int i = 0 ; i < n ; ++i ){
+			indices[i] = builder.indexOf(kmers, start, ends[i] - start, positions[i]);
+			start = ends[i];
+		}
+		return new LinearModelImpl(builder, indices, Arrays.copyOf(weights, n), intercept);
+	}
+	
+	private static boolean isSpace(char c){
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+	}
+	
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean isLetter(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	private static int skipSpaces(String s, int i, int end){
+		while(i < end && isSpace(s.charAt(i))){
+			++i;
+		}
+		return i;
+	}
+	
+	private static int skipDigits(String s, int i, int end){
+		while(i < end && isDigit(s.charAt(i))){
+			++i;
+		}
+		return i;
+	}
+	
+	/**
+	 * Returns the end of the FLOAT_REGEX number starting at i or -1 if there is none
+	 */
+	private static int skipFloat(String s, int i, int end){
+		if(i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')){
+			++i;
+		}
+		int intEnd = skipDigits(s, i, end);
+		if(intEnd < end && s.charAt(intEnd) == '.'){
+			i = skipDigits(s, intEnd + 1, end);
+			if(i == intEnd + 1){
+				return -1;
+			}
+		}else if(intEnd == i){
+			return -1;
+		}else{
+			i = intEnd;
+		}
+		if(i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')){
+			int exp = i + 1;
+			if(exp < end && (s.charAt(exp) == '-' || s.charAt(exp) == '+')){
+				++exp;
+			}
+			int expEnd = skipDigits(s, exp, end);
+			if(expEnd > exp){
+				i = expEnd;
+			}
 		}
-		return new LinearModelImpl(intercept, features.toArray(new Feature[features.size()]), ws);
+		return i;
 	}
 	
-	private static class LinearModelImpl extends LinearModel{
+	/**
+	 * A model over a builder's feature space. The listed features are given by their feature indices, or are all the
+	 * builder's features in index order when indices is null. Weights of repeated features add up when scoring.
+	 */
+	static class LinearModelImpl extends LinearModel{
 		
 		private final double intercept;
-		private final Feature[] features;
-		private final int[] sizes;
+		private final FeatureBuilder builder;
+		private final int[] indices;
 		private final double[] weights;
-		private final Map<Feature, Double> map;
+		private final LinearScorer scorer;
 		
-		public LinearModelImpl(double intercept, Feature[] features, double[] weights){
+		LinearModelImpl(FeatureBuilder builder, int[] indices, double[] weights, double intercept){
 			this.intercept = intercept;
-			this.features = features;
-			Set<Integer> sizeSet = new HashSet<Integer>();
-			for(Feature f : features){
-				sizeSet.add(f.getKmer().length());
-			}
-			sizes = new int[sizeSet.size()];
-			int i = 0;
-			for( int size : sizeSet ){
-				sizes[i++] = size;
-			}
+			this.builder = builder;
+			this.indices = indices;
 			this.weights = weights;
-			map = new HashMap<Feature, Double>();
-			for( i = 0 ; i < features.length ; ++i ){
-				map.put(features[i], weights[i]);
+			double[] table = weights;
+			if(indices != null){
+				table = new double[builder.numFeatures()];
+				for( int i = 0 ; i < indices.length ; ++i ){
+					table[indices[i]] += weights[i];
+				}
 			}
+			this.scorer = new LinearScorer(builder, table, intercept);
 		}
 
+		/**
+		 * Scores the sequence on the model's features that it contains. A sequence shorter than the model's sequence
+		 * length is scored on the kmers it has, as if the positions past its end held no symbol. A longer one is
+		 * rejected with a RuntimeException.
+		 */
 		@Override
 		public double predict(String seq) {
-			double val = intercept;
-			for(Feature f : Features.featurize(seq, sizes)){
-				val += map.get(f);
+			int seqLen = builder.getSeqLen();
+			if(seq.length() >= seqLen){
+				return scorer.score(seq);
 			}
-			return val;
+			byte[] codes = new byte[seqLen];
+			builder.encode(seq, 0, seq.length(), codes, 0);
+			Arrays.fill(codes, seq.length(), seqLen, (byte) -1);
+			return scorer.score(codes, 0);
+		}
+		
+		@Override
+		public LinearScorer getScorer() {
+			return scorer;
 		}
 
 		@Override
 		public Feature[] getFeatures() {
-			return features.clone();
+			if(indices == null){
+				return builder.getFeatures();
+			}
+			Feature[] features = new Feature[indices.length];
+			for( int i = 0 ; i < features.length ; ++i ){
+				features[i] = builder.getFeature(indices[i]);
+			}
+			return features;
+		}
+		
+		@Override
+		public Feature getFeature(int index) {
+			return builder.getFeature(indices == null ? index : indices[index]);
+		}
+		
+		@Override
+		public int numFeatures() {
+			return weights.length;
 		}
 
 		@Override
@@ -120,4 +326,4 @@ public abstract class LinearModel {
 		
 	}
 
-}
\ No newline at end of file
+}
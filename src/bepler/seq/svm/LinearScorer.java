@@ -0,0 +1,110 @@
+package bepler.seq.svm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Scores sequences against a linear model compiled into a flat weight table indexed by feature index, that is, by
+ * (kmer size, position, kmer code). Scoring encodes the sequence into a per-thread code buffer and sums the weights
+ * of the present kmers, so no objects are allocated per call. Features without a weight score as 0.
+ */
+public class LinearScorer {
+	
+	/**
+	 * Compiles the given features and weights into a scorer. The feature space is inferred from the features: the
+	 * alphabet is the sorted set of kmer characters, the kmer sizes are taken in order of first appearance, and the
+	 * sequence length is the furthest position any feature covers.
+	 * @param features
+	 * @param weights
+	 * @param intercept
+	 * @return
+	 */
+	public static LinearScorer compile(Feature[] features, double[] weights, double intercept){
+		TreeSet<Character> chars = new TreeSet<Character>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		int seqLen = 0;
+		for(Feature f : features){
+			String kmer = f.getKmer();
+			for( int i = 0 ; i < kmer.length() ; ++i ){
+				chars.add(kmer.charAt(i));
+			}
+			if(!sizes.contains(kmer.length())){
+				sizes.add(kmer.length());
+			}
+			seqLen = Math.max(seqLen, f.getIndex() + kmer.length());
+		}
+		char[] alphabet = new char[chars.size()];
+		int i = 0;
+		for(char c : chars){
+			alphabet[i++] = c;
+		}
+		int[] kmerSizes = new int[sizes.size()];
+		for( i = 0 ; i < kmerSizes.length ; ++i ){
+			kmerSizes[i] = sizes.get(i);
+		}
+		FeatureBuilder builder = new FeatureBuilder(seqLen, kmerSizes, alphabet);
+		double[] table = new double[builder.numFeatures()];
+		for( i = 0 ; i < features.length ; ++i ){
+			table[builder.indexOf(features[i])] += weights[i];
+		}
+		return new LinearScorer(builder, table, intercept);
+	}
+	
+	private final FeatureBuilder builder;
+	private final double[] weights;
+	private final double intercept;
+	private final ThreadLocal<byte[]> buffers;
+	
+	/**
+	 * @param builder - feature space of the weights
+	 * @param weights - weight of each feature of the builder, indexed by feature index
+	 * @param intercept
+	 */
+	public LinearScorer(FeatureBuilder builder, double[] weights, double intercept){
+		if(weights.length != builder.numFeatures()){
+			throw new IllegalArgumentException("Expected "+builder.numFeatures()+" weights but was "+weights.length);
+		}
+		this.builder = builder;
+		this.weights = weights;
+		this.intercept = intercept;
+		final int seqLen = builder.getSeqLen();
+		this.buffers = new ThreadLocal<byte[]>(){
+			@Override
+			protected byte[] initialValue(){
+				return new byte[seqLen];
+			}
+		};
+	}
+	
+	public FeatureBuilder getBuilder(){
+		return builder;
+	}
+	
+	public double intercept(){
+		return intercept;
+	}
+	
+	/**
+	 * Returns the weight table, not a copy
+	 */
+	double[] weights(){
+		return weights;
+	}
+	
+	public double score(CharSequence seq){
+		byte[] codes = builder.encode(seq, buffers.get());
+		return intercept + builder.dot(codes, 0, weights);
+	}
+	
+	/**
+	 * Scores the encoded sequence starting at offset in the codes array
+	 * @param codes - symbol codes as produced by FeatureBuilder.encode
+	 * @param offset
+	 * @return
+	 */
+	public double score(byte[] codes, int offset){
+		return intercept + builder.dot(codes, offset, weights);
+	}
+	
+}
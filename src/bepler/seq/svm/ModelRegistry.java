@@ -0,0 +1,112 @@
+package bepler.seq.svm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Named linear models that are reloaded when their files change. Each model's scorer sits behind an AtomicReference,
+ * so a reload swaps it in one step: requests holding the old scorer finish with it and later requests see the new
+ * one. A changed file is only reloaded once its size and modification time are the same on two polls in a row, so a
+ * model still being written is not picked up half way, and a file that fails to load leaves the old model in place.
+ *
+ * Models are added before polling starts; after that the set of names is fixed.
+ */
+public class ModelRegistry {
+
+	private static class Entry{
+		private final File file;
+		private final AtomicReference<LinearScorer> scorer = new AtomicReference<LinearScorer>();
+		private long loadedModified;
+		private long loadedSize;
+		private long seenModified;
+		private long seenSize;
+		private Entry(File file){
+			this.file = file;
+		}
+	}
+
+	private final Map<String, Entry> models = new LinkedHashMap<String, Entry>();
+	private final AtomicInteger reloads = new AtomicInteger();
+	private String defaultName = null;
+
+	/**
+	 * Loads the model file under the given name. The first model added is the default.
+	 * @param name
+	 * @param file - text or binary LinearModel file
+	 * @throws IOException
+	 */
+	public void add(String name, File file) throws IOException{
+		if(models.containsKey(name)){
+			throw new IllegalArgumentException("ModelRegistry: duplicate model name "+name);
+		}
+		Entry e = new Entry(file);
+		e.loadedModified = e.seenModified = file.lastModified();
+		e.loadedSize = e.seenSize = file.length();
+		e.scorer.set(LinearModel.readModel(file).getScorer());
+		models.put(name, e);
+		if(defaultName == null){
+			defaultName = name;
+		}
+	}
+
+	/**
+	 * Returns the current scorer of the named model or null if there is no such model
+	 * @param name - model name or null for the default model
+	 * @return
+	 */
+	public LinearScorer get(String name){
+		Entry e = models.get(name == null ? defaultName : name);
+		return e == null ? null : e.scorer.get();
+	}
+
+	public String defaultName(){
+		return defaultName;
+	}
+
+	public List<String> names(){
+		return new ArrayList<String>(models.keySet());
+	}
+
+	/**
+	 * Returns the number of models swapped in since they were added
+	 */
+	public int reloads(){
+		return reloads.get();
+	}
+
+	/**
+	 * Checks every model file and swaps in those that changed and have since held still.
+	 */
+	public synchronized void poll(){
+		for(Map.Entry<String, Entry> named : models.entrySet()){
+			Entry e = named.getValue();
+			long modified = e.file.lastModified();
+			long size = e.file.length();
+			boolean changed = modified != e.loadedModified || size != e.loadedSize;
+			boolean stable = modified == e.seenModified && size == e.seenSize;
+			e.seenModified = modified;
+			e.seenSize = size;
+			if(!changed || !stable || modified == 0){
+				continue;
+			}
+			try{
+				LinearScorer scorer = LinearModel.readModel(e.file).getScorer();
+				e.scorer.set(scorer);
+				reloads.incrementAndGet();
+				System.err.println("Reloaded model "+named.getKey()+" from "+e.file);
+			}catch(Exception ex){
+				System.err.println("Error: unable to reload model "+named.getKey()+" from "+e.file+": "+ex);
+			}
+			//a broken file is not retried until it changes again
+			e.loadedModified = modified;
+			e.loadedSize = size;
+		}
+	}
+
+}
@@ -4,17 +4,23 @@ public class ModuleFactory {
 	
 	public static final String TRAIN = "train";
 	public static final String TEST = "test";
+	public static final String SCAN = "scan";
+	public static final String SERVE = "serve";
+	public static final String UPDATE = "update";
 	
 	public Module build(String name) throws Exception{
 		switch(name){
 		case TRAIN: return new Train();
 		case TEST: return new Test();
+		case SCAN: return new Scan();
+		case SERVE: return new Serve();
+		case UPDATE: return new Update();
 		default: throw new RuntimeException("Unknown module: "+name);
 		}
 	}
 	
 	public String[] modules(){
-		return new String[]{TRAIN, TEST};
+		return new String[]{TRAIN, TEST, SCAN, SERVE, UPDATE};
 	}
 	
 	public String usage(){
@@ -0,0 +1,117 @@
+package bepler.seq.svm;
+
+import java.util.Random;
+
+/**
+ * Updates the weights of a linear model online with passive-aggressive epsilon-insensitive regression, PA-I in
+ * Crammer et al., JMLR 7(2006), p. 551--585. A sequence predicted to within epsilon leaves the model unchanged;
+ * otherwise the weights of its features and the intercept move toward its value by the smallest step that would
+ * bring the error down to epsilon, capped at C. The features are the 0/1 positional kmers of the model's builder,
+ * so a step costs O(features present) and a pass over new data is proportional to that data alone. As in
+ * DualCDEngine, the intercept is the weight of a constant bias feature.
+ */
+public class PassiveAggressiveUpdater {
+
+	public static final double DEFAULT_EPSILON = 0.1;
+	public static final double DEFAULT_C = 1;
+	private static final double BIAS = 1;
+
+	private final FeatureBuilder builder;
+	private final double[] weights;
+	private double intercept;
+	private final int[] present;
+	private double epsilon = DEFAULT_EPSILON;
+	private double c = DEFAULT_C;
+	private long updates = 0;
+
+	/**
+	 * Starts from the given model's weights, which are copied.
+	 * @param model
+	 */
+	public PassiveAggressiveUpdater(LinearModel model){
+		LinearScorer scorer = model.getScorer();
+		this.builder = scorer.getBuilder();
+		this.weights = scorer.weights().clone();
+		this.intercept = scorer.intercept();
+		this.present = new int[builder.maxPresent()];
+	}
+
+	public void setEpsilon(double epsilon){
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Sets the largest step taken for one sequence
+	 * @param c
+	 */
+	public void setC(double c){
+		this.c = c;
+	}
+
+	public FeatureBuilder getBuilder(){
+		return builder;
+	}
+
+	/**
+	 * Returns the number of sequences that changed the model
+	 */
+	public long updates(){
+		return updates;
+	}
+
+	/**
+	 * Updates the model with the encoded sequence starting at offset in the codes array and its value
+	 * @param codes - symbol codes in the builder's alphabet
+	 * @param offset
+	 * @param y
+	 * @return the absolute error of the prediction before the update
+	 */
+	public double update(byte[] codes, int offset, double y){
+		int n = builder.featurize(codes, offset, present);
+		double diff = y - intercept - builder.dot(codes, offset, weights);
+		double loss = Math.abs(diff) - epsilon;
+		if(loss > 0){
+			double tau = Math.min(c, loss / (n + BIAS * BIAS));
+			double step = diff > 0 ? tau : -tau;
+			for( int j = 0 ; j < n ; ++j ){
+				weights[present[j]] += step;
+			}
+			intercept += step * BIAS;
+			++updates;
+		}
+		return Math.abs(diff);
+	}
+
+	/**
+	 * Makes one pass over the data in random order
+	 * @param data - sequences of the builder's length and alphabet
+	 * @param random
+	 * @return the mean absolute error of the predictions made before each update
+	 */
+	public double pass(SequenceData data, Random random){
+		int[] order = new int[data.size()];
+		for( int i = 0 ; i < order.length ; ++i ){
+			order[i] = i;
+		}
+		for( int i = order.length - 1 ; i > 0 ; --i ){
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		byte[] codes = data.codes();
+		double sum = 0;
+		for(int i : order){
+			sum += update(codes, data.offset(i), data.value(i));
+		}
+		return order.length == 0 ? 0 : sum / order.length;
+	}
+
+	/**
+	 * Returns the current model over all features of the builder
+	 */
+	public LinearModel toModel(){
+		return new LinearModel.LinearModelImpl(builder, null, weights.clone(), intercept);
+	}
+
+}
@@ -0,0 +1,28 @@
+package bepler.seq.svm;
+
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Trains models with the libsvm dual SMO solver. Works with any kernel.
+ */
+public class SMOEngine implements TrainingEngine {
+
+	@Override
+	public svm_model train(svm_problem prob, svm_parameter param) {
+		return svm.svm_train(prob, param);
+	}
+
+	@Override
+	public svm_model train(svm_problem prob, svm_parameter param, double[] alpha) {
+		return svm.svm_train(prob, param, alpha);
+	}
+
+	@Override
+	public boolean evaluatesKernel() {
+		return true;
+	}
+
+}
@@ -0,0 +1,300 @@
+package bepler.seq.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores every window of the model's sequence length in a FASTA or tab separated sequence file. The input is
+ * memory mapped and cut into chunks of windows that are scored on all cores, and the results are written in input
+ * order with a bounded number of chunks in flight, so files of any size can be scanned in constant memory.
+ *
+ * Each output line is "name	start	score" where name is the FASTA record id or, for tab separated input, the line
+ * number, and start is the 0-based position of the window in the record.
+ */
+public class Scan implements Module {
+
+	public static final String MODEL_FLAG = "-m";
+	public static final String SEQS_FLAG = "-s";
+	public static final String STEP_FLAG = "-w";
+	public static final String THREADS_FLAG = "-n";
+	public static final String OUT_FLAG = "-o";
+
+	public static final int DEFAULT_STEP = 1;
+	public static final int CHUNK_WINDOWS = 1 << 16;
+	private static final long MAP_SIZE = 1L << 28;
+
+	private LinearModel model = null;
+	private File seqs = null;
+	private File outFile = null;
+	private int step = DEFAULT_STEP;
+	private int nThreads = 0;
+
+	@Override
+	public String usage() {
+		return "Usage: scan "
+				+MODEL_FLAG + " MODEL "
+				+SEQS_FLAG + " FASTA_OR_SEQS_FILE "
+				+"[ "+STEP_FLAG+" window_step ] "
+				+"[ "+THREADS_FLAG+" n_threads ] "
+				+"[ "+OUT_FLAG+" output_file ] "
+				;
+	}
+
+	@Override
+	public void setArgs(String[] args) throws Exception {
+		model = null;
+		seqs = null;
+		for( int i = 0 ; i < args.length ; ++i ){
+			String arg = args[i];
+			switch(arg){
+			case MODEL_FLAG:
+				model = LinearModel.readModel(new File(args[++i]));
+				break;
+			case SEQS_FLAG:
+				seqs = new File(args[++i]);
+				break;
+			case STEP_FLAG:
+				step = Integer.parseInt(args[++i]);
+				break;
+			case THREADS_FLAG:
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			case OUT_FLAG:
+				outFile = new File(args[++i]);
+				break;
+			default:
+				throw new Exception("Unrecognized flag: "+arg);
+			}
+		}
+		if(model == null || seqs == null || step < 1){
+			throw new Exception();
+		}
+	}
+
+	@Override
+	public void execute() {
+		int n = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+		ExecutorService exec = Executors.newFixedThreadPool(n);
+		OutputStream out = null;
+		try{
+			out = new BufferedOutputStream(outFile == null ? System.out : new FileOutputStream(outFile), 1 << 16);
+			WindowScanner scanner = new WindowScanner(model.getScorer(), step, exec, 2 * n, out);
+			RandomAccessFile file = new RandomAccessFile(seqs, "r");
+			try{
+				scanner.scan(file.getChannel());
+			}finally{
+				file.close();
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			exec.shutdownNow();
+			if(out != null && outFile != null){
+				try {
+					out.close();
+				} catch (IOException e) {
+					//bad things
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses the input bytes into records, cuts records into chunks of windows, and keeps the chunks in flight in
+	 * input order.
+	 */
+	private static class WindowScanner{
+
+		private final LinearScorer scorer;
+		private final FeatureBuilder builder;
+		private final int seqLen;
+		private final int step;
+		private final ExecutorService exec;
+		private final int maxPending;
+		private final OutputStream out;
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+		//codes of the current record not yet emitted, starting at window position recordPos
+		private final byte[] buffer;
+		private int len = 0;
+		private int skip = 0;
+		private long recordPos = 0;
+		private String name = null;
+
+		public WindowScanner(LinearScorer scorer, int step, ExecutorService exec, int maxPending, OutputStream out){
+			this.scorer = scorer;
+			this.builder = scorer.getBuilder();
+			this.seqLen = builder.getSeqLen();
+			this.step = step;
+			this.exec = exec;
+			this.maxPending = maxPending;
+			this.out = out;
+			this.buffer = new byte[(CHUNK_WINDOWS - 1) * step + seqLen];
+		}
+
+		public void scan(FileChannel channel) throws IOException{
+			long size = channel.size();
+			boolean fasta = false;
+			boolean started = false;
+			boolean lineStart = true;
+			boolean header = false;
+			boolean seqColumn = false;
+			long line = 0;
+			StringBuilder headerText = new StringBuilder();
+			for( long pos = 0 ; pos < size ; pos += MAP_SIZE ){
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_SIZE, size - pos));
+				while(map.hasRemaining()){
+					char c = (char) (map.get() & 0xFF);
+					if(c == '\n'){
+						if(header){
+							header = false;
+							startRecord(recordName(headerText));
+						}else if(!fasta && seqColumn){
+							endRecord();
+						}
+						seqColumn = false;
+						lineStart = true;
+						continue;
+					}
+					if(!started){
+						if(Character.isWhitespace(c)){
+							continue;
+						}
+						started = true;
+						fasta = c == '>';
+					}
+					if(header){
+						headerText.append(c);
+					}else if(fasta){
+						if(lineStart && c == '>'){
+							endRecord();
+							header = true;
+							headerText.setLength(0);
+						}else if(!Character.isWhitespace(c)){
+							append(c);
+						}
+					}else if(lineStart){
+						++line;
+						if(!Character.isWhitespace(c)){
+							startRecord(String.valueOf(line));
+							seqColumn = true;
+							append(c);
+						}
+					}else if(seqColumn){
+						if(Character.isWhitespace(c)){
+							endRecord();
+							seqColumn = false;
+						}else{
+							append(c);
+						}
+					}
+					lineStart = false;
+				}
+			}
+			if(header){
+				startRecord(recordName(headerText));
+			}
+			endRecord();
+			while(!pending.isEmpty()){
+				write(pending.removeFirst());
+			}
+		}
+
+		private static String recordName(StringBuilder headerText){
+			String text = headerText.toString().trim();
+			int end = 0;
+			while(end < text.length() && !Character.isWhitespace(text.charAt(end))){
+				++end;
+			}
+			return text.substring(0, end);
+		}
+
+		private void startRecord(String name){
+			this.name = name;
+			len = 0;
+			skip = 0;
+			recordPos = 0;
+		}
+
+		private void append(char c) throws IOException{
+			if(skip > 0){
+				--skip;
+				return;
+			}
+			int code = builder.code(c);
+			if(code < 0){
+				code = builder.code(Character.toUpperCase(c));
+			}
+			buffer[len++] = (byte) code;
+			if(len == buffer.length){
+				emit(CHUNK_WINDOWS);
+				int next = CHUNK_WINDOWS * step;
+				if(next <= len){
+					System.arraycopy(buffer, next, buffer, 0, len - next);
+					len -= next;
+				}else{
+					skip = next - len;
+					len = 0;
+				}
+				recordPos += next;
+			}
+		}
+
+		private void endRecord() throws IOException{
+			if(name != null && len >= seqLen){
+				emit((len - seqLen) / step + 1);
+			}
+			name = null;
+			len = 0;
+		}
+
+		private void emit(final int windows) throws IOException{
+			final byte[] codes = new byte[(windows - 1) * step + seqLen];
+			System.arraycopy(buffer, 0, codes, 0, codes.length);
+			final String prefix = name + "\t";
+			final long start = recordPos;
+			if(pending.size() >= maxPending){
+				write(pending.removeFirst());
+			}
+			pending.addLast(exec.submit(new Callable<byte[]>(){
+				@Override
+				public byte[] call() throws Exception {
+					StringBuilder sb = new StringBuilder(windows * (prefix.length() + 32));
+					for( int i = 0 ; i < windows ; ++i ){
+						int offset = i * step;
+						sb.append(prefix).append(start + offset).append('\t')
+							.append(scorer.score(codes, offset)).append('\n');
+					}
+					return sb.toString().getBytes(StandardCharsets.UTF_8);
+				}
+			}));
+		}
+
+		private void write(Future<byte[]> result) throws IOException{
+			try {
+				out.write(result.get());
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+package bepler.seq.svm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores requests from many connections on a fixed set of worker threads. A worker blocks for one request and then
+ * drains whatever else is queued, up to the batch size, so requests that arrive together are scored together: each
+ * batch looks its models up once and pays one queue hand off instead of one per request. Latency is recorded from
+ * submission to completion.
+ */
+public class ScoreBatcher {
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * A pending score. The result is the score or "ERROR message".
+	 */
+	public static class Request{
+		private final String model;
+		private final CharSequence seq;
+		private final long submitted;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile String result;
+		private Request(String model, CharSequence seq){
+			this.model = model;
+			this.seq = seq;
+			this.submitted = System.nanoTime();
+		}
+		private void complete(String result){
+			this.result = result;
+			done.countDown();
+		}
+		public String result() throws InterruptedException{
+			done.await();
+			return result;
+		}
+	}
+
+	private final ModelRegistry models;
+	private final int batchSize;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final Thread[] workers;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong batches = new AtomicLong();
+
+	public ScoreBatcher(ModelRegistry models, int nThreads, int batchSize){
+		this.models = models;
+		this.batchSize = batchSize;
+		this.workers = new Thread[nThreads];
+		for( int i = 0 ; i < nThreads ; ++i ){
+			workers[i] = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					work();
+				}
+			}, "score-worker-"+i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues the sequence for scoring against the named model
+	 * @param model - model name or null for the default model
+	 * @param seq
+	 * @return
+	 */
+	public Request submit(String model, CharSequence seq){
+		Request r = new Request(model, seq);
+		queue.add(r);
+		return r;
+	}
+
+	private void work(){
+		List<Request> batch = new ArrayList<Request>(batchSize);
+		try{
+			while(true){
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+				score(batch);
+				batches.incrementAndGet();
+				batch.clear();
+			}
+		}catch(InterruptedException e){
+			//shutting down
+		}
+	}
+
+	/**
+	 * Completes every request of the batch. A request that fails is answered with its exception, so its client and
+	 * the rest of the batch are not left waiting and the worker keeps running.
+	 */
+	private void score(List<Request> batch){
+		String name = null;
+		LinearScorer scorer = null;
+		for(Request r : batch){
+			String result;
+			try{
+				if(scorer == null || !same(name, r.model)){
+					name = r.model;
+					scorer = models.get(name);
+				}
+				if(scorer == null){
+					result = "ERROR unknown model "+r.model;
+				}else if(r.seq.length() != scorer.getBuilder().getSeqLen()){
+					result = "ERROR sequence of length "+r.seq.length()+" but the model scores length "
+							+scorer.getBuilder().getSeqLen();
+				}else{
+					result = Double.toString(scorer.score(r.seq));
+				}
+			}catch(RuntimeException e){
+				//look the model up again for the next request
+				scorer = null;
+				result = "ERROR "+e.toString().replace('\n', ' ');
+			}
+			r.complete(result);
+			latency.record(System.nanoTime() - r.submitted);
+		}
+	}
+
+	private static boolean same(String a, String b){
+		return a == null ? b == null : a.equals(b);
+	}
+
+	public String stats(){
+		long n = latency.count();
+		long b = batches.get();
+		return "requests="+n+" batches="+b+" mean_batch="+(b == 0 ? 0 : n / (double) b)
+				+" mean_us="+latency.meanMicros()+" p50_us="+latency.percentileMicros(0.5)
+				+" p99_us="+latency.percentileMicros(0.99)+" reloads="+models.reloads();
+	}
+
+	public void shutdown(){
+		for(Thread t : workers){
+			t.interrupt();
+		}
+	}
+
+}
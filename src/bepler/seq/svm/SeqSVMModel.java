@@ -3,13 +3,17 @@ package bepler.seq.svm;
 import java.util.Arrays;
 
 import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_csr_matrix;
+import arnaudsj.java.libsvm.svm_kmer_node;
 import arnaudsj.java.libsvm.svm_model;
 import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
 
 public class SeqSVMModel extends LinearModel {
 	
 	private final FeatureBuilder builder;
 	private final svm_model model;
+	private volatile LinearScorer scorer = null;
 	
 	public SeqSVMModel(FeatureBuilder builder, svm_model model){
 		this.builder = builder;
@@ -18,26 +22,75 @@ public class SeqSVMModel extends LinearModel {
 	
 	@Override
 	public double predict(String seq){
+		int kernel = model.param.kernel_type;
+		if(kernel == svm_parameter.LINEAR || kernel == svm_parameter.KMER){
+			//the support vectors collapse into one weight per feature
+			return getScorer().score(seq);
+		}
 		svm_node[] nodes = SeqSVMTrainer.extractFeatures(builder, seq);
 		return svm.svm_predict(model, nodes);
 	}
 	
+	@Override
+	public LinearScorer getScorer(){
+		LinearScorer s = scorer;
+		if(s == null){
+			s = new LinearScorer(builder, getWeights(), intercept());
+			scorer = s;
+		}
+		return s;
+	}
+	
 	@Override
 	public Feature[] getFeatures(){
 		return builder.getFeatures();
 	}
 	
+	@Override
+	public Feature getFeature(int index){
+		return builder.getFeature(index);
+	}
+	
+	@Override
+	public int numFeatures(){
+		return builder.numFeatures();
+	}
+	
 	@Override
 	public double[] getWeights(){
 		double[] svWeights = model.sv_coef[0];
-		double[] featureWeights = new double[getFeatures().length];
+		double[] featureWeights = new double[builder.numFeatures()];
 		Arrays.fill(featureWeights, 0);
+		if(model.SV == null){
+			//support vectors loaded as CSR rows
+			svm_csr_matrix sv = model.SV_csr;
+			for( int i = 0 ; i < sv.l ; ++i ){
+				for( int j = sv.row_ptr[i] ; j < sv.row_ptr[i+1] ; ++j ){
+					featureWeights[sv.col_index[j]] += svWeights[i] * sv.values[j];
+				}
+			}
+			return featureWeights;
+		}
+		int[] present = new int[builder.maxPresent()];
 		for( int i = 0 ; i < model.SV.length ; ++i ){
 			svm_node[] sv = model.SV[i];
 			double svW = svWeights[i];
+			if(sv.length == 1 && sv[0] instanceof svm_kmer_node){
+				//packed sequence, its features are the kmers it contains
+				svm_kmer_node packed = (svm_kmer_node) sv[0];
+				byte[] codes = new byte[packed.length()];
+				for( int j = 0 ; j < codes.length ; ++j ){
+					codes[j] = (byte) packed.symbol(j);
+				}
+				int n = builder.featurize(codes, 0, present);
+				for( int j = 0 ; j < n ; ++j ){
+					featureWeights[present[j]] += svW;
+				}
+				continue;
+			}
 			for( int j = 0 ; j < sv.length ; ++j ){
 				double weight = sv[j].value;
-				featureWeights[j] += svW * weight;
+				featureWeights[sv[j].index] += svW * weight;
 			}
 		}
 		return featureWeights;
@@ -1,8 +1,11 @@
 package bepler.seq.svm;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -10,7 +13,10 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_bit_matrix;
+import arnaudsj.java.libsvm.svm_gram_matrix;
+import arnaudsj.java.libsvm.svm_kmer_node;
+import arnaudsj.java.libsvm.svm_mapped_matrix;
 import arnaudsj.java.libsvm.svm_model;
 import arnaudsj.java.libsvm.svm_node;
 import arnaudsj.java.libsvm.svm_parameter;
@@ -20,10 +26,26 @@ public class SeqSVMTrainer {
 	
 	public static final int DNA = FeatureBuilder.DNA;
 	
+	public static final String GRID = "grid";
+	public static final String HALVING = "halving";
+	public static final String BAYES = "bayes";
+	
+	private static final int SPILL_BATCH = 1 << 16;
+	
 	private final FeatureBuilder builder;
 	private final double[] eps;
 	private final double[] cs;
 	private boolean verbose = false;
+	private TrainingEngine engine = new SMOEngine();
+	private boolean warmStart = false;
+	private boolean sharedGram = false;
+	private boolean kmerKernel = false;
+	private boolean bitFeatures = false;
+	private String searchMethod = GRID;
+	private boolean racing = false;
+	private int budget = GridSearchBayes.DEFAULT_BUDGET;
+	private File telemetryFile = null;
+	private File spillDir = null;
 	
 	public SeqSVMTrainer(int seqLen, int[] kmerLens, char[] alphabet, double[] eps, double[] c){
 		builder = new FeatureBuilder(seqLen, kmerLens, alphabet);
@@ -41,6 +63,128 @@ public class SeqSVMTrainer {
 		this.verbose = verbose;
 	}
 	
+	/**
+	 * Sets the engine used to train the cross validation and final models. Defaults to the libsvm SMO solver.
+	 * @param engine
+	 */
+	public void setEngine(TrainingEngine engine){
+		this.engine = engine;
+	}
+	
+	/**
+	 * Sets whether the grid search warm starts each model from the solution for the next smaller C on the same
+	 * cross validation fold.
+	 * @param warmStart
+	 */
+	public void setWarmStart(boolean warmStart){
+		this.warmStart = warmStart;
+	}
+	
+	/**
+	 * Sets whether the linear kernel values of all sequences are computed once before the grid search and shared by
+	 * every fold, grid point, and the final model. This needs 2*n^2 bytes for n sequences, which are allocated off
+	 * heap for large n, and is skipped with a warning for engines that do not evaluate the kernel.
+	 * @param sharedGram
+	 */
+	public void setSharedGram(boolean sharedGram){
+		this.sharedGram = sharedGram;
+	}
+	
+	/**
+	 * Sets whether models are trained with the libsvm KMER kernel on packed sequences instead of the linear kernel on
+	 * sparse feature rows. Both kernels are equal, but the packed rows take O(seqLen) bits per sequence and the kernel
+	 * is computed without featurizing. Only engines that evaluate the kernel support it.
+	 * @param kmerKernel
+	 */
+	public void setKmerKernel(boolean kmerKernel){
+		this.kmerKernel = kmerKernel;
+	}
+	
+	/**
+	 * Sets whether the 0/1 feature rows are stored as bitsets for training, so the kernel is computed from popcounts
+	 * of their intersections. Ignored with the packed kmer kernel and with engines that do not evaluate the kernel.
+	 * @param bitFeatures
+	 */
+	public void setBitFeatures(boolean bitFeatures){
+		this.bitFeatures = bitFeatures;
+	}
+	
+	/**
+	 * Sets how the parameters are searched: GRID cross validates every grid point on the full folds, HALVING uses
+	 * successive halving over growing subsamples of the folds, and BAYES uses Bayesian optimization within the bounds
+	 * of the epsilon and C values.
+	 * @param searchMethod
+	 */
+	public void setSearchMethod(String searchMethod){
+		if(!GRID.equals(searchMethod) && !HALVING.equals(searchMethod) && !BAYES.equals(searchMethod)){
+			throw new RuntimeException("Unknown search method: "+searchMethod);
+		}
+		this.searchMethod = searchMethod;
+	}
+	
+	/**
+	 * Sets whether the GRID search drops parameter pairs whose first folds show they cannot beat the best pair.
+	 * @param racing
+	 */
+	public void setRacing(boolean racing){
+		this.racing = racing;
+	}
+	
+	/**
+	 * Sets the maximum number of models the BAYES search trains.
+	 * @param budget
+	 */
+	public void setBudget(int budget){
+		this.budget = budget;
+	}
+	
+	/**
+	 * Sets the file the solver statistics of every trained model are written to, as JSON if its name ends with .json
+	 * and as CSV otherwise, or null to not collect them.
+	 * @param telemetryFile
+	 */
+	public void setTelemetry(File telemetryFile){
+		this.telemetryFile = telemetryFile;
+	}
+	
+	/**
+	 * Sets the directory the feature rows are written to for training out of core, or null to keep them on the heap.
+	 * The rows are stored once, as feature indices in a memory mapped file that the cross validation sets view by
+	 * row number and the engines read through the mapping, so the page cache rather than the heap holds them. The
+	 * file is deleted when training ends. Ignored with the packed kmer kernel, whose rows are already small. The shared
+	 * kernel matrix and bitset features would bring the data back onto the heap and are not used with it.
+	 * @param spillDir
+	 */
+	public void setOutOfCore(File spillDir){
+		this.spillDir = spillDir;
+	}
+	
+	private svm_parameter kernel(){
+		svm_parameter kernel = new svm_parameter();
+		if(kmerKernel){
+			kernel.kernel_type = svm_parameter.KMER;
+			kernel.kmer_sizes = builder.getKmerSizes();
+		}else{
+			kernel.kernel_type = svm_parameter.LINEAR;
+		}
+		return kernel;
+	}
+	
+	private svm_node[] toRow(byte[] codes, int offset, int[] present){
+		if(kmerKernel){
+			return new svm_node[]{ new svm_kmer_node(codes, offset, builder.getSeqLen(), builder.getAlphabet().length) };
+		}
+		int n = builder.featurize(codes, offset, present);
+		svm_node[] nodes = new svm_node[n];
+		for( int j = 0 ; j < n ; ++j ){
+			svm_node node = new svm_node();
+			node.index = present[j];
+			node.value = 1;
+			nodes[j] = node;
+		}
+		return nodes;
+	}
+	
 	private static double[] asArray(List<Double> vals){
 		double[] array = new double[vals.size()];
 		for( int i = 0 ; i < array.length ; ++i ){
@@ -52,8 +196,9 @@ public class SeqSVMTrainer {
 	private static class FeaturesValue{
 		public svm_node[] features;
 		public double val;
-		public FeaturesValue(FeatureBuilder builder, String seq, double val){
-			this.features = extractFeatures(builder, seq); this.val = val;
+		public int index;
+		public FeaturesValue(svm_node[] features, double val, int index){
+			this.features = features; this.val = val; this.index = index;
 		}
 	}
 	
@@ -65,27 +210,65 @@ public class SeqSVMTrainer {
 		return nodes;
 	}
 	
+	/**
+	 * Extracts the features of the given sequence as a sparse svm_node row. Only features present in the
+	 * sequence are emitted, sorted by index, as libsvm treats missing indices as zeros.
+	 * @param builder
+	 * @param seq
+	 * @return
+	 */
 	public static svm_node[] extractFeatures(FeatureBuilder builder, String seq){
-		double[] features = builder.featurizeAsDouble(seq);
-		svm_node[] nodes = new svm_node[features.length];
-		for( int j = 0 ; j < features.length ; ++j ){
+		int[] present = builder.featurizeAsIndices(seq);
+		svm_node[] nodes = new svm_node[present.length];
+		for( int j = 0 ; j < present.length ; ++j ){
 			svm_node node = new svm_node();
-			node.index = j;
-			node.value = features[j];
+			node.index = present[j];
+			node.value = 1;
 			nodes[j] = node;
 		}
 		return nodes;
 	}
+	
+	/**
+	 * Packs the given sequence into a KMER kernel row holding a single svm_kmer_node, with the builder's symbol codes.
+	 * @param builder
+	 * @param seq
+	 * @return
+	 */
+	public static svm_node[] packSequence(FeatureBuilder builder, String seq){
+		byte[] codes = builder.encode(seq, new byte[builder.getSeqLen()]);
+		return new svm_node[]{ new svm_kmer_node(codes, 0, codes.length, builder.getAlphabet().length) };
+	}
 
-	public LinearModel train(final List<String> seqs, final List<Double> vals, int k, Random random,
+	public LinearModel train(List<String> seqs, List<Double> vals, int k, Random random,
+			double terminationEpsilon, File saveIntermediariesTo, int nThreads){
+		return train(SequenceData.of(builder, seqs, vals), k, random, terminationEpsilon, saveIntermediariesTo,
+				nThreads);
+	}
+	
+	/**
+	 * Trains on sequences already held as symbol codes. Rows are built straight from the codes, once, and shared by
+	 * the cross validation sets and the final model.
+	 * @param data - sequences of the trainer's length, recoded to its alphabet if they use another
+	 * @param k
+	 * @param random
+	 * @param terminationEpsilon
+	 * @param saveIntermediariesTo
+	 * @param nThreads
+	 * @return
+	 */
+	public LinearModel train(SequenceData data, int k, Random random,
 			double terminationEpsilon, File saveIntermediariesTo, int nThreads){
-		if(seqs.size() != vals.size()){
-			throw new RuntimeException("Sequences list and values list must be of the same size.");
+		if(data.getSeqLen() != builder.getSeqLen()){
+			throw new RuntimeException("SeqSVMTrainer: sequences of length "+data.getSeqLen()
+					+" do not match the trainer's length "+builder.getSeqLen());
 		}
+		final SequenceData seqs = data.recode(builder.getAlphabet());
 		//redirect stdout to stderr
 		PrintStream sout = System.out;
 		System.setOut(System.err);
 		nThreads = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+		svm_mapped_matrix mapped = null;
 		
 		try{
 			ExecutorService exec = Executors.newFixedThreadPool(nThreads);
@@ -94,17 +277,29 @@ public class SeqSVMTrainer {
 				System.err.println("Running with "+nThreads+" threads.");
 				System.err.println("Extracting sequence features.");
 			}
-			final List<FeaturesValue> shuffle = new ArrayList<FeaturesValue>();
+			if(spillDir != null && !kmerKernel){
+				try{
+					mapped = spill(seqs, exec, nThreads);
+				}finally{
+					exec.shutdown();
+				}
+				return trainMapped(mapped, seqs.values(), k, random, terminationEpsilon, saveIntermediariesTo,
+						nThreads);
+			}
+			final FeaturesValue[] rows = new FeaturesValue[seqs.size()];
 			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-			for( int i = 0 ; i < seqs.size() ; ++i ){
-				final int index = i;
+			int chunk = Math.max(1, (rows.length + 4 * nThreads - 1) / (4 * nThreads));
+			for( int i = 0 ; i < rows.length ; i += chunk ){
+				final int begin = i;
+				final int end = Math.min(rows.length, i + chunk);
 				tasks.add(new Callable<Object>(){
 
 					@Override
 					public Object call() throws Exception {
-						FeaturesValue feature = new FeaturesValue(builder, seqs.get(index), vals.get(index));
-						synchronized(shuffle){
-							shuffle.add(feature);
+						int[] present = new int[builder.maxPresent()];
+						for( int index = begin ; index < end ; ++index ){
+							rows[index] = new FeaturesValue(toRow(seqs.codes(), seqs.offset(index), present),
+									seqs.value(index), index);
 						}
 						return null;
 					}
@@ -116,7 +311,10 @@ public class SeqSVMTrainer {
 			} catch (InterruptedException e) {
 				//bad things
 				throw new Error(e);
+			} finally {
+				exec.shutdown();
 			}
+			final List<FeaturesValue> shuffle = new ArrayList<FeaturesValue>(Arrays.asList(rows));
 			Collections.shuffle(shuffle, random);
 
 			//build the cross-validation sets
@@ -124,34 +322,198 @@ public class SeqSVMTrainer {
 				System.err.println("Building cross validation sets.");
 			}
 			List<CrossValidationSet> crossValSets = this.buildCrossValidationSets(k,shuffle);
+			
+			svm_gram_matrix gram = null;
+			if(sharedGram && !engine.evaluatesKernel()){
+				System.err.println("Warning: the training engine does not evaluate the kernel, so the kernel matrix is"
+						+" not computed.");
+			}else if(sharedGram){
+				if(verbose){
+					System.err.println("Computing kernel matrix.");
+				}
+				svm_node[][] x = new svm_node[shuffle.size()][];
+				for( int i = 0 ; i < x.length ; ++i ){
+					x[i] = shuffle.get(i).features;
+				}
+				gram = svm_gram_matrix.compute(x, kernel(), nThreads);
+			}
 
 			//grid search the parameters in parallel
 			if(verbose){
 				System.err.println("Grid searching parameters.");
 			}
-			GridSearch search = new GridSearchParallel(eps, cs, terminationEpsilon, crossValSets,
-					builder, nThreads);
+			AbstractGridSearch search = newSearch(crossValSets, terminationEpsilon, nThreads);
+			search.setGram(gram);
+			search.setKernel(kernel());
+			search.setBitFeatures(bitFeatures && !kmerKernel);
+			search.setVerbose(verbose);
+			SolveTelemetry telemetry = telemetryFile == null ? null : new SolveTelemetry();
+			search.setTelemetry(telemetry);
 			svm_parameter param = search.search(saveIntermediariesTo);
 
 			//build a model using the best parameters and all the given data
-			if(verbose){
-				System.err.println("Generating model with parameters: ");
-				System.err.println("Epsilon = "+param.p);
-				System.err.println("C = "+param.C);
-			}
 			svm_problem prob = new svm_problem();
 			prob.l = seqs.size();
-			prob.y = asArray(vals);
-			prob.x = generateFeatures(builder, seqs);
-			svm_model model = svm.svm_train(prob, param);
-
-			return new SeqSVMModel(builder, model);
+			prob.y = seqs.values().clone();
+			prob.x = new svm_node[prob.l][];
+			for( int i = 0 ; i < prob.l ; ++i ){
+				prob.x[i] = rows[i].features;
+			}
+			if(bitFeatures && !kmerKernel && engine.evaluatesKernel()){
+				prob.bits = svm_bit_matrix.from_nodes(prob.x, builder.numFeatures());
+			}
+			if(gram != null){
+				prob.gram = gram;
+				prob.gram_index = new int[prob.l];
+				for( int i = 0 ; i < shuffle.size() ; ++i ){
+					prob.gram_index[shuffle.get(i).index] = i;
+				}
+			}
+			return trainFinal(prob, param, telemetry, nThreads);
 		}finally{
+			if(mapped != null){
+				mapped.close();
+			}
 			//restore system.out
 			System.setOut(sout);
 		}
 		
 	}
+	
+	/**
+	 * Featurizes the sequences in parallel a batch at a time and appends the rows to a file in the spill directory in
+	 * their original order, so at most one batch of rows is on the heap. The file is deleted if writing it fails.
+	 */
+	private svm_mapped_matrix spill(final SequenceData seqs, ExecutorService exec, int nThreads){
+		File file;
+		try{
+			file = File.createTempFile("seqsvm-rows", ".bin", spillDir);
+		}catch(IOException e){
+			throw new RuntimeException("SeqSVMTrainer: unable to write feature rows to "+spillDir, e);
+		}
+		try(svm_mapped_matrix.writer writer = svm_mapped_matrix.create(file)){
+			final int[][] batch = new int[Math.min(SPILL_BATCH, seqs.size())][];
+			for( int start = 0 ; start < seqs.size() ; start += SPILL_BATCH ){
+				final int offset = start;
+				int end = Math.min(seqs.size(), start + SPILL_BATCH);
+				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+				int chunk = Math.max(1, (end - start + nThreads - 1) / nThreads);
+				for( int i = start ; i < end ; i += chunk ){
+					final int begin = i;
+					final int stop = Math.min(end, i + chunk);
+					tasks.add(new Callable<Object>(){
+
+						@Override
+						public Object call() throws Exception {
+							int[] present = new int[builder.maxPresent()];
+							for( int index = begin ; index < stop ; ++index ){
+								int n = builder.featurize(seqs.codes(), seqs.offset(index), present);
+								batch[index - offset] = Arrays.copyOf(present, n);
+							}
+							return null;
+						}
+
+					});
+				}
+				try {
+					exec.invokeAll(tasks);
+				} catch (InterruptedException e) {
+					//bad things
+					throw new Error(e);
+				}
+				for( int index = start ; index < end ; ++index ){
+					int[] row = batch[index - offset];
+					writer.add(row, row.length);
+				}
+			}
+			svm_mapped_matrix mapped = writer.finish();
+			if(verbose){
+				System.err.println("Wrote feature rows to "+file+" ("+(file.length() >> 20)+" MB).");
+			}
+			return mapped;
+		}catch(IOException e){
+			//the writer deletes the file when it closes, unless it could not open it
+			file.delete();
+			throw new RuntimeException("SeqSVMTrainer: unable to write feature rows to "+spillDir, e);
+		}
+	}
+	
+	/**
+	 * Runs the parameter search and trains the final model on rows held in a mapped file.
+	 */
+	private LinearModel trainMapped(svm_mapped_matrix mapped, double[] values, int k, Random random,
+			double terminationEpsilon, File saveIntermediariesTo, int nThreads){
+		//shuffled like the rows on the heap are, so both modes build the same folds
+		List<Integer> shuffle = new ArrayList<Integer>(values.length);
+		for( int i = 0 ; i < values.length ; ++i ){
+			shuffle.add(i);
+		}
+		Collections.shuffle(shuffle, random);
+		
+		if(verbose){
+			System.err.println("Building cross validation sets.");
+		}
+		List<CrossValidationSet> crossValSets = this.buildCrossValidationSets(k, shuffle, mapped, values);
+		
+		if(verbose){
+			System.err.println("Grid searching parameters.");
+		}
+		AbstractGridSearch search = newSearch(crossValSets, terminationEpsilon, nThreads);
+		search.setKernel(kernel());
+		search.setVerbose(verbose);
+		SolveTelemetry telemetry = telemetryFile == null ? null : new SolveTelemetry();
+		search.setTelemetry(telemetry);
+		svm_parameter param = search.search(saveIntermediariesTo);
+		
+		svm_problem prob = new svm_problem();
+		prob.l = values.length;
+		prob.y = values.clone();
+		prob.mapped = mapped;
+		return trainFinal(prob, param, telemetry, nThreads);
+	}
+	
+	private AbstractGridSearch newSearch(List<CrossValidationSet> crossValSets, double terminationEpsilon,
+			int nThreads){
+		if(HALVING.equals(searchMethod)){
+			return new GridSearchHalving(eps, cs, terminationEpsilon, crossValSets, builder, engine, nThreads);
+		}else if(BAYES.equals(searchMethod)){
+			GridSearchBayes bayes = new GridSearchBayes(eps, cs, terminationEpsilon, crossValSets,
+					builder, engine, nThreads);
+			bayes.setBudget(budget);
+			return bayes;
+		}
+		GridSearchParallel grid = new GridSearchParallel(eps, cs, terminationEpsilon, crossValSets,
+				builder, engine, nThreads);
+		grid.setWarmStart(warmStart);
+		grid.setRacing(racing);
+		return grid;
+	}
+	
+	/**
+	 * Trains the model on all the data with the parameters the search picked.
+	 */
+	private LinearModel trainFinal(svm_problem prob, svm_parameter param, SolveTelemetry telemetry, int nThreads){
+		if(verbose){
+			System.err.println("Generating model with parameters: ");
+			System.err.println("Epsilon = "+param.p);
+			System.err.println("C = "+param.C);
+		}
+		//the search is over, so the solver of the final model gets all the threads
+		param.threads = nThreads;
+		if(telemetry != null){
+			param.listener = telemetry.listener(SolveTelemetry.FINAL_MODEL);
+		}
+		svm_model model = engine.train(prob, param);
+		if(telemetry != null){
+			try{
+				telemetry.write(telemetryFile);
+			}catch(FileNotFoundException e){
+				System.err.println("Error: unable to write file "+telemetryFile);
+			}
+		}
+
+		return new SeqSVMModel(builder, model);
+	}
 
 	private List<CrossValidationSet> buildCrossValidationSets(
 			final int k,
@@ -168,6 +530,7 @@ public class SeqSVMTrainer {
 			List<Double> testValues = new ArrayList<Double>();
 			List<svm_node[]> trainingSet = new ArrayList<svm_node[]>();
 			List<Double> trainingValues = new ArrayList<Double>();
+			int[] trainingRows = new int[shuffle.size() - (end - start)];
 			
 			for( int j = 0 ; j < shuffle.size() ; ++j ){
 				FeaturesValue sv = shuffle.get(j);
@@ -175,6 +538,7 @@ public class SeqSVMTrainer {
 					testSet.add(sv.features);
 					testValues.add(sv.val);
 				}else{
+					trainingRows[trainingSet.size()] = j;
 					trainingSet.add(sv.features);
 					trainingValues.add(sv.val);
 				}
@@ -184,7 +548,8 @@ public class SeqSVMTrainer {
 					trainingSet.toArray(new svm_node[trainingSet.size()][]),
 					asArray(trainingValues),
 					testSet.toArray(new svm_node[testSet.size()][]),
-					asArray(testValues)
+					asArray(testValues),
+					trainingRows
 					);
 			
 			crossValSets.add(set);
@@ -192,6 +557,36 @@ public class SeqSVMTrainer {
 		return crossValSets;
 	}
 	
+	private List<CrossValidationSet> buildCrossValidationSets(int k, List<Integer> shuffle, svm_mapped_matrix mapped,
+			double[] values){
+		int blockSize = shuffle.size() / k;
+		List<CrossValidationSet> crossValSets = new ArrayList<CrossValidationSet>();
+		for( int i = 0 ; i < k ; ++i ){
+			int start = blockSize * i;
+			int end = i == k-1 ? shuffle.size() : start + blockSize;
+			
+			int[] testRows = new int[end - start];
+			double[] testValues = new double[testRows.length];
+			int[] trainingRows = new int[shuffle.size() - testRows.length];
+			double[] trainingValues = new double[trainingRows.length];
+			int n = 0;
+			for( int j = 0 ; j < shuffle.size() ; ++j ){
+				int row = shuffle.get(j);
+				if( j >= start && j < end ){
+					testRows[j - start] = row;
+					testValues[j - start] = values[row];
+				}else{
+					trainingRows[n] = row;
+					trainingValues[n++] = values[row];
+				}
+			}
+			
+			crossValSets.add(new CrossValidationSet(mapped.subset(trainingRows), trainingValues,
+					mapped.subset(testRows), testValues));
+		}
+		return crossValSets;
+	}
+	
 	
 	
 }
@@ -0,0 +1,136 @@
+package bepler.seq.svm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sequences of one length held as symbol codes in a single byte array, sequence i at offset i * seqLen, together
+ * with a target value per sequence. Codes index into the alphabet, -1 marks a symbol outside it. The arrays are
+ * shared, not copied, so the data should be treated as read only.
+ */
+public class SequenceData {
+
+	private final char[] alphabet;
+	private final int seqLen;
+	private final byte[] codes;
+	private final double[] values;
+
+	public SequenceData(char[] alphabet, int seqLen, byte[] codes, double[] values){
+		if(alphabet.length > Byte.MAX_VALUE){
+			throw new IllegalArgumentException("SequenceData: alphabets hold at most "+Byte.MAX_VALUE+" symbols");
+		}
+		if((long) seqLen * values.length != codes.length){
+			throw new IllegalArgumentException("SequenceData: "+codes.length+" codes do not hold "+values.length
+					+" sequences of length "+seqLen);
+		}
+		this.alphabet = alphabet.clone();
+		this.seqLen = seqLen;
+		this.codes = codes;
+		this.values = values;
+	}
+
+	/**
+	 * Encodes the given sequences with the builder's alphabet.
+	 * @param builder
+	 * @param seqs - sequences of the builder's length
+	 * @param vals
+	 * @return
+	 */
+	public static SequenceData of(FeatureBuilder builder, List<String> seqs, List<Double> vals){
+		if(seqs.size() != vals.size()){
+			throw new RuntimeException("Sequences list and values list must be of the same size.");
+		}
+		int seqLen = builder.getSeqLen();
+		if((long) seqLen * seqs.size() > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("SequenceData: "+seqs.size()+" sequences of length "+seqLen
+					+" exceed "+Integer.MAX_VALUE+" symbols");
+		}
+		byte[] codes = new byte[seqLen * seqs.size()];
+		double[] values = new double[seqs.size()];
+		for( int i = 0 ; i < values.length ; ++i ){
+			String seq = seqs.get(i);
+			if(seq.length() != seqLen){
+				throw new RuntimeException("Sequences must all be of same length.");
+			}
+			builder.encode(seq, 0, seqLen, codes, i * seqLen);
+			values[i] = vals.get(i);
+		}
+		return new SequenceData(builder.getAlphabet(), seqLen, codes, values);
+	}
+
+	public int size(){
+		return values.length;
+	}
+
+	public int getSeqLen(){
+		return seqLen;
+	}
+
+	public char[] getAlphabet(){
+		return alphabet.clone();
+	}
+
+	/**
+	 * Returns the symbol codes of all sequences, not a copy.
+	 */
+	public byte[] codes(){
+		return codes;
+	}
+
+	/**
+	 * Returns the offset of sequence i in the codes array.
+	 */
+	public int offset(int i){
+		return i * seqLen;
+	}
+
+	/**
+	 * Returns the target values of all sequences, not a copy.
+	 */
+	public double[] values(){
+		return values;
+	}
+
+	public double value(int i){
+		return values[i];
+	}
+
+	public String sequence(int i){
+		char[] seq = new char[seqLen];
+		int offset = offset(i);
+		for( int j = 0 ; j < seqLen ; ++j ){
+			int c = codes[offset + j];
+			seq[j] = c < 0 ? 'N' : alphabet[c];
+		}
+		return new String(seq);
+	}
+
+	/**
+	 * Returns these sequences with their codes translated into the given alphabet. Symbols the alphabet does not hold
+	 * become -1. Returns this data if the alphabets are the same.
+	 * @param target
+	 * @return
+	 */
+	public SequenceData recode(char[] target){
+		if(Arrays.equals(alphabet, target)){
+			return this;
+		}
+		byte[] table = new byte[alphabet.length];
+		for( int i = 0 ; i < alphabet.length ; ++i ){
+			table[i] = -1;
+			for( int j = 0 ; j < target.length ; ++j ){
+				if(target[j] == alphabet[i]){
+					table[i] = (byte) j;
+					break;
+				}
+			}
+		}
+		byte[] recoded = new byte[codes.length];
+		for( int i = 0 ; i < codes.length ; ++i ){
+			int c = codes[i];
+			recoded[i] = c < 0 ? -1 : table[c];
+		}
+		return new SequenceData(target, seqLen, recoded, values);
+	}
+
+}
@@ -0,0 +1,430 @@
+package bepler.seq.svm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads lines of "sequence value" into a SequenceData. Plain files are memory mapped and gzipped input, recognized
+ * by its magic bytes, is streamed. Either way the input is cut into line aligned chunks that are parsed in parallel
+ * straight into symbol codes and values, checking sequence lengths and symbols as they are read. Unless an alphabet
+ * is given, the alphabet is the sorted set of symbols seen, so the same input always gives the same codes.
+ */
+public class SequenceLoader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+
+	private final int nThreads;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private char[] alphabet = null;
+
+	public SequenceLoader(int nThreads){
+		this.nThreads = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Restricts sequences to the given alphabet, in that code order. By default the alphabet is inferred.
+	 * @param alphabet - ASCII symbols or null to infer them
+	 */
+	public void setAlphabet(char[] alphabet){
+		this.alphabet = alphabet == null ? null : alphabet.clone();
+	}
+
+	/**
+	 * Sets the approximate number of bytes parsed by each task.
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize){
+		if(chunkSize < 1){
+			throw new IllegalArgumentException("SequenceLoader: chunk size must be positive but was "+chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public SequenceData load(File file) throws IOException{
+		ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+		try{
+			if(isGzip(file)){
+				InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16);
+				try{
+					return merge(file.getPath(), split(in, exec), exec);
+				}finally{
+					in.close();
+				}
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try{
+				return merge(file.getPath(), split(raf.getChannel(), exec), exec);
+			}finally{
+				raf.close();
+			}
+		}finally{
+			exec.shutdown();
+		}
+	}
+
+	/**
+	 * Loads plain or gzipped lines from the stream. The stream is not closed.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public SequenceData load(InputStream in) throws IOException{
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		byte[] magic = new byte[2];
+		int n = 0;
+		int read;
+		while(n < magic.length && (read = pushback.read(magic, n, magic.length - n)) >= 0){
+			n += read;
+		}
+		pushback.unread(magic, 0, n);
+		InputStream source = n == 2 && ((magic[0] & 0xff) | (magic[1] & 0xff) << 8) == GZIP_MAGIC
+				? new GZIPInputStream(pushback, 1 << 16) : pushback;
+		ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+		try{
+			return merge("input", split(source, exec), exec);
+		}finally{
+			exec.shutdown();
+		}
+	}
+
+	private static boolean isGzip(File file) throws IOException{
+		FileInputStream in = new FileInputStream(file);
+		try{
+			int b0 = in.read();
+			int b1 = in.read();
+			return b1 >= 0 && (b0 | b1 << 8) == GZIP_MAGIC;
+		}finally{
+			in.close();
+		}
+	}
+
+	private byte[] symbols(){
+		if(alphabet == null){
+			return null;
+		}
+		byte[] symbols = new byte[128];
+		Arrays.fill(symbols, (byte) -1);
+		for( int i = alphabet.length - 1 ; i >= 0 ; --i ){
+			if(alphabet[i] < symbols.length){
+				symbols[alphabet[i]] = (byte) i;
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Maps the file in chunks of about chunkSize bytes ending on line breaks and submits each for parsing.
+	 */
+	private List<Future<Chunk>> split(FileChannel channel, ExecutorService exec) throws IOException{
+		byte[] symbols = symbols();
+		List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+		long size = channel.size();
+		long start = 0;
+		while(start < size){
+			long end = lineEnd(channel, Math.min(size, start + chunkSize), size);
+			if(end - start > Integer.MAX_VALUE){
+				throw new IOException("SequenceLoader: line longer than "+Integer.MAX_VALUE+" bytes");
+			}
+			chunks.add(exec.submit(new Chunk(channel.map(MapMode.READ_ONLY, start, end - start), symbols)));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns the position after the first line break at or after pos, or size if there is none.
+	 */
+	private static long lineEnd(FileChannel channel, long pos, long size) throws IOException{
+		ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+		while(pos < size){
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if(n < 0){
+				break;
+			}
+			for( int i = 0 ; i < n ; ++i ){
+				if(buf.get(i) == '\n'){
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Reads the stream into buffers of chunkSize bytes, submitting each for parsing up to its last line break while
+	 * the next is read, so decompression overlaps parsing.
+	 */
+	private List<Future<Chunk>> split(InputStream in, ExecutorService exec) throws IOException{
+		byte[] symbols = symbols();
+		List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+		byte[] buf = new byte[chunkSize];
+		int len = 0;
+		int n;
+		while((n = in.read(buf, len, buf.length - len)) >= 0){
+			len += n;
+			if(len < buf.length){
+				continue;
+			}
+			int cut = len;
+			while(cut > 0 && buf[cut - 1] != '\n'){
+				--cut;
+			}
+			if(cut == 0){
+				//no line break, so the line does not fit in the buffer
+				buf = Arrays.copyOf(buf, buf.length * 2);
+				continue;
+			}
+			chunks.add(exec.submit(new Chunk(ByteBuffer.wrap(buf, 0, cut), symbols)));
+			byte[] next = new byte[Math.max(chunkSize, 2 * (len - cut))];
+			System.arraycopy(buf, cut, next, 0, len - cut);
+			len -= cut;
+			buf = next;
+		}
+		if(len > 0){
+			chunks.add(exec.submit(new Chunk(ByteBuffer.wrap(buf, 0, len), symbols)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Checks the parsed chunks against each other in input order and copies them into one data set, translating raw
+	 * symbols into codes of the inferred alphabet.
+	 */
+	private SequenceData merge(String name, List<Future<Chunk>> futures, ExecutorService exec) throws IOException{
+		final Chunk[] chunks = new Chunk[futures.size()];
+		for( int i = 0 ; i < chunks.length ; ++i ){
+			try{
+				chunks[i] = futures.get(i).get();
+			}catch(InterruptedException e){
+				throw new Error(e);
+			}catch(ExecutionException e){
+				throw new Error(e.getCause());
+			}
+		}
+		final int[] starts = new int[chunks.length];
+		int seqLen = -1;
+		long total = 0;
+		long lines = 0;
+		for( int i = 0 ; i < chunks.length ; ++i ){
+			Chunk c = chunks[i];
+			if(c.n > 0 || c.error != null){
+				if(seqLen < 0){
+					seqLen = c.seqLen;
+				}else if(c.seqLen != seqLen){
+					throw new IOException(name+":"+(lines + c.firstLine)+": sequence of length "+c.seqLen
+							+" but expected length "+seqLen+". Sequences must all be of same length.");
+				}
+			}
+			if(c.error != null){
+				throw new IOException(name+":"+(lines + c.errorLine)+": "+c.error);
+			}
+			starts[i] = (int) Math.min(total, Integer.MAX_VALUE);
+			total += c.n;
+			lines += c.lines;
+		}
+		if(total == 0){
+			throw new IOException(name+": no sequences");
+		}
+		if(total * seqLen > Integer.MAX_VALUE){
+			throw new IOException(name+": "+total+" sequences of length "+seqLen+" exceed "+Integer.MAX_VALUE
+					+" symbols");
+		}
+		char[] alph = alphabet;
+		final byte[] table;
+		if(alph == null){
+			boolean[] seen = new boolean[128];
+			for(Chunk c : chunks){
+				for( int j = 0 ; j < seen.length ; ++j ){
+					seen[j] |= c.seen[j];
+				}
+			}
+			table = new byte[seen.length];
+			int size = 0;
+			for( int j = 0 ; j < seen.length ; ++j ){
+				if(seen[j]){
+					table[j] = (byte) size++;
+				}
+			}
+			alph = new char[size];
+			for( int j = 0 ; j < seen.length ; ++j ){
+				if(seen[j]){
+					alph[table[j]] = (char) j;
+				}
+			}
+		}else{
+			table = null;
+		}
+		final int len = seqLen;
+		final byte[] codes = new byte[(int) total * seqLen];
+		final double[] values = new double[(int) total];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for( int i = 0 ; i < chunks.length ; ++i ){
+			final int index = i;
+			tasks.add(new Callable<Object>(){
+
+				@Override
+				public Object call() throws Exception {
+					Chunk c = chunks[index];
+					int offset = starts[index] * len;
+					int count = c.n * len;
+					if(table == null){
+						System.arraycopy(c.codes, 0, codes, offset, count);
+					}else{
+						for( int j = 0 ; j < count ; ++j ){
+							codes[offset + j] = table[c.codes[j]];
+						}
+					}
+					System.arraycopy(c.values, 0, values, starts[index], c.n);
+					chunks[index] = null;
+					return null;
+				}
+
+			});
+		}
+		try{
+			exec.invokeAll(tasks);
+		}catch(InterruptedException e){
+			throw new Error(e);
+		}
+		return new SequenceData(alph, seqLen, codes, values);
+	}
+
+	/**
+	 * Parses the lines of a buffer. Every symbol is one input byte, so the codes never outgrow the buffer and the
+	 * values never outgrow one per seqLen + 2 bytes.
+	 */
+	private static class Chunk implements Callable<Chunk>{
+
+		private final ByteBuffer buf;
+		private final byte[] symbols;
+		private final boolean[] seen = new boolean[128];
+		private int lines = 0;
+		private int n = 0;
+		private int seqLen = -1;
+		private int firstLine = -1;
+		private byte[] codes;
+		private double[] values;
+		private int errorLine = -1;
+		private String error = null;
+
+		private Chunk(ByteBuffer buf, byte[] symbols){
+			this.buf = buf;
+			this.symbols = symbols;
+		}
+
+		private static boolean isBlank(byte b){
+			return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0b;
+		}
+
+		private int skipBlanks(int pos, int end){
+			while(pos < end && isBlank(buf.get(pos))){
+				++pos;
+			}
+			return pos;
+		}
+
+		private int skipToken(int pos, int end){
+			byte b;
+			while(pos < end && (b = buf.get(pos)) != '\n' && !isBlank(b)){
+				++pos;
+			}
+			return pos;
+		}
+
+		private void fail(String message){
+			errorLine = lines;
+			error = message;
+		}
+
+		@Override
+		public Chunk call(){
+			int pos = buf.position();
+			int end = buf.limit();
+			codes = new byte[end - pos];
+			byte[] token = new byte[32];
+			while(pos < end){
+				++lines;
+				pos = skipBlanks(pos, end);
+				int seqStart = pos;
+				pos = skipToken(pos, end);
+				int len = pos - seqStart;
+				pos = skipBlanks(pos, end);
+				int valStart = pos;
+				pos = skipToken(pos, end);
+				int valLen = pos - valStart;
+				while(pos < end && buf.get(pos++) != '\n'){
+					//skip the rest of the line
+				}
+				if(len == 0){
+					continue;
+				}
+				if(seqLen < 0){
+					seqLen = len;
+					firstLine = lines;
+					values = new double[(end - seqStart) / (seqLen + 2) + 1];
+				}else if(len != seqLen){
+					fail("sequence of length "+len+" but expected length "+seqLen
+							+". Sequences must all be of same length.");
+					return this;
+				}
+				if(valLen == 0){
+					fail("missing value");
+					return this;
+				}
+				int offset = n * seqLen;
+				for( int j = 0 ; j < len ; ++j ){
+					byte b = buf.get(seqStart + j);
+					if(b < 0){
+						fail("symbol is not ASCII");
+						return this;
+					}
+					if(symbols == null){
+						seen[b] = true;
+						codes[offset + j] = b;
+					}else if((codes[offset + j] = symbols[b]) < 0){
+						fail("symbol '"+(char) b+"' is not in the alphabet");
+						return this;
+					}
+				}
+				if(token.length < valLen){
+					token = new byte[valLen];
+				}
+				for( int j = 0 ; j < valLen ; ++j ){
+					token[j] = buf.get(valStart + j);
+				}
+				String value = new String(token, 0, valLen, StandardCharsets.US_ASCII);
+				try{
+					values[n] = Double.parseDouble(value);
+				}catch(NumberFormatException e){
+					fail("value is not a number: "+value);
+					return this;
+				}
+				++n;
+			}
+			return this;
+		}
+
+	}
+
+}
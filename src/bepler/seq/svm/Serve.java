@@ -0,0 +1,271 @@
+package bepler.seq.svm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps models loaded and scores sequences sent over a line protocol, either on stdin/stdout or on a local TCP port,
+ * so callers pay JVM startup, model loading, and JIT warm up once rather than per invocation. Requests from all
+ * connections are scored in batches by a ScoreBatcher, and model files are polled and hot swapped by a ModelRegistry.
+ *
+ * Each request line is "SEQ" for the default (first) model or "MODEL SEQ" for a named one, and gets one response
+ * line in order: the score or "ERROR message". The line "!stats" answers with request counts and p50/p99 latency in
+ * microseconds, "!models" with the model names. Lines a client sends without waiting are answered together.
+ */
+public class Serve implements Module {
+
+	public static final String MODEL_FLAG = "-m";
+	public static final String PORT_FLAG = "-p";
+	public static final String THREADS_FLAG = "-n";
+	public static final String BATCH_FLAG = "-b";
+	public static final String RELOAD_FLAG = "-r";
+	public static final String STATS_FLAG = "-s";
+
+	public static final long DEFAULT_RELOAD_MILLIS = 1000;
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<File> files = new ArrayList<File>();
+	private int port = -1;
+	private int nThreads = 0;
+	private int batchSize = ScoreBatcher.DEFAULT_BATCH_SIZE;
+	private long reloadMillis = DEFAULT_RELOAD_MILLIS;
+	private long statsSeconds = 0;
+
+	private ModelRegistry models;
+	private ScoreBatcher batcher;
+
+	@Override
+	public String usage() {
+		return "Usage: serve "
+				+MODEL_FLAG + " [name=]MODEL [ "+MODEL_FLAG+" [name=]MODEL ... ] "
+				+"[ "+PORT_FLAG+" local_port ] "
+				+"[ "+THREADS_FLAG+" n_threads ] "
+				+"[ "+BATCH_FLAG+" max_batch ] "
+				+"[ "+RELOAD_FLAG+" reload_poll_ms ] "
+				+"[ "+STATS_FLAG+" stats_interval_seconds ] "
+				;
+	}
+
+	@Override
+	public void setArgs(String[] args) throws Exception {
+		names.clear();
+		files.clear();
+		for( int i = 0 ; i < args.length ; ++i ){
+			String arg = args[i];
+			switch(arg){
+			case MODEL_FLAG:
+				String model = args[++i];
+				int eq = model.indexOf('=');
+				File file = new File(eq < 0 ? model : model.substring(eq + 1));
+				String name = eq < 0 ? file.getName() : model.substring(0, eq);
+				if(eq < 0 && name.lastIndexOf('.') > 0){
+					name = name.substring(0, name.lastIndexOf('.'));
+				}
+				names.add(name);
+				files.add(file);
+				break;
+			case PORT_FLAG:
+				port = Integer.parseInt(args[++i]);
+				break;
+			case THREADS_FLAG:
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			case BATCH_FLAG:
+				batchSize = Integer.parseInt(args[++i]);
+				break;
+			case RELOAD_FLAG:
+				reloadMillis = Long.parseLong(args[++i]);
+				break;
+			case STATS_FLAG:
+				statsSeconds = Long.parseLong(args[++i]);
+				break;
+			default:
+				throw new Exception("Unrecognized flag: "+arg);
+			}
+		}
+		if(names.isEmpty() || batchSize < 1){
+			throw new Exception();
+		}
+		models = new ModelRegistry();
+		for( int i = 0 ; i < names.size() ; ++i ){
+			try{
+				models.add(names.get(i), files.get(i));
+			}catch(IOException e){
+				System.err.println("Error: unable to read model "+files.get(i)+": "+e.getMessage());
+				throw e;
+			}
+		}
+	}
+
+	private static ThreadFactory daemons(final String name){
+		return new ThreadFactory(){
+			private int n = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r){
+				Thread t = new Thread(r, name+"-"+(n++));
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	@Override
+	public void execute() {
+		int n = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+		batcher = new ScoreBatcher(models, n, batchSize);
+		//a server on a port runs until it is killed, so the final report comes from a shutdown hook
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override
+			public void run(){
+				System.err.println(batcher.stats());
+			}
+		}));
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemons("serve-timer"));
+		if(reloadMillis > 0){
+			timer.scheduleWithFixedDelay(new Runnable(){
+				@Override
+				public void run(){
+					models.poll();
+				}
+			}, reloadMillis, reloadMillis, TimeUnit.MILLISECONDS);
+		}
+		if(statsSeconds > 0){
+			timer.scheduleAtFixedRate(new Runnable(){
+				@Override
+				public void run(){
+					System.err.println(batcher.stats());
+				}
+			}, statsSeconds, statsSeconds, TimeUnit.SECONDS);
+		}
+		try{
+			if(port >= 0){
+				listen();
+			}else{
+				serve(System.in, System.out);
+			}
+		}catch(IOException e){
+			throw new RuntimeException(e);
+		}finally{
+			timer.shutdownNow();
+			batcher.shutdown();
+		}
+	}
+
+	/**
+	 * Accepts connections on the loopback interface until the process is stopped. Each connection is served on its
+	 * own pooled thread.
+	 */
+	private void listen() throws IOException{
+		ExecutorService connections = Executors.newCachedThreadPool(daemons("serve-connection"));
+		ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+		System.err.println("Listening on "+server.getInetAddress().getHostAddress()+":"+server.getLocalPort());
+		try{
+			while(true){
+				final Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				connections.execute(new Runnable(){
+					@Override
+					public void run(){
+						try{
+							serve(socket.getInputStream(), socket.getOutputStream());
+						}catch(IOException e){
+							//client went away
+						}finally{
+							try{
+								socket.close();
+							}catch(IOException e){
+								//bad things
+							}
+						}
+					}
+				});
+			}
+		}finally{
+			server.close();
+			connections.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answers the request lines of one connection in order. Lines already buffered are submitted before waiting for
+	 * any of their results, so a client that pipelines its requests has them batched.
+	 */
+	private void serve(InputStream in, OutputStream out) throws IOException{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 1 << 16);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+		Deque<ScoreBatcher.Request> pending = new ArrayDeque<ScoreBatcher.Request>();
+		String line;
+		try{
+			while((line = reader.readLine()) != null){
+				if(line.startsWith("!")){
+					answer(pending, writer);
+					writer.write(command(line.trim()));
+					writer.write('\n');
+				}else{
+					String trimmed = line.trim();
+					int split = 0;
+					while(split < trimmed.length() && !Character.isWhitespace(trimmed.charAt(split))){
+						++split;
+					}
+					if(split == trimmed.length()){
+						pending.add(batcher.submit(null, trimmed));
+					}else{
+						pending.add(batcher.submit(trimmed.substring(0, split), trimmed.substring(split).trim()));
+					}
+				}
+				if(pending.size() >= batchSize || !reader.ready()){
+					answer(pending, writer);
+					writer.flush();
+				}
+			}
+			answer(pending, writer);
+			writer.flush();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void answer(Deque<ScoreBatcher.Request> pending, Writer writer)
+			throws IOException, InterruptedException{
+		while(!pending.isEmpty()){
+			writer.write(pending.poll().result());
+			writer.write('\n');
+		}
+	}
+
+	private String command(String cmd){
+		switch(cmd){
+		case "!stats":
+			return batcher.stats();
+		case "!models":
+			String s = "";
+			for(String name : models.names()){
+				s += s.isEmpty() ? name : " " + name;
+			}
+			return s;
+		default:
+			return "ERROR unknown command "+cmd;
+		}
+	}
+
+}
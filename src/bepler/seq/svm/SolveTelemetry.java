@@ -0,0 +1,124 @@
+package bepler.seq.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_solve_listener;
+import arnaudsj.java.libsvm.svm_solve_stats;
+
+/**
+ * Collects the libsvm solver statistics of the models trained while searching parameters, one record per solve keyed
+ * by epsilon, C, and cross validation fold, and writes them as CSV or JSON. The statistics show whether a slow model
+ * spent its time converging or recomputing kernel rows the cache could not hold.
+ */
+public class SolveTelemetry {
+
+	/**
+	 * Fold of the model trained on all the data.
+	 */
+	public static final int FINAL_MODEL = -1;
+
+	private static final String[] COLUMNS = { "epsilon", "C", "fold", "l", "iterations", "shrinks", "unshrinks",
+		"reconstructions", "kernel_evaluations", "cache_hits", "cache_misses", "cache_evictions", "init_ms",
+		"shrink_ms", "reconstruct_ms", "total_ms", "obj", "rho", "nSV", "nBSV" };
+
+	private static class Record{
+		private final double p;
+		private final double c;
+		private final int fold;
+		private final svm_solve_stats stats;
+		private Record(double p, double c, int fold, svm_solve_stats stats){
+			this.p = p; this.c = c; this.fold = fold; this.stats = stats;
+		}
+		private Object[] values(){
+			return new Object[]{ p, c, fold, stats.l, stats.iterations, stats.shrinks, stats.unshrinks,
+					stats.reconstructions, stats.kernel_evaluations, stats.cache_hits, stats.cache_misses,
+					stats.cache_evictions, millis(stats.init_nanos), millis(stats.shrink_nanos),
+					millis(stats.reconstruct_nanos), millis(stats.total_nanos), stats.obj, stats.rho, stats.nSV,
+					stats.nBSV };
+		}
+	}
+
+	private final List<Record> records = new ArrayList<Record>();
+
+	private static double millis(long nanos){
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Returns a listener that records every solve it is told of under the given fold.
+	 * @param fold - cross validation fold or FINAL_MODEL
+	 */
+	public svm_solve_listener listener(final int fold){
+		return new svm_solve_listener(){
+			@Override
+			public void solved(svm_parameter param, svm_solve_stats stats) {
+				add(param.p, param.C, fold, stats);
+			}
+		};
+	}
+
+	public synchronized void add(double p, double c, int fold, svm_solve_stats stats){
+		records.add(new Record(p, c, fold, stats));
+	}
+
+	public synchronized int size(){
+		return records.size();
+	}
+
+	public synchronized void writeCsv(PrintStream out){
+		for( int i = 0 ; i < COLUMNS.length ; ++i ){
+			out.print(i == 0 ? COLUMNS[i] : ","+COLUMNS[i]);
+		}
+		out.println();
+		for(Record r : records){
+			Object[] values = r.values();
+			for( int i = 0 ; i < values.length ; ++i ){
+				out.print(i == 0 ? values[i] : ","+values[i]);
+			}
+			out.println();
+		}
+	}
+
+	public synchronized void writeJson(PrintStream out){
+		out.println("[");
+		for( int j = 0 ; j < records.size() ; ++j ){
+			Object[] values = records.get(j).values();
+			out.print("  {");
+			for( int i = 0 ; i < values.length ; ++i ){
+				Object v = values[i];
+				if(v instanceof Double && (((Double) v).isNaN() || ((Double) v).isInfinite())){
+					v = "null";
+				}
+				out.print((i == 0 ? "" : ", ")+"\""+COLUMNS[i]+"\": "+v);
+			}
+			out.println(j == records.size() - 1 ? "}" : "},");
+		}
+		out.println("]");
+	}
+
+	/**
+	 * Writes the records to the file, as JSON if its name ends with .json and as CSV otherwise.
+	 * @param file
+	 * @throws FileNotFoundException
+	 */
+	public void write(File file) throws FileNotFoundException{
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			if(file.getName().endsWith(".json")){
+				writeJson(out);
+			}else{
+				writeCsv(out);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+}
@@ -2,9 +2,7 @@ package bepler.seq.svm;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,9 +37,7 @@ public class Test implements Module{
 			String arg = args[i];
 			switch(arg){
 			case MODEL_FLAG:
-				InputStream in = new FileInputStream(new File(args[++i]));
-				model = LinearModel.readModel(in);
-				in.close();
+				model = LinearModel.readModel(new File(args[++i]));
 				break;
 			case DATA_FLAG:
 				parseSeqs(new File(args[++i]));
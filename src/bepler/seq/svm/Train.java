@@ -1,17 +1,13 @@
 package bepler.seq.svm;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
-import java.util.Set;
 
 public class Train implements Module {
 
@@ -53,18 +49,38 @@ public class Train implements Module {
 	private static final String TERM_TAG = "-t";
 	private static final String INTERM_TAG = "-i";
 	private static final String THREADS_TAG = "-n";
+	private static final String ENGINE_TAG = "-a";
+	private static final String WARM_START_TAG = "-w";
+	private static final String GRAM_TAG = "-g";
+	private static final String KMER_KERNEL_TAG = "-p";
+	private static final String SEARCH_TAG = "-x";
+	private static final String RACING_TAG = "-r";
+	private static final String BUDGET_TAG = "-b";
+	private static final String BITS_TAG = "-o";
+	private static final String TELEMETRY_TAG = "-m";
+	private static final String BINARY_MODEL_TAG = "-z";
+	private static final String OUT_OF_CORE_TAG = "-d";
 	
-	private final List<String> seqs = new ArrayList<String>();
-	private final List<Double> vals = new ArrayList<Double>();
-	private char[] alphabet;
+	private String seqsFile;
+	private SequenceData seqs;
 	private int[] kmers;
 	private double[] ps;
 	private double[] cs;
-	private int seqLen;
 	private int k = DEFAULT_CROSS_VALIDATION;
 	private double term = DEFAULT_TERMINATION_EPSILON;
 	private File intermediariesDir = null;
 	private int nThreads = 1;
+	private String engine = Engines.SMO;
+	private boolean warmStart = false;
+	private boolean sharedGram = false;
+	private boolean kmerKernel = false;
+	private String search = SeqSVMTrainer.GRID;
+	private boolean racing = false;
+	private int budget = GridSearchBayes.DEFAULT_BUDGET;
+	private boolean bitFeatures = false;
+	private File telemetryFile = null;
+	private File binaryModelFile = null;
+	private File spillDir = null;
 	
 	private String arrayToString(double[] array){
 		String s = "";
@@ -74,6 +90,14 @@ public class Train implements Module {
 		return s;
 	}
 	
+	private String engineNames(){
+		String s = "";
+		for(String name : Engines.names()){
+			s += s.isEmpty() ? name : "|" + name;
+		}
+		return s;
+	}
+	
 	private String arrayToString(int[] array){
 		String s = "";
 		for(int i : array){
@@ -92,7 +116,18 @@ public class Train implements Module {
 				+"[ "+K_TAG+" cross_validation ] "
 				+"[ "+TERM_TAG+" terminate_epsilon ] "
 				+"[ "+INTERM_TAG+" intermediary_directory ] "
-				+"[ "+THREADS_TAG+" n_threads ] ";
+				+"[ "+THREADS_TAG+" n_threads ] "
+				+"[ "+ENGINE_TAG+" "+engineNames()+" ] "
+				+"[ "+WARM_START_TAG+" ] "
+				+"[ "+GRAM_TAG+" ] "
+				+"[ "+KMER_KERNEL_TAG+" ] "
+				+"[ "+SEARCH_TAG+" "+SeqSVMTrainer.GRID+"|"+SeqSVMTrainer.HALVING+"|"+SeqSVMTrainer.BAYES+" ] "
+				+"[ "+RACING_TAG+" ] "
+				+"[ "+BUDGET_TAG+" max_models ] "
+				+"[ "+BITS_TAG+" ] "
+				+"[ "+TELEMETRY_TAG+" telemetry_file.csv|.json ] "
+				+"[ "+BINARY_MODEL_TAG+" binary_model_file ] "
+				+"[ "+OUT_OF_CORE_TAG+" spill_directory ] ";
 	}
 	
 	@Override
@@ -101,7 +136,7 @@ public class Train implements Module {
 			String cur = args[i];
 			switch(cur){
 			case SEQS_TAG:
-				alphabet = parseSequences(args[++i]);
+				seqsFile = args[++i];
 				break;
 			case FEATURES_TAG:
 				kmers = parseInts(args[++i]);
@@ -124,14 +159,70 @@ public class Train implements Module {
 			case THREADS_TAG:
 				nThreads = Integer.parseInt(args[++i]);
 				break;
+			case ENGINE_TAG:
+				engine = args[++i];
+				Engines.forName(engine);
+				break;
+			case WARM_START_TAG:
+				warmStart = true;
+				break;
+			case GRAM_TAG:
+				sharedGram = true;
+				break;
+			case KMER_KERNEL_TAG:
+				kmerKernel = true;
+				break;
+			case SEARCH_TAG:
+				search = args[++i];
+				if(!search.equals(SeqSVMTrainer.GRID) && !search.equals(SeqSVMTrainer.HALVING)
+						&& !search.equals(SeqSVMTrainer.BAYES)){
+					throw new Exception("Unknown search method: "+search);
+				}
+				break;
+			case RACING_TAG:
+				racing = true;
+				break;
+			case BUDGET_TAG:
+				budget = Integer.parseInt(args[++i]);
+				break;
+			case BITS_TAG:
+				bitFeatures = true;
+				break;
+			case TELEMETRY_TAG:
+				telemetryFile = new File(args[++i]);
+				break;
+			case BINARY_MODEL_TAG:
+				binaryModelFile = new File(args[++i]);
+				break;
+			case OUT_OF_CORE_TAG:
+				spillDir = new File(args[++i]);
+				break;
 			default:
 				System.err.println("Unrecognized flag: "+cur);
 				throw new Exception();
 			}
 		}
-		if(alphabet == null || kmers == null || ps == null || cs == null){
+		if(seqsFile == null || kmers == null || ps == null || cs == null){
+			throw new Exception();
+		}
+		if(kmerKernel && !engine.equals(Engines.SMO)){
+			//the DualCD engines train the linear kernel on feature rows and reject every grid job otherwise
+			System.err.println("Error: "+KMER_KERNEL_TAG+" needs the "+Engines.SMO+" engine");
+			throw new Exception();
+		}
+		if(sharedGram && !engine.equals(Engines.SMO)){
+			//the DualCD engines never read the kernel matrix, which would take 2*n^2 bytes for nothing
+			System.err.println("Error: "+GRAM_TAG+" needs the "+Engines.SMO+" engine");
 			throw new Exception();
 		}
+		if((warmStart || racing) && !search.equals(SeqSVMTrainer.GRID)){
+			//only the grid search warm starts or races, the others would silently ignore the flags
+			System.err.println("Error: "+WARM_START_TAG+" and "+RACING_TAG+" only apply to the "+SeqSVMTrainer.GRID
+					+" search");
+			throw new Exception();
+		}
+		//parsed once all flags are read so the loader can use n_threads
+		seqs = loadSequences(seqsFile);
 	}
 	
 	@Override
@@ -141,12 +232,45 @@ public class Train implements Module {
 		System.err.println("Using Cs: "+arrayToString(cs));
 		System.err.println("Using K: "+k);
 		System.err.println("Using terminal epsilon: "+term);
-		System.err.println("Sequence length: "+seqLen);
+		System.err.println("Using engine: "+engine);
+		System.err.println("Warm start: "+warmStart);
+		System.err.println("Shared kernel matrix: "+sharedGram);
+		System.err.println("Packed kmer kernel: "+kmerKernel);
+		System.err.println("Bitset features: "+bitFeatures);
+		if(spillDir != null){
+			System.err.println("Out of core rows in: "+spillDir);
+		}
+		if(telemetryFile != null){
+			System.err.println("Solver telemetry: "+telemetryFile);
+		}
+		System.err.println("Search method: "+search);
+		System.err.println("Racing: "+racing);
+		if(search.equals(SeqSVMTrainer.BAYES)){
+			System.err.println("Model budget: "+budget);
+		}
+		System.err.println("Sequence length: "+seqs.getSeqLen());
 		System.err.println("Total sequences: "+seqs.size());
-		SeqSVMTrainer trainer = new SeqSVMTrainer(seqLen, kmers, alphabet, ps, cs);
+		SeqSVMTrainer trainer = new SeqSVMTrainer(seqs.getSeqLen(), kmers, seqs.getAlphabet(), ps, cs);
 		trainer.setVerbose(true);
-		LinearModel model = trainer.train(seqs, vals, k, new Random(), term, intermediariesDir, nThreads);
+		trainer.setEngine(Engines.forName(engine));
+		trainer.setWarmStart(warmStart);
+		trainer.setSharedGram(sharedGram);
+		trainer.setKmerKernel(kmerKernel);
+		trainer.setBitFeatures(bitFeatures);
+		trainer.setTelemetry(telemetryFile);
+		trainer.setSearchMethod(search);
+		trainer.setRacing(racing);
+		trainer.setBudget(budget);
+		trainer.setOutOfCore(spillDir);
+		LinearModel model = trainer.train(seqs, k, new Random(), term, intermediariesDir, nThreads);
 		model.write(System.out);
+		if(binaryModelFile != null){
+			try{
+				BinaryLinearModel.write(model, binaryModelFile);
+			}catch(IOException e){
+				System.err.println("Error: unable to write file "+binaryModelFile);
+			}
+		}
 	}
 	
 	private int[] parseInts(String file) throws FileNotFoundException{
@@ -171,52 +295,13 @@ public class Train implements Module {
 		return asDoubleArray(vals);
 	}
 	
-	private char[] parseSequences(String file) throws IOException{
-		File f = new File(file);
-		Set<Character> alphabet = new HashSet<Character>();
-		BufferedReader reader = new BufferedReader(new FileReader(f));
-		seqLen = -1;
-		String line;
-		try {
-			while((line = reader.readLine()) != null){
-				String[] tokens = line.split("\\s+");
-				String seq = tokens[0];
-				for(char c : seq.toCharArray()){
-					alphabet.add(c);
-				}
-				if(seqLen == -1){
-					seqLen = seq.length();
-				}else if(seqLen != seq.length()){
-					throw new Error("Sequences must all be of same length.");
-				}
-				seqs.add(seq);
-				vals.add(Double.parseDouble(tokens[1]));
-			}
-		} catch (NumberFormatException e) {
-			throw e;
-		} catch (IOException e) {
+	private SequenceData loadSequences(String file) throws IOException{
+		try{
+			return new SequenceLoader(nThreads).load(new File(file));
+		}catch(IOException e){
+			System.err.println("Error: "+e.getMessage());
 			throw e;
-		}finally{
-			try {
-				reader.close();
-			} catch (IOException e) {
-				throw e;
-			}
 		}
-		return asCharArray(alphabet);
 	}
 	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
 }
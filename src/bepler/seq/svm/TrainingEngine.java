@@ -0,0 +1,33 @@
+package bepler.seq.svm;
+
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Trains an svm_model for a problem. Engines differ in how they solve the SVR problem, but all of them produce
+ * models that svm.svm_predict and SeqSVMModel can use. Engines abandon training with a CancellationException when
+ * the training thread is interrupted.
+ */
+public interface TrainingEngine {
+	
+	public svm_model train(svm_problem prob, svm_parameter param);
+	
+	/**
+	 * Trains a model starting from the given dual coefficients instead of from zero.
+	 * @param prob
+	 * @param param
+	 * @param alpha - the coefficient of each training instance from a previous solution on the same problem, or
+	 * all zeros. It is replaced by the coefficients of the new solution.
+	 * @return
+	 */
+	public svm_model train(svm_problem prob, svm_parameter param, double[] alpha);
+	
+	/**
+	 * Returns whether the engine evaluates the kernel, and so reads the precomputed kernel values and the bitset
+	 * rows of a problem. Engines that do not only read its feature rows.
+	 * @return
+	 */
+	public boolean evaluatesKernel();
+	
+}
@@ -0,0 +1,174 @@
+package bepler.seq.svm;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a batch of independent training jobs on a fixed pool of worker threads. Jobs are started longest expected
+ * first, so the slow jobs do not end up as stragglers after the fast ones have drained the pool, and a job is only
+ * started once the memory it is expected to need fits in what the running jobs leave of the scheduler's memory
+ * budget. A job that does not fit yet steps aside for the longest job behind it that does, so one job waiting for
+ * memory never leaves a free thread idle. It is started as soon as a finishing job frees enough memory, and at the
+ * latest once the jobs behind it have all been started and finished. Jobs that throw are counted as failed and do not
+ * stop the batch.
+ */
+public class TrainingScheduler {
+
+	/**
+	 * A unit of work together with estimates of its relative cost and of the bytes it needs while running.
+	 */
+	public static abstract class Job{
+
+		private final double cost;
+		private final long memory;
+
+		public Job(double cost, long memory){
+			this.cost = cost;
+			this.memory = memory;
+		}
+
+		public abstract void run() throws Exception;
+
+	}
+
+	private final int threads;
+	private final long memoryBudget;
+	private boolean verbose = false;
+	private volatile Exception firstFailure = null;
+
+	//state of the batch being run, guarded by this
+	private long freeMemory;
+	private int running;
+	private int done;
+	private int failed;
+
+	/**
+	 * @param threads - number of worker threads, all cores if threads <= 0
+	 * @param memoryBudget - bytes that the running jobs may use together
+	 */
+	public TrainingScheduler(int threads, long memoryBudget){
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		this.memoryBudget = Math.max(1, memoryBudget);
+	}
+
+	public int getThreads(){
+		return threads;
+	}
+
+	/**
+	 * Sets whether progress is reported to stderr.
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose){
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Returns the exception of the first job that failed in the last call to run, or null if none failed
+	 */
+	public Exception firstFailure(){
+		return firstFailure;
+	}
+
+	/**
+	 * Runs the given jobs and waits for all of them to finish.
+	 * @param jobs
+	 * @return the number of jobs that failed
+	 */
+	public synchronized int run(List<? extends Job> jobs){
+		firstFailure = null;
+		List<Job> pending = new LinkedList<Job>(jobs);
+		Collections.sort(pending, new Comparator<Job>(){
+			@Override
+			public int compare(Job a, Job b) {
+				return Double.compare(b.cost, a.cost);
+			}
+		});
+		final int total = pending.size();
+		freeMemory = memoryBudget;
+		running = 0;
+		done = 0;
+		failed = 0;
+		boolean interrupted = false;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try{
+			while(!pending.isEmpty() || running > 0){
+				Job next = running < threads ? nextFitting(pending) : null;
+				if(next == null){
+					//wait for a running job to free its thread and memory
+					try{
+						wait();
+					}catch(InterruptedException e){
+						interrupted = true;
+					}
+					continue;
+				}
+				final Job job = next;
+				//a job larger than the whole budget runs alone
+				final long memory = Math.min(memoryBudget, job.memory);
+				freeMemory -= memory;
+				++running;
+				pool.execute(new Runnable(){
+					@Override
+					public void run() {
+						try{
+							job.run();
+						}catch(Exception e){
+							fail(e);
+						}finally{
+							finish(memory, total);
+						}
+					}
+				});
+			}
+		}finally{
+			pool.shutdown();
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Removes and returns the longest pending job whose memory fits in the free memory, or null if none fits
+	 */
+	private Job nextFitting(List<Job> pending){
+		for(Iterator<Job> it = pending.iterator() ; it.hasNext() ; ){
+			Job job = it.next();
+			if(Math.min(memoryBudget, job.memory) <= freeMemory){
+				it.remove();
+				return job;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void fail(Exception e){
+		if(failed++ == 0){
+			firstFailure = e;
+		}
+	}
+
+	private synchronized void finish(long memory, int total){
+		freeMemory += memory;
+		--running;
+		reportProgress(++done, total);
+		notifyAll();
+	}
+
+	private void reportProgress(int done, int total){
+		//report every tenth of the jobs
+		if(verbose && (done == total || done * 10 / total != (done - 1) * 10 / total)){
+			synchronized(System.err){
+				System.err.println("Completed "+done+" of "+total+" training jobs.");
+			}
+		}
+	}
+
+}
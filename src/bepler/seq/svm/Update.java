@@ -0,0 +1,132 @@
+package bepler.seq.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Folds new measurements into an existing model without retraining. The model's weights are updated online by a
+ * PassiveAggressiveUpdater over a bounded number of passes through the new sequences only, and the result is
+ * written in the format the model was read in: binary if it was binary, text otherwise.
+ */
+public class Update implements Module {
+
+	public static final String MODEL_FLAG = "-m";
+	public static final String SEQS_FLAG = "-s";
+	public static final String EPS_FLAG = "-e";
+	public static final String C_FLAG = "-c";
+	public static final String PASSES_FLAG = "-k";
+	public static final String THREADS_FLAG = "-n";
+	public static final String OUT_FLAG = "-o";
+
+	public static final int DEFAULT_PASSES = 1;
+	private static final long SEED = 1;
+
+	private File modelFile = null;
+	private File seqsFile = null;
+	private File outFile = null;
+	private double eps = PassiveAggressiveUpdater.DEFAULT_EPSILON;
+	private double c = PassiveAggressiveUpdater.DEFAULT_C;
+	private int passes = DEFAULT_PASSES;
+	private int nThreads = 0;
+
+	@Override
+	public String usage() {
+		return "Usage: update "
+				+MODEL_FLAG + " MODEL "
+				+SEQS_FLAG + " SEQS_FILE "
+				+"[ "+EPS_FLAG+" epsilon ] "
+				+"[ "+C_FLAG+" C ] "
+				+"[ "+PASSES_FLAG+" passes ] "
+				+"[ "+THREADS_FLAG+" n_threads ] "
+				+"[ "+OUT_FLAG+" output_model ] "
+				;
+	}
+
+	@Override
+	public void setArgs(String[] args) throws Exception {
+		for( int i = 0 ; i < args.length ; ++i ){
+			String arg = args[i];
+			switch(arg){
+			case MODEL_FLAG:
+				modelFile = new File(args[++i]);
+				break;
+			case SEQS_FLAG:
+				seqsFile = new File(args[++i]);
+				break;
+			case EPS_FLAG:
+				eps = Double.parseDouble(args[++i]);
+				break;
+			case C_FLAG:
+				c = Double.parseDouble(args[++i]);
+				break;
+			case PASSES_FLAG:
+				passes = Integer.parseInt(args[++i]);
+				break;
+			case THREADS_FLAG:
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			case OUT_FLAG:
+				outFile = new File(args[++i]);
+				break;
+			default:
+				throw new Exception("Unrecognized flag: "+arg);
+			}
+		}
+		if(modelFile == null || seqsFile == null || passes < 1 || eps < 0 || c <= 0){
+			throw new Exception();
+		}
+	}
+
+	@Override
+	public void execute() {
+		try{
+			boolean binary = BinaryLinearModel.isBinary(modelFile);
+			PassiveAggressiveUpdater updater = new PassiveAggressiveUpdater(LinearModel.readModel(modelFile));
+			updater.setEpsilon(eps);
+			updater.setC(c);
+			FeatureBuilder builder = updater.getBuilder();
+			//symbols outside the model's alphabet are recoded as unknown and contribute no features
+			SequenceData data = new SequenceLoader(nThreads).load(seqsFile).recode(builder.getAlphabet());
+			if(data.getSeqLen() != builder.getSeqLen()){
+				throw new IOException(seqsFile+": sequences of length "+data.getSeqLen()+" but the model scores length "
+						+builder.getSeqLen());
+			}
+			System.err.println("Updating model with "+data.size()+" sequences");
+			System.err.println("Using epsilon: "+eps);
+			System.err.println("Using C: "+c);
+			Random random = new Random(SEED);
+			for( int pass = 0 ; pass < passes ; ++pass ){
+				long before = updater.updates();
+				double mae = updater.pass(data, random);
+				System.err.println("Pass "+(pass + 1)+": mean absolute error before update = "+mae
+						+", updates = "+(updater.updates() - before));
+			}
+			LinearModel model = updater.toModel();
+			OutputStream out = new BufferedOutputStream(outFile == null ? System.out : new FileOutputStream(outFile),
+					1 << 16);
+			try{
+				if(binary){
+					model.writeBinary(out);
+				}else{
+					PrintStream print = new PrintStream(out);
+					model.write(print);
+					print.flush();
+				}
+				out.flush();
+			}finally{
+				if(outFile != null){
+					out.close();
+				}
+			}
+		}catch(IOException e){
+			System.err.println("Error: "+e.getMessage());
+			throw new RuntimeException(e);
+		}
+	}
+
+}
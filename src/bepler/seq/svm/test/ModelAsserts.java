@@ -0,0 +1,65 @@
+package bepler.seq.svm.test;
+
+import junit.framework.TestCase;
+import arnaudsj.java.libsvm.svm_kmer_node;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+
+/**
+ * Compares svm_models field by field. Support vectors are compared by value, whether a model holds them as svm_node
+ * rows or as an svm_csr_matrix.
+ */
+class ModelAsserts {
+
+	private ModelAsserts(){}
+
+	static void assertModelsEqual(svm_model expected, svm_model actual){
+		TestCase.assertEquals(expected.param.svm_type, actual.param.svm_type);
+		TestCase.assertEquals(expected.param.kernel_type, actual.param.kernel_type);
+		TestCase.assertEquals(expected.nr_class, actual.nr_class);
+		TestCase.assertEquals(expected.l, actual.l);
+		assertArrayEquals(expected.rho, actual.rho);
+		TestCase.assertEquals(expected.sv_coef.length, actual.sv_coef.length);
+		for( int k = 0 ; k < expected.sv_coef.length ; ++k ){
+			assertArrayEquals(expected.sv_coef[k], actual.sv_coef[k]);
+		}
+		for( int i = 0 ; i < expected.l ; ++i ){
+			svm_node[] a = row(expected, i);
+			svm_node[] b = row(actual, i);
+			TestCase.assertEquals("length of SV "+i, a.length, b.length);
+			for( int j = 0 ; j < a.length ; ++j ){
+				if(a[j] instanceof svm_kmer_node){
+					TestCase.assertTrue("SV "+i, b[j] instanceof svm_kmer_node);
+					assertKmerNodesEqual((svm_kmer_node) a[j], (svm_kmer_node) b[j]);
+				}else{
+					TestCase.assertEquals("index of SV "+i, a[j].index, b[j].index);
+					TestCase.assertEquals("value of SV "+i, a[j].value, b[j].value, 0);
+				}
+			}
+		}
+	}
+
+	private static svm_node[] row(svm_model model, int i){
+		return model.SV != null ? model.SV[i] : model.SV_csr.row(i);
+	}
+
+	private static void assertKmerNodesEqual(svm_kmer_node a, svm_kmer_node b){
+		TestCase.assertEquals(a.alphabet_size(), b.alphabet_size());
+		TestCase.assertEquals(a.length(), b.length());
+		for( int i = 0 ; i < a.length() ; ++i ){
+			TestCase.assertEquals(a.symbol(i), b.symbol(i));
+		}
+	}
+
+	private static void assertArrayEquals(double[] a, double[] b){
+		if(a == null || b == null){
+			TestCase.assertTrue(a == b);
+			return;
+		}
+		TestCase.assertEquals(a.length, b.length);
+		for( int i = 0 ; i < a.length ; ++i ){
+			TestCase.assertEquals(a[i], b[i], 0);
+		}
+	}
+
+}
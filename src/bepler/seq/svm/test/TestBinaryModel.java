@@ -0,0 +1,130 @@
+package bepler.seq.svm.test;
+
+import java.io.File;
+import java.util.Random;
+
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_binary_model;
+import arnaudsj.java.libsvm.svm_kmer_node;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_print_interface;
+import arnaudsj.java.libsvm.svm_problem;
+
+/**
+ * Tests that models saved by svm_binary_model load back equal, and that KMER models without support vectors can be
+ * saved in both formats.
+ */
+public class TestBinaryModel extends junit.framework.TestCase {
+
+	private static final int L = 80;
+	private static final int SEQ_LEN = 12;
+	private static final int ALPHABET = 4;
+
+	static{
+		//the solvers print their progress through this function
+		svm.svm_set_print_string_function(new svm_print_interface(){
+			@Override
+			public void print(String s){
+				//quiet
+			}
+		});
+	}
+
+	private static svm_problem problem(boolean kmer){
+		Random random = new Random(0);
+		svm_problem prob = new svm_problem();
+		prob.l = L;
+		prob.y = new double[L];
+		prob.x = new svm_node[L][];
+		for( int i = 0 ; i < L ; ++i ){
+			byte[] codes = new byte[SEQ_LEN];
+			for( int j = 0 ; j < SEQ_LEN ; ++j ){
+				codes[j] = (byte) random.nextInt(ALPHABET);
+				prob.y[i] += codes[j] == j % ALPHABET ? 0.2 : 0;
+			}
+			prob.y[i] += 0.1 * random.nextGaussian();
+			if(kmer){
+				prob.x[i] = new svm_node[]{ new svm_kmer_node(codes, 0, SEQ_LEN, ALPHABET) };
+			}else{
+				//one 0/1 feature per position and symbol
+				prob.x[i] = new svm_node[SEQ_LEN];
+				for( int j = 0 ; j < SEQ_LEN ; ++j ){
+					prob.x[i][j] = new svm_node();
+					prob.x[i][j].index = j * ALPHABET + codes[j];
+					prob.x[i][j].value = 1;
+				}
+			}
+		}
+		return prob;
+	}
+
+	private static svm_parameter param(int kernelType, double p){
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.EPSILON_SVR;
+		param.kernel_type = kernelType;
+		param.gamma = 1.0 / SEQ_LEN;
+		param.kmer_sizes = new int[]{1, 2, 3};
+		param.C = 1;
+		param.p = p;
+		param.eps = 0.001;
+		param.cache_size = 1;
+		return param;
+	}
+
+	private static svm_model binaryRoundTrip(svm_model model) throws Exception{
+		File file = File.createTempFile("binary-model", ".bin");
+		try{
+			svm_binary_model.save(file.getPath(), model);
+			assertTrue(svm_binary_model.is_binary(file.getPath()));
+			return svm_binary_model.load(file.getPath());
+		}finally{
+			file.delete();
+		}
+	}
+
+	private static svm_model textRoundTrip(svm_model model) throws Exception{
+		File file = File.createTempFile("text-model", ".txt");
+		try{
+			svm.svm_save_model(file.getPath(), model);
+			return svm.svm_load_model(file.getPath());
+		}finally{
+			file.delete();
+		}
+	}
+
+	public void testRoundTrip() throws Exception{
+		for(int kernelType : new int[]{svm_parameter.LINEAR, svm_parameter.RBF}){
+			svm_problem prob = problem(false);
+			svm_model model = svm.svm_train(prob, param(kernelType, 0.05));
+			assertTrue(model.l > 0);
+			svm_model loaded = binaryRoundTrip(model);
+			ModelAsserts.assertModelsEqual(model, loaded);
+			for( int i = 0 ; i < prob.l ; ++i ){
+				assertEquals(svm.svm_predict(model, prob.x[i]), svm.svm_predict(loaded, prob.x[i]), 0);
+			}
+		}
+	}
+
+	public void testKmerRoundTrip() throws Exception{
+		svm_problem prob = problem(true);
+		svm_model model = svm.svm_train(prob, param(svm_parameter.KMER, 0.05));
+		assertTrue(model.l > 0);
+		svm_model loaded = binaryRoundTrip(model);
+		ModelAsserts.assertModelsEqual(model, loaded);
+		assertEquals(svm.svm_predict(model, prob.x[0]), svm.svm_predict(loaded, prob.x[0]), 0);
+	}
+
+	public void testKmerWithoutSupportVectors() throws Exception{
+		//every value is within epsilon of the intercept, so no instance becomes a support vector
+		svm_model model = svm.svm_train(problem(true), param(svm_parameter.KMER, 100));
+		assertEquals(0, model.l);
+		ModelAsserts.assertModelsEqual(model, binaryRoundTrip(model));
+		svm_model text = textRoundTrip(model);
+		assertEquals(0, text.l);
+		assertEquals(model.rho[0], text.rho[0], 0);
+		assertEquals(svm_parameter.KMER, text.param.kernel_type);
+	}
+
+}
@@ -1,7 +1,11 @@
 package bepler.seq.svm.test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import bepler.seq.svm.Feature;
 import bepler.seq.svm.FeatureBuilder;
+import bepler.seq.svm.Features;
 
 public class TestFeatureBuilder extends junit.framework.TestCase {
 	
@@ -61,6 +65,22 @@ public class TestFeatureBuilder extends junit.framework.TestCase {
 		0
 	};
 	
+	public void testAlphabetSize(){
+		char[] alphabet = new char[FeatureBuilder.MAX_ALPHABET + 1];
+		for( int i = 0 ; i < alphabet.length ; ++i ){
+			alphabet[i] = (char) ('!' + i);
+		}
+		FeatureBuilder largest = new FeatureBuilder(2, new int[]{1}, Arrays.copyOf(alphabet, FeatureBuilder.MAX_ALPHABET));
+		String last = String.valueOf(alphabet[FeatureBuilder.MAX_ALPHABET - 1]);
+		assertEquals(largest.indexOf(new Feature(last, 1)), largest.featurizeAsIndices(last + last)[1]);
+		try{
+			new FeatureBuilder(2, new int[]{1}, alphabet);
+			fail("accepted an alphabet too large to pack");
+		}catch(IllegalArgumentException e){
+			//expected
+		}
+	}
+	
 	public void testFeatureBuilder(){
 		
 		Feature[] test = b.getFeatures();
@@ -71,6 +91,17 @@ public class TestFeatureBuilder extends junit.framework.TestCase {
 		
 	}
 	
+	public void testIndexOf(){
+		assertEquals(expectedFeatures.length, b.numFeatures());
+		for( int i = 0 ; i < expectedFeatures.length ; ++i ){
+			assertEquals(expectedFeatures[i], b.getFeature(i));
+			assertEquals(i, b.indexOf(expectedFeatures[i]));
+		}
+		assertEquals(-1, b.indexOf(new Feature("AA", 1)));
+		assertEquals(-1, b.indexOf(new Feature("AN", 0)));
+		assertEquals(-1, b.indexOf(new Feature("AAA", 0)));
+	}
+	
 	public void testFeaturize(){
 		int[] test = b.featurize(s);
 		assertEquals(stringFeatures.length, test.length);
@@ -79,4 +110,42 @@ public class TestFeatureBuilder extends junit.framework.TestCase {
 		}
 	}
 	
+	public void testFeaturizeAsIndices(){
+		int[] test = b.featurizeAsIndices(s);
+		int j = 0;
+		for( int i = 0 ; i < stringFeatures.length ; ++i ){
+			if(stringFeatures[i] == 1){
+				assertEquals(i, test[j++]);
+			}
+		}
+		assertEquals(j, test.length);
+	}
+	
+	public void testFeaturizeMatchesFeatureOrder(){
+		Random random = new Random(0);
+		char[] alphabet = new char[]{'A','C','G','T','N'};
+		FeatureBuilder builder = new FeatureBuilder(12, new int[]{3, 1, 2}, alphabet);
+		FeatureBuilder dna = new FeatureBuilder(12, new int[]{3, 1, 2}, FeatureBuilder.DNA);
+		for( int trial = 0 ; trial < 100 ; ++trial ){
+			char[] seq = new char[12];
+			for( int i = 0 ; i < seq.length ; ++i ){
+				seq[i] = alphabet[random.nextInt(alphabet.length)];
+			}
+			String s = new String(seq);
+			assertPresent(Features.featurize(s, builder.getFeatures()), builder.featurizeAsIndices(s));
+			//characters outside of the alphabet break kmers instead of matching
+			assertPresent(Features.featurize(s, dna.getFeatures()), dna.featurizeAsIndices(s));
+		}
+	}
+	
+	private static void assertPresent(boolean[] expected, int[] indices){
+		int j = 0;
+		for( int i = 0 ; i < expected.length ; ++i ){
+			if(expected[i]){
+				assertEquals(i, indices[j++]);
+			}
+		}
+		assertEquals(j, indices.length);
+	}
+	
 }
@@ -0,0 +1,82 @@
+package bepler.seq.svm.test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Tests the libsvm kernel column cache, which is package private and so is driven through reflection.
+ */
+public class TestKernelCache extends junit.framework.TestCase {
+
+	private Object cache;
+	private Method getData;
+	private Method swapIndex;
+	private Method evictions;
+
+	private void newCache(int l, long size) throws Exception{
+		Class<?> c = Class.forName("arnaudsj.java.libsvm.Cache");
+		Constructor<?> init = c.getDeclaredConstructor(int.class, long.class);
+		init.setAccessible(true);
+		cache = init.newInstance(l, size);
+		getData = c.getDeclaredMethod("get_data", int.class, float[][].class, int.class);
+		getData.setAccessible(true);
+		swapIndex = c.getDeclaredMethod("swap_index", int.class, int.class);
+		swapIndex.setAccessible(true);
+		evictions = c.getDeclaredMethod("evictions");
+		evictions.setAccessible(true);
+	}
+
+	private int getData(int index, int len) throws Exception{
+		return (Integer) getData.invoke(cache, index, new float[1][], len);
+	}
+
+	private void swapIndex(int i, int j) throws Exception{
+		swapIndex.invoke(cache, i, j);
+	}
+
+	private long evictions() throws Exception{
+		return (Long) evictions.invoke(cache);
+	}
+
+	public void testGetDataAfterSwapGivesUp() throws Exception{
+		//three slots of 10 floats
+		newCache(10, 120);
+		for( int i = 0 ; i < 3 ; ++i ){
+			assertEquals(0, getData(i, 5));
+		}
+		//every cached column holds [0,5), which covers 2 but not 8
+		swapIndex(2, 8);
+		assertEquals(0, evictions());
+		for( int i = 0 ; i < 3 ; ++i ){
+			assertEquals(0, getData(i, 5));
+		}
+		assertEquals(0, evictions());
+		assertEquals(0, getData(9, 5));
+		assertEquals(1, evictions());
+	}
+
+	public void testSwapKeepsCoveredColumns() throws Exception{
+		newCache(10, 120);
+		assertEquals(0, getData(0, 10));
+		assertEquals(0, getData(1, 5));
+		swapIndex(2, 8);
+		//column 0 covers both indices and stays, column 1 is dropped
+		assertEquals(10, getData(0, 10));
+		assertEquals(0, getData(1, 5));
+		assertEquals(0, evictions());
+	}
+
+	public void testRepeatedSwapsNeverLoseSlots() throws Exception{
+		newCache(10, 120);
+		for( int round = 0 ; round < 20 ; ++round ){
+			for( int i = 0 ; i < 3 ; ++i ){
+				getData((round + i) % 10, 1 + round % 9);
+			}
+			swapIndex(round % 10, 9 - round % 10);
+		}
+		for( int i = 0 ; i < 10 ; ++i ){
+			getData(i, 10);
+		}
+	}
+
+}
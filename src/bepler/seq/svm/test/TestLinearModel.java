@@ -0,0 +1,173 @@
+package bepler.seq.svm.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import bepler.seq.svm.BinaryLinearModel;
+import bepler.seq.svm.LinearModel;
+
+public class TestLinearModel extends junit.framework.TestCase {
+
+	private static final String[] numbers = new String[]{
+		"1", "-7", "1.", ".5", "-.5", "1e", "1e+", "+3E-2", "2.5e10", "-0.25", "e5", ".", "+", "--1", "1.5.2",
+		"3e-2x", "1 2", "0x10", "Infinity", "NaN"
+	};
+
+	private static final String[] featureLines = new String[]{
+		"[3]ACG : 0.5",
+		"  [ 3 ] ACG :  0.5  ",
+		"\t[3]\tACG\t:\t0.5\t",
+		"[3] ACG:0.5",
+		"[] ACG : 0.5",
+		"[3] : 0.5",
+		"[3] ACG 0.5",
+		"[x] ACG : 0.5",
+		"[3 ACG : 0.5",
+		"[3] AC1 : 0.5",
+		"[3] ACG : ",
+		"[-3] ACG : 0.5",
+	};
+
+	private static final String[] interceptLines = new String[]{
+		"intercept : 1.5",
+		"  intercept  :  1.5  ",
+		"intercept:1.5",
+		"intercept 1.5",
+		"intercepts : 1.5",
+		"Intercept : 1.5",
+		"intercept : 1.5 2",
+	};
+
+	private static LinearModel read(String text){
+		return LinearModel.readModel(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private static String write(LinearModel model){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		model.write(out);
+		out.flush();
+		return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Asserts that the line is read as a feature exactly when it matches LINE_REGEX
+	 */
+	private static void assertFeatureLine(String line){
+		LinearModel model = read("[0] A : 1\n" + line + "\n");
+		boolean expected = line.matches(LinearModel.LINE_REGEX);
+		assertEquals(line, expected ? 2 : 1, model.numFeatures());
+		if(expected){
+			String number = line.substring(line.indexOf(':') + 1).trim();
+			assertEquals(line, Double.parseDouble(number), model.getWeights()[1]);
+		}
+	}
+
+	/**
+	 * Asserts that the line sets the intercept exactly when it matches INTERCEPT_REGEX
+	 */
+	private static void assertInterceptLine(String line){
+		LinearModel model = read("[0] A : 1\n" + line + "\n");
+		boolean expected = line.matches(LinearModel.INTERCEPT_REGEX);
+		if(expected){
+			String number = line.substring(line.indexOf(':') + 1).trim();
+			assertEquals(line, Double.parseDouble(number), model.intercept());
+		}else{
+			assertEquals(line, 0.0, model.intercept());
+		}
+		assertEquals(line, 1, model.numFeatures());
+	}
+
+	public void testNumbersMatchRegex(){
+		for(String number : numbers){
+			assertFeatureLine("[0] C : " + number);
+			assertInterceptLine("intercept : " + number);
+		}
+		//the cases the hand written parser is most likely to get wrong
+		assertTrue(".5".matches(LinearModel.FLOAT_REGEX));
+		assertTrue("+3E-2".matches(LinearModel.FLOAT_REGEX));
+		assertFalse("1.".matches(LinearModel.FLOAT_REGEX));
+		assertFalse("1e".matches(LinearModel.FLOAT_REGEX));
+	}
+
+	public void testFeatureLinesMatchRegex(){
+		for(String line : featureLines){
+			assertFeatureLine(line);
+		}
+		LinearModel padded = read("  [ 3 ] ACG :  0.5  \n");
+		assertEquals(1, padded.numFeatures());
+		assertEquals("[3]ACG", padded.getFeature(0).toString());
+		assertEquals(0.5, padded.getWeights()[0]);
+	}
+
+	public void testInterceptLinesMatchRegex(){
+		for(String line : interceptLines){
+			assertInterceptLine(line);
+		}
+	}
+
+	public void testPredictShorterSequences(){
+		LinearModel model = read("intercept : 1\n[0]A : 2\n[1]C : 3\n[0]AC : 5\n[2]G : 7\n[1]CG : 11\n");
+		assertEquals(29.0, model.predict("ACG"));
+		assertEquals(11.0, model.predict("AC"));
+		assertEquals(3.0, model.predict("A"));
+		assertEquals(1.0, model.predict(""));
+		try{
+			model.predict("ACGT");
+			fail("scored a sequence longer than the model");
+		}catch(RuntimeException e){
+			//expected
+		}
+	}
+
+	public void testTextAndBinaryRoundTrip() throws Exception{
+		Random random = new Random(0);
+		char[] alphabet = new char[]{'A','C','G','T'};
+		StringBuilder text = new StringBuilder();
+		text.append("intercept : ").append(random.nextGaussian()).append('\n');
+		for( int k = 1 ; k <= 3 ; ++k ){
+			for( int pos = 0 ; pos + k <= 8 ; ++pos ){
+				for( int trial = 0 ; trial < 5 ; ++trial ){
+					StringBuilder kmer = new StringBuilder();
+					for( int i = 0 ; i < k ; ++i ){
+						kmer.append(alphabet[random.nextInt(alphabet.length)]);
+					}
+					text.append('[').append(pos).append(']').append(kmer).append(" : ")
+						.append(random.nextGaussian()).append('\n');
+				}
+			}
+		}
+		LinearModel model = read(text.toString());
+		String written = write(model);
+		assertEquals(written, write(read(written)));
+
+		File file = File.createTempFile("linear-model", ".bin");
+		try{
+			BinaryLinearModel.write(model, file);
+			assertTrue(BinaryLinearModel.isBinary(file));
+			LinearModel binary = BinaryLinearModel.read(file);
+			assertEquals(model.intercept(), binary.intercept());
+			//binary models hold every feature of the space, so text written from one lists them all
+			String dense = write(LinearModel.readModel(file));
+			assertEquals(model.getScorer().getBuilder().numFeatures(), binary.numFeatures());
+			assertEquals(dense, write(read(dense)));
+			BinaryLinearModel.write(read(dense), file);
+			assertEquals(dense, write(LinearModel.readModel(file)));
+			for( int trial = 0 ; trial < 100 ; ++trial ){
+				char[] seq = new char[8];
+				for( int i = 0 ; i < seq.length ; ++i ){
+					seq[i] = alphabet[random.nextInt(alphabet.length)];
+				}
+				String s = new String(seq);
+				assertEquals(model.predict(s), binary.predict(s), 1e-12);
+			}
+		}finally{
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package bepler.seq.svm.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import arnaudsj.java.libsvm.svm;
+import arnaudsj.java.libsvm.svm_bit_matrix;
+import arnaudsj.java.libsvm.svm_csr_matrix;
+import arnaudsj.java.libsvm.svm_mapped_matrix;
+import arnaudsj.java.libsvm.svm_model;
+import arnaudsj.java.libsvm.svm_node;
+import arnaudsj.java.libsvm.svm_parameter;
+import arnaudsj.java.libsvm.svm_print_interface;
+import arnaudsj.java.libsvm.svm_problem;
+import bepler.seq.svm.DualCDEngine;
+
+/**
+ * Tests that every form a problem can hold its instances in trains the same model as the svm_node rows.
+ */
+public class TestProblemForms extends junit.framework.TestCase {
+
+	private static final int L = 120;
+	private static final int DIM = 40;
+
+	private static final svm_node[][] x = new svm_node[L][];
+	private static final double[] y = new double[L];
+
+	static{
+		//the solvers print their progress through this function
+		svm.svm_set_print_string_function(new svm_print_interface(){
+			@Override
+			public void print(String s){
+				//quiet
+			}
+		});
+		Random random = new Random(0);
+		for( int i = 0 ; i < L ; ++i ){
+			List<svm_node> row = new ArrayList<svm_node>();
+			for( int j = 0 ; j < DIM ; ++j ){
+				if(random.nextInt(4) == 0){
+					svm_node node = new svm_node();
+					node.index = j;
+					node.value = 1;
+					row.add(node);
+					y[i] += (j % 5) * 0.1;
+				}
+			}
+			x[i] = row.toArray(new svm_node[row.size()]);
+			y[i] += 0.1 * random.nextGaussian();
+		}
+	}
+
+	private static svm_parameter param(int kernelType){
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.EPSILON_SVR;
+		param.kernel_type = kernelType;
+		param.gamma = 1.0 / DIM;
+		param.C = 1;
+		param.p = 0.05;
+		param.eps = 0.001;
+		param.cache_size = 1;
+		return param;
+	}
+
+	private static svm_problem problem(){
+		svm_problem prob = new svm_problem();
+		prob.l = L;
+		prob.y = y;
+		return prob;
+	}
+
+	private static svm_problem nodes(){
+		svm_problem prob = problem();
+		prob.x = x;
+		return prob;
+	}
+
+	public void testCsrAndBitsTrainLikeNodes(){
+		for(int kernelType : new int[]{svm_parameter.LINEAR, svm_parameter.RBF}){
+			svm_model expected = svm.svm_train(nodes(), param(kernelType));
+			svm_problem csr = problem();
+			csr.csr = svm_csr_matrix.from_nodes(x);
+			ModelAsserts.assertModelsEqual(expected, svm.svm_train(csr, param(kernelType)));
+			svm_problem bits = problem();
+			bits.bits = svm_bit_matrix.from_nodes(x, DIM);
+			ModelAsserts.assertModelsEqual(expected, svm.svm_train(bits, param(kernelType)));
+		}
+	}
+
+	private static svm_mapped_matrix map(File file) throws Exception{
+		try(svm_mapped_matrix.writer writer = svm_mapped_matrix.create(file)){
+			int[] indices = new int[DIM];
+			for(svm_node[] row : x){
+				for( int j = 0 ; j < row.length ; ++j ){
+					indices[j] = row[j].index;
+				}
+				writer.add(indices, row.length);
+			}
+			return writer.finish();
+		}
+	}
+
+	public void testMappedTrainsLikeNodes() throws Exception{
+		svm_mapped_matrix mapped = map(File.createTempFile("problem-forms", ".bin"));
+		try{
+			svm_problem prob = problem();
+			prob.mapped = mapped;
+			for(int kernelType : new int[]{svm_parameter.LINEAR, svm_parameter.RBF}){
+				ModelAsserts.assertModelsEqual(svm.svm_train(nodes(), param(kernelType)),
+						svm.svm_train(prob, param(kernelType)));
+			}
+			DualCDEngine engine = new DualCDEngine(false);
+			ModelAsserts.assertModelsEqual(engine.train(nodes(), param(svm_parameter.LINEAR)),
+					engine.train(prob, param(svm_parameter.LINEAR)));
+			//a view of the rows trains like a copy of them
+			int[] rows = new int[L / 2];
+			svm_problem half = problem();
+			half.l = rows.length;
+			half.y = new double[rows.length];
+			half.x = new svm_node[rows.length][];
+			for( int i = 0 ; i < rows.length ; ++i ){
+				rows[i] = 2 * i + 1;
+				half.y[i] = y[rows[i]];
+				half.x[i] = x[rows[i]];
+			}
+			svm_problem view = problem();
+			view.l = rows.length;
+			view.y = half.y;
+			view.mapped = mapped.subset(rows);
+			ModelAsserts.assertModelsEqual(svm.svm_train(half, param(svm_parameter.RBF)),
+					svm.svm_train(view, param(svm_parameter.RBF)));
+		}finally{
+			mapped.close();
+		}
+	}
+
+	public void testDualCDReadsEveryForm(){
+		DualCDEngine engine = new DualCDEngine(false);
+		svm_model expected = engine.train(nodes(), param(svm_parameter.LINEAR));
+		svm_problem csr = problem();
+		csr.csr = svm_csr_matrix.from_nodes(x);
+		ModelAsserts.assertModelsEqual(expected, engine.train(csr, param(svm_parameter.LINEAR)));
+		svm_problem bits = problem();
+		bits.bits = svm_bit_matrix.from_nodes(x, DIM);
+		ModelAsserts.assertModelsEqual(expected, engine.train(bits, param(svm_parameter.LINEAR)));
+	}
+
+}